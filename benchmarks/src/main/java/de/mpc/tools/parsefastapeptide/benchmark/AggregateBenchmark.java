@@ -0,0 +1,106 @@
+package de.mpc.tools.parsefastapeptide.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.mpc.tools.parsefastapeptide.DigestException;
+import de.mpc.tools.parsefastapeptide.ParseFastaPeptides;
+import de.mpc.tools.parsefastapeptide.PeptideStorage;
+
+
+/**
+ * Benchmarks the whole parsing, digestion and aggregation of a generated FASTA
+ * file with {@link ParseFastaPeptides}.
+ *
+ * @author julian
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-XX:MaxDirectMemorySize=4g"})
+public class AggregateBenchmark {
+
+    /** size of the generated FASTA file in MB */
+    @Param({"50"})
+    private int sizeMB;
+
+    @Param({"UNIPROT"})
+    private ProteinLengths proteinLengths;
+
+    @Param({"TRYPSIN", "TRYPSIN,CHYMOTRYPSIN"})
+    private String enzymes;
+
+    @Param({"0", "2"})
+    private int missedCleavages;
+
+    /** the minimal and maximal peptide length, 0 for no restriction */
+    @Param({"6-45"})
+    private String lengthLimits;
+
+    @Param({"1", "4"})
+    private int threads;
+
+    @Param({"HEAP", "DIRECT_MEMORY", "SPILL_TO_DISK"})
+    private PeptideStorage storage;
+
+    private Path fastaFile;
+
+    private ParseFastaPeptides parser;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        fastaFile = Files.createTempFile("benchmark", ".fasta");
+        proteinLengths.createGenerator(42).writeFasta(fastaFile.toString(), (long) sizeMB << 20);
+    }
+
+
+    @Setup(Level.Invocation)
+    public void createParser() {
+        String[] limits = lengthLimits.split("-");
+        parser = new ParseFastaPeptides(fastaFile.toString(), enzymes.split(","),
+                Integer.parseInt(limits[0]), Integer.parseInt(limits[1]), missedCleavages);
+        parser.setNumberOfThreads(threads);
+        parser.setPeptideStorage(storage);
+        // a small budget, so the spilling is actually measured
+        parser.setMemoryBudget(16L << 20);
+    }
+
+
+    @TearDown(Level.Invocation)
+    public void closeParser() throws IOException {
+        parser.getPeptideStore().close();
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(fastaFile);
+    }
+
+
+    @Benchmark
+    public int parseAndAggregate() throws IOException, DigestException {
+        parser.parseFastaFile();
+        return parser.getPeptideStore().size();
+    }
+}
@@ -0,0 +1,35 @@
+package de.mpc.tools.parsefastapeptide.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Runs the benchmarks with the GC profiler, which reports the allocation rate
+ * (gc.alloc.rate.norm is the allocated bytes per operation). All other
+ * arguments are passed to JMH, e.g. a regular expression of the benchmarks to
+ * run or -p to restrict the parameters.
+ *
+ * @author julian
+ *
+ */
+public class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,93 @@
+package de.mpc.tools.parsefastapeptide.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.mpc.tools.parsefastapeptide.DigestException;
+import de.mpc.tools.parsefastapeptide.Enzyme;
+import de.mpc.tools.parsefastapeptide.ProteinDigester;
+
+
+/**
+ * Benchmarks the digestion of generated proteins, without any parsing or
+ * aggregation.
+ *
+ * @author julian
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DigestBenchmark {
+
+    /** size of the digested proteins (as FASTA) per invocation */
+    private static final long PROTEOME_SIZE = 1 << 20;
+
+    @Param({"TRYPSIN", "CHYMOTRYPSIN", "CUTALL"})
+    private Enzyme enzyme;
+
+    @Param({"0", "2"})
+    private int missedCleavages;
+
+    /** the minimal and maximal peptide length, 0 for no restriction */
+    @Param({"0-0", "6-45"})
+    private String lengthLimits;
+
+    @Param({"SHORT", "UNIPROT", "LONG"})
+    private ProteinLengths proteinLengths;
+
+    private String[] proteins;
+
+    private ProteinDigester digester;
+
+
+    @Setup
+    public void setup() {
+        List<String> generated = new ArrayList<>();
+        proteinLengths.createGenerator(42).generate(PROTEOME_SIZE,
+                (header, proteinSequence) -> generated.add(proteinSequence.toString()));
+        proteins = generated.toArray(new String[generated.size()]);
+
+        String[] limits = lengthLimits.split("-");
+        digester = new ProteinDigester(enzyme, Integer.parseInt(limits[0]), Integer.parseInt(limits[1]), missedCleavages);
+    }
+
+
+    /**
+     * Digests into peptide spans, which are passed to the sink
+     */
+    @Benchmark
+    public void digestToSink(Blackhole blackhole) throws DigestException {
+        for (String protein : proteins) {
+            digester.digest(protein, blackhole::consume);
+        }
+    }
+
+
+    /**
+     * Digests into lists of peptide Strings
+     */
+    @Benchmark
+    public void digestToList(Blackhole blackhole) throws DigestException {
+        for (String protein : proteins) {
+            blackhole.consume(digester.digest(protein));
+        }
+    }
+}
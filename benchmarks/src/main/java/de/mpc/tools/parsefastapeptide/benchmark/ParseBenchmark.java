@@ -0,0 +1,78 @@
+package de.mpc.tools.parsefastapeptide.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.mpc.tools.parsefastapeptide.FastaFileReader;
+
+
+/**
+ * Benchmarks the parsing of a generated FASTA file, without digestion.
+ *
+ * @author julian
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    /** size of the generated FASTA file in MB */
+    @Param({"50"})
+    private int sizeMB;
+
+    @Param({"SHORT", "UNIPROT", "LONG"})
+    private ProteinLengths proteinLengths;
+
+    @Param({"false", "true"})
+    private boolean gzip;
+
+    @Param({"1", "4"})
+    private int threads;
+
+    private Path fastaFile;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        fastaFile = Files.createTempFile("benchmark", gzip ? ".fasta.gz" : ".fasta");
+        proteinLengths.createGenerator(42).writeFasta(fastaFile.toString(), (long) sizeMB << 20);
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(fastaFile);
+    }
+
+
+    @Benchmark
+    public int parse(Blackhole blackhole) throws IOException {
+        return new FastaFileReader(fastaFile.toString()).read(
+                (header, proteinSequence) -> {
+                    blackhole.consume(header);
+                    blackhole.consume(proteinSequence.length());
+                },
+                threads);
+    }
+}
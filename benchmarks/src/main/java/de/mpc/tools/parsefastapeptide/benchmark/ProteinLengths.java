@@ -0,0 +1,52 @@
+package de.mpc.tools.parsefastapeptide.benchmark;
+
+import de.mpc.tools.parsefastapeptide.SyntheticProteomeGenerator;
+
+
+/**
+ * The distributions of the protein lengths used in the benchmarks
+ *
+ * @author julian
+ *
+ */
+public enum ProteinLengths {
+    /** between 50 and 150 residues */
+    SHORT(100, 0.3, 50, 150),
+
+    /** log-normal with a median of 350 residues, like in UniProtKB */
+    UNIPROT(350, 0.7, 30, 35000),
+
+    /** between 2000 and 5000 residues */
+    LONG(3000, 0.25, 2000, 5000),
+    ;
+
+    private final int median;
+
+    private final double sigma;
+
+    private final int minLength;
+
+    private final int maxLength;
+
+
+    private ProteinLengths(int median, double sigma, int minLength, int maxLength) {
+        this.median = median;
+        this.sigma = sigma;
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+    }
+
+
+    /**
+     * Creates a generator of proteins with this length distribution
+     *
+     * @param seed
+     * @return
+     */
+    public SyntheticProteomeGenerator createGenerator(long seed) {
+        SyntheticProteomeGenerator generator = new SyntheticProteomeGenerator(seed);
+        generator.setLengthDistribution(median, sigma);
+        generator.setLengthLimits(minLength, maxLength);
+        return generator;
+    }
+}
@@ -1,15 +1,11 @@
 package de.mpc.tools.parsefastapeptide;
 
-import java.io.File;
 import java.io.IOException;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.LineIterator;
-
 
 /**
  * Abstract class for FASTA file parsing. Provides the basic parsing functions,
- * and calls {@link #processEntry(String, StringBuilder)} for each sucessfully
+ * and calls {@link #processEntry(String, CharSequence)} for each sucessfully
  * parsed protein sequence with at least one character.
  *
  * @author julian
@@ -19,12 +15,20 @@ public abstract class AbstractFastaParser {
 
     private String fileName;
 
+    /** number of threads used for parsing */
+    private int numberOfThreads;
+
     /**
      * Basic constructor setting the filename of the FASTA file
      * @param fileName
      */
     public AbstractFastaParser(String fileName) {
+        if (!overridesProcessEntry(CharSequence.class) && !overridesProcessEntry(StringBuilder.class)) {
+            // the two variants would call each other
+            throw new IllegalStateException(getClass().getName() + " must override processEntry(String, CharSequence)");
+        }
         this.fileName = fileName;
+        this.numberOfThreads = 1;
     }
 
 
@@ -38,60 +42,86 @@ public abstract class AbstractFastaParser {
 
 
     /**
-     * This function gets the accession and the peptide sequence and processes
-     * it further
+     * Setter for the number of threads used for parsing. If more than one
+     * thread is used, the file is split into ranges of entries, which are
+     * parsed in parallel, and {@link #processEntry(String, CharSequence)} is
+     * called concurrently.
+     *
+     * @param numberOfThreads
      */
-    public abstract void processEntry(String header, StringBuilder proteinSequence);
+    public void setNumberOfThreads(int numberOfThreads) {
+        this.numberOfThreads = Math.max(1, numberOfThreads);
+    }
 
 
     /**
-     * Parses a FASTA file and calls processEntry for each protein entry with a
-     * sequence longer than 0 characters.
-     *
+     * Getter for the number of threads used for parsing
      * @return
-     * @throws IOException
      */
-    public int parseFastaFile() throws IOException {
-        int entryCount = 0;
-
-        LineIterator it = FileUtils.lineIterator(new File(getFileName()), "UTF-8");
-        StringBuilder proteinSequence = null;
-        String header = null;
-
-        while (it.hasNext()) {
-            String strLine = it.nextLine();
-
-            if (strLine.startsWith(">")) {
-                checkAndProcess(header, proteinSequence);
-
-                // start of a new entry
-                header = strLine.substring(1).trim();
-                proteinSequence = new StringBuilder();
-                entryCount++;
-            } else if (proteinSequence != null) {
-                // just reading in the protein sequence
-                proteinSequence.append(strLine.trim());
-            }
-        }
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+
+    /**
+     * This function gets the accession and the peptide sequence and processes
+     * it further. The sequence contains no whitespace and is only valid during
+     * this call, so it must be copied (e.g. by toString()) to keep it.
+     * <p>
+     * If more than one thread is set for parsing, this method is called
+     * concurrently by the worker threads and not in the order of the file, so
+     * implementations must be thread-safe.
+     * <p>
+     * Parsers should override this method. Only for the parsers written
+     * against {@link #processEntry(String, StringBuilder)}, it copies the
+     * sequence into a StringBuilder and calls that method.
+     */
+    public void processEntry(String header, CharSequence proteinSequence) {
+        processEntry(header, new StringBuilder(proteinSequence));
+    }
 
-        // process the last entry
-        checkAndProcess(header, proteinSequence);
 
-        it.close();
-        return entryCount;
+    /**
+     * The former variant of {@link #processEntry(String, CharSequence)}, which
+     * is kept for the existing parsers and callers. Unless it is overridden,
+     * it passes the sequence to {@link #processEntry(String, CharSequence)}.
+     *
+     * @param header
+     * @param proteinSequence
+     * @deprecated override and call {@link #processEntry(String, CharSequence)},
+     *             which avoids a copy of each protein
+     */
+    @Deprecated
+    public void processEntry(String header, StringBuilder proteinSequence) {
+        processEntry(header, (CharSequence) proteinSequence);
     }
 
 
     /**
-     * Check whether a protein sequence is given and if it is longer than 0.
-     * call {@link #processEntry(String, StringBuilder)}, if it is.
+     * Checks whether the class of this parser overrides the method
+     * processEntry with the given type of the sequence
      *
-     * @param header the FASTA header text, can be null
-     * @param proteinSequence the protein sequence to process
+     * @param sequenceType
+     * @return
      */
-    private void checkAndProcess(String header, StringBuilder proteinSequence) {
-        if ((proteinSequence != null) && (proteinSequence.length() > 0)) {
-            processEntry(header, proteinSequence);
+    private boolean overridesProcessEntry(Class<?> sequenceType) {
+        try {
+            return getClass().getMethod("processEntry", String.class, sequenceType).getDeclaringClass()
+                    != AbstractFastaParser.class;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
         }
     }
+
+
+    /**
+     * Parses a FASTA file and calls processEntry for each protein entry with a
+     * sequence longer than 0 characters.
+     *
+     * @return
+     * @throws IOException
+     */
+    public int parseFastaFile() throws IOException {
+        return new FastaFileReader(getFileName()).read(this::processEntry, numberOfThreads);
+    }
 }
@@ -0,0 +1,98 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Interns the accessions into dense integer IDs (starting at 0), so the
+ * peptides only need to store the IDs. Getting the ID of an accession is
+ * thread-safe.
+ *
+ * @author julian
+ *
+ */
+public class AccessionDictionary {
+
+    /** mapping from the accessions to their IDs */
+    private final Map<String, Integer> accessionIds;
+
+    /** the accessions, indexed by their IDs */
+    private volatile String[] accessions;
+
+    /** number of accessions in the dictionary */
+    private volatile int size;
+
+
+    public AccessionDictionary() {
+        this.accessionIds = new ConcurrentHashMap<>(10000);
+        this.accessions = new String[1024];
+        this.size = 0;
+    }
+
+
+    /**
+     * Returns the ID of the given accession, it is added to the dictionary if
+     * it is not yet known.
+     *
+     * @param accession
+     * @return
+     */
+    public int getId(String accession) {
+        Integer id = accessionIds.get(accession);
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (this) {
+            id = accessionIds.get(accession);
+            if (id == null) {
+                if (size == accessions.length) {
+                    accessions = Arrays.copyOf(accessions, accessions.length * 2);
+                }
+                id = size;
+                accessions[id] = accession;
+                size = id + 1;
+                accessionIds.put(accession, id);
+            }
+            return id;
+        }
+    }
+
+
+    /**
+     * Returns the ID of the given accession without adding it
+     *
+     * @param accession
+     * @return the ID or -1, if the accession is not in the dictionary
+     */
+    public int lookupId(String accession) {
+        Integer id = accessionIds.get(accession);
+        return (id != null) ? id : -1;
+    }
+
+
+    /**
+     * Returns the accession with the given ID
+     *
+     * @param id
+     * @return
+     */
+    public String getAccession(int id) {
+        if ((id < 0) || (id >= size)) {
+            throw new IndexOutOfBoundsException("No accession with ID " + id);
+        }
+        return accessions[id];
+    }
+
+
+    /**
+     * Returns the number of accessions in the dictionary
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,130 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+
+/**
+ * A read-only view on the peptides of a {@link RandomAccessPeptideStore} and their
+ * accessions. The accession IDs are only resolved, when they are accessed.
+ *
+ * @author julian
+ *
+ */
+class AccessionMapView extends AbstractMap<String, Set<String>> {
+
+    /** the viewed store */
+    private final RandomAccessPeptideStore store;
+
+
+    public AccessionMapView(RandomAccessPeptideStore store) {
+        this.store = store;
+    }
+
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+
+    @Override
+    public Set<String> get(Object key) {
+        if (!(key instanceof CharSequence)) {
+            return null;
+        }
+        PeptideRecord record = store.get((CharSequence) key);
+        return (record != null) ? new AccessionSetView(record) : null;
+    }
+
+
+    @Override
+    public Set<Map.Entry<String, Set<String>>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Set<String>>>() {
+            @Override
+            public int size() {
+                return store.size();
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, Set<String>>> iterator() {
+                Iterator<Map.Entry<PackedPeptide, PeptideRecord>> it = store.iterator();
+
+                return new Iterator<Map.Entry<String, Set<String>>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, Set<String>> next() {
+                        Map.Entry<PackedPeptide, PeptideRecord> entry = it.next();
+                        return new AbstractMap.SimpleImmutableEntry<>(entry.getKey().toString(),
+                                new AccessionSetView(entry.getValue()));
+                    }
+                };
+            }
+        };
+    }
+
+
+    /**
+     * A read-only set of the accessions of a peptide record
+     */
+    private class AccessionSetView extends AbstractSet<String> {
+
+        private final PeptideRecord record;
+
+
+        private AccessionSetView(PeptideRecord record) {
+            this.record = record;
+        }
+
+
+        @Override
+        public int size() {
+            return record.getNrAccessions();
+        }
+
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof String)) {
+                return false;
+            }
+            int id = store.getAccessionDictionary().lookupId((String) o);
+            return (id >= 0) && record.containsAccessionId(id);
+        }
+
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int idx = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return idx < record.getNrAccessions();
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return store.getAccessionDictionary().getAccession(record.getAccessionId(idx++));
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+
+/**
+ * Decompresses a BGZF file (blocked gzip, as written e.g. by bgzip) in
+ * parallel. The compressed blocks are read ahead and inflated on the threads of
+ * the given executor, the decompressed data is returned in the order of the
+ * blocks.
+ *
+ * @author julian
+ *
+ */
+class BgzfInputStream extends InputStream {
+
+    /** length of the fixed part of a gzip member header (up to XLEN) */
+    private static final int HEADER_LENGTH = 12;
+
+    /** the FEXTRA flag of a gzip header */
+    private static final int FLAG_EXTRA = 4;
+
+    /** the compressed input */
+    private final InputStream in;
+
+    /** the executor for the decompression */
+    private final ExecutorService executor;
+
+    /** maximal number of blocks decompressed ahead */
+    private final int readAhead;
+
+    /** the blocks in decompression */
+    private final Deque<Future<byte[]>> pendingBlocks;
+
+    /** whether all blocks were read from the input */
+    private boolean inputFinished;
+
+    /** the currently returned decompressed block */
+    private byte[] currentBlock;
+
+    /** the position in the current block */
+    private int position;
+
+
+    /**
+     * Creates a stream decompressing the blocks of the given stream with the
+     * executor.
+     *
+     * @param in
+     * @param executor
+     * @param readAhead number of blocks to decompress ahead
+     */
+    public BgzfInputStream(InputStream in, ExecutorService executor, int readAhead) {
+        this.in = in;
+        this.executor = executor;
+        this.readAhead = Math.max(1, readAhead);
+        this.pendingBlocks = new ArrayDeque<>(this.readAhead);
+        this.inputFinished = false;
+        this.currentBlock = new byte[0];
+        this.position = 0;
+    }
+
+
+    /**
+     * Checks whether the given first bytes of a file are the header of a BGZF
+     * block.
+     *
+     * @param header
+     * @param length number of valid bytes in the header
+     * @return
+     */
+    public static boolean isBgzfHeader(byte[] header, int length) {
+        if ((length < HEADER_LENGTH) || ((header[0] & 0xff) != 0x1f) || ((header[1] & 0xff) != 0x8b)
+                || (header[2] != 8) || ((header[3] & FLAG_EXTRA) == 0)) {
+            return false;
+        }
+
+        int extraLength = readShort(header, 10);
+        return getBlockSize(header, HEADER_LENGTH, Math.min(extraLength, length - HEADER_LENGTH)) > 0;
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return currentBlock[position++] & 0xff;
+    }
+
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+
+        int length = Math.min(len, currentBlock.length - position);
+        System.arraycopy(currentBlock, position, b, off, length);
+        position += length;
+        return length;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> block : pendingBlocks) {
+            block.cancel(true);
+        }
+        pendingBlocks.clear();
+        in.close();
+    }
+
+
+    /**
+     * Makes sure that there is decompressed data in the current block.
+     *
+     * @return false, if the end of the stream is reached
+     * @throws IOException
+     */
+    private boolean ensureData() throws IOException {
+        while (position >= currentBlock.length) {
+            fillPendingBlocks();
+            if (pendingBlocks.isEmpty()) {
+                return false;
+            }
+
+            currentBlock = getBlock(pendingBlocks.poll());
+            position = 0;
+        }
+        return true;
+    }
+
+
+    /**
+     * Reads blocks from the input and submits them for decompression, until
+     * enough blocks are pending.
+     *
+     * @throws IOException
+     */
+    private void fillPendingBlocks() throws IOException {
+        while (!inputFinished && (pendingBlocks.size() < readAhead)) {
+            byte[] compressedBlock = readCompressedBlock();
+            if (compressedBlock == null) {
+                inputFinished = true;
+            } else {
+                pendingBlocks.add(executor.submit(() -> inflateBlock(compressedBlock)));
+            }
+        }
+    }
+
+
+    /**
+     * Reads the next complete (compressed) block from the input.
+     *
+     * @return the block, or null if the end of the input is reached
+     * @throws IOException
+     */
+    private byte[] readCompressedBlock() throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        int read = readFully(header, 0, HEADER_LENGTH);
+        if (read == 0) {
+            return null;
+        } else if ((read < HEADER_LENGTH) || ((header[0] & 0xff) != 0x1f) || ((header[1] & 0xff) != 0x8b)
+                || ((header[3] & FLAG_EXTRA) == 0)) {
+            throw new ZipException("Invalid BGZF block header");
+        }
+
+        int extraLength = readShort(header, 10);
+        byte[] extra = new byte[extraLength];
+        if (readFully(extra, 0, extraLength) < extraLength) {
+            throw new EOFException("Unexpected end of BGZF block header");
+        }
+
+        int blockSize = getBlockSize(extra, 0, extraLength);
+        if (blockSize < HEADER_LENGTH + extraLength + 8) {
+            throw new ZipException("Missing or invalid BGZF block size");
+        }
+
+        byte[] block = new byte[blockSize];
+        System.arraycopy(header, 0, block, 0, HEADER_LENGTH);
+        System.arraycopy(extra, 0, block, HEADER_LENGTH, extraLength);
+        int remaining = blockSize - HEADER_LENGTH - extraLength;
+        if (readFully(block, HEADER_LENGTH + extraLength, remaining) < remaining) {
+            throw new EOFException("Unexpected end of BGZF block");
+        }
+
+        return block;
+    }
+
+
+    /**
+     * Decompresses a complete BGZF block and checks its CRC.
+     *
+     * @param block
+     * @return the decompressed data
+     * @throws IOException
+     */
+    private static byte[] inflateBlock(byte[] block) throws IOException {
+        int extraLength = readShort(block, 10);
+        int dataStart = HEADER_LENGTH + extraLength;
+        int dataLength = block.length - dataStart - 8;
+        long expectedCrc = readInt(block, block.length - 8) & 0xffffffffL;
+        int uncompressedSize = readInt(block, block.length - 4);
+
+        byte[] data = new byte[uncompressedSize];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(block, dataStart, dataLength);
+            int inflated = 0;
+            while ((inflated < uncompressedSize) && !inflater.finished()) {
+                int n = inflater.inflate(data, inflated, uncompressedSize - inflated);
+                if ((n == 0) && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != uncompressedSize) {
+                throw new ZipException("Corrupt BGZF block, size mismatch");
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt BGZF block: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        if (crc.getValue() != expectedCrc) {
+            throw new ZipException("Corrupt BGZF block, CRC mismatch");
+        }
+
+        return data;
+    }
+
+
+    /**
+     * Waits for the decompression of a block.
+     *
+     * @param block
+     * @return
+     * @throws IOException
+     */
+    private static byte[] getBlock(Future<byte[]> block) throws IOException {
+        return Futures.get(block, "decompressing BGZF block");
+    }
+
+
+    /**
+     * Reads up to length bytes, blocking until they are read or the end of the
+     * input is reached.
+     *
+     * @return the number of read bytes
+     * @throws IOException
+     */
+    private int readFully(byte[] b, int off, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(b, off + read, length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+
+    /**
+     * Returns the block size given in the "BC" subfield of the extra field
+     *
+     * @param extra
+     * @param offset the start of the extra field
+     * @param length the length of the extra field
+     * @return the total block size or -1, if no "BC" subfield is given
+     */
+    private static int getBlockSize(byte[] extra, int offset, int length) {
+        int pos = offset;
+        int end = offset + length;
+        while (pos + 4 <= end) {
+            int subfieldLength = readShort(extra, pos + 2);
+            if ((extra[pos] == 'B') && (extra[pos + 1] == 'C') && (subfieldLength == 2) && (pos + 6 <= end)) {
+                return readShort(extra, pos + 4) + 1;
+            }
+            pos += 4 + subfieldLength;
+        }
+        return -1;
+    }
+
+
+    /** reads an unsigned little-endian short */
+    private static int readShort(byte[] b, int pos) {
+        return (b[pos] & 0xff) | ((b[pos + 1] & 0xff) << 8);
+    }
+
+
+    /** reads a little-endian int */
+    private static int readInt(byte[] b, int pos) {
+        return readShort(b, pos) | (readShort(b, pos + 2) << 16);
+    }
+}
@@ -0,0 +1,150 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.util.Arrays;
+
+
+/**
+ * A compiled cleavage rule of an {@link Enzyme}. The rule is given by the
+ * residues which are allowed on the P1 position (i.e. directly before the
+ * cleavage site) and the residues which block the cleavage on the P1' position
+ * (i.e. directly after the cleavage site). Both are stored as lookup tables
+ * indexed by the residue character, so finding the cleavage sites only needs
+ * one scan over the sequence.
+ * <p>
+ * The tables cover the ASCII characters, which is all a protein sequence
+ * consists of. Any other character neither allows nor blocks a cleavage,
+ * except for the rule of {@link #cutAll()}, which cleaves after them like the
+ * regular expression ".".
+ *
+ * @author julian
+ *
+ */
+public final class CleavageRule {
+
+    /** size of the lookup tables */
+    private static final int TABLE_SIZE = 128;
+
+    /** residues allowed on P1 */
+    private final boolean[] p1Allowed;
+
+    /** residues blocking the cleavage on P1' */
+    private final boolean[] p1PrimeBlocked;
+
+    /** whether the characters beyond the tables are allowed on P1 */
+    private final boolean otherP1Allowed;
+
+
+    /**
+     * Creates a rule cleaving after each of the given P1 residues, if it is not
+     * followed by one of the blocking P1' residues.
+     *
+     * @param p1Residues the residues allowed on P1
+     * @param p1PrimeBlocking the residues blocking on P1', may be empty
+     */
+    public CleavageRule(String p1Residues, String p1PrimeBlocking) {
+        this(p1Residues, p1PrimeBlocking, false);
+    }
+
+
+    private CleavageRule(String p1Residues, String p1PrimeBlocking, boolean otherP1Allowed) {
+        this.p1Allowed = new boolean[TABLE_SIZE];
+        this.p1PrimeBlocked = new boolean[TABLE_SIZE];
+        this.otherP1Allowed = otherP1Allowed;
+
+        fillTable(p1Allowed, p1Residues);
+        fillTable(p1PrimeBlocked, p1PrimeBlocking);
+    }
+
+
+    /**
+     * Creates a rule which allows the cleavage after any character, like the
+     * regular expression "(?&lt;=.)": not after line terminators and not
+     * within the surrogate pair of a code point.
+     *
+     * @return
+     */
+    public static CleavageRule cutAll() {
+        CleavageRule rule = new CleavageRule("", "", true);
+        Arrays.fill(rule.p1Allowed, true);
+        rule.p1Allowed['\n'] = false;
+        rule.p1Allowed['\r'] = false;
+        return rule;
+    }
+
+
+    /**
+     * Marks each character of the given residues in the table
+     *
+     * @param table
+     * @param residues
+     */
+    private static void fillTable(boolean[] table, String residues) {
+        for (int i = 0; i < residues.length(); i++) {
+            char residue = residues.charAt(i);
+            if (residue >= TABLE_SIZE) {
+                throw new IllegalArgumentException("Residue '" + residue + "' is no ASCII character.");
+            }
+            table[residue] = true;
+        }
+    }
+
+
+    /**
+     * Checks whether the given sequence is cleaved between the positions
+     * pos-1 (P1) and pos (P1').
+     *
+     * @param sequence
+     * @param pos the position of P1', must be between 1 and the length of the
+     * sequence - 1
+     * @return
+     */
+    public boolean isCleavageSite(CharSequence sequence, int pos) {
+        char p1 = sequence.charAt(pos - 1);
+        char p1Prime = sequence.charAt(pos);
+        if (p1 >= TABLE_SIZE) {
+            return otherP1Allowed && isOtherP1Allowed(p1, p1Prime);
+        }
+        return p1Allowed[p1] && ((p1Prime >= TABLE_SIZE) || !p1PrimeBlocked[p1Prime]);
+    }
+
+
+    /**
+     * Checks whether a character beyond the tables may be on P1. Like for the
+     * regular expression ".", it must be no line terminator and no high
+     * surrogate, which is continued by a low surrogate on P1'.
+     *
+     * @param p1
+     * @param p1Prime
+     * @return
+     */
+    private static boolean isOtherP1Allowed(char p1, char p1Prime) {
+        return (p1 != '\u0085') && (p1 != '\u2028') && (p1 != '\u2029')
+                && !(Character.isHighSurrogate(p1) && Character.isLowSurrogate(p1Prime));
+    }
+
+
+    /**
+     * Returns the cleavage sites in the given sequence, i.e. the indices at
+     * which a new peptide starts. Neither the start nor the end of the sequence
+     * is included.
+     *
+     * @param sequence
+     * @return the sorted indices of the cleavage sites
+     */
+    public int[] getCleavageSites(CharSequence sequence) {
+        int length = sequence.length();
+        int[] sites = new int[Math.max(8, length / 8)];
+        int nrSites = 0;
+
+        for (int pos = 1; pos < length; pos++) {
+            if (isCleavageSite(sequence, pos)) {
+                if (nrSites == sites.length) {
+                    sites = Arrays.copyOf(sites, sites.length * 2);
+                }
+                sites[nrSites++] = pos;
+            }
+        }
+
+        return Arrays.copyOf(sites, nrSites);
+    }
+}
@@ -0,0 +1,137 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+
+/**
+ * Collects the entries of a sequentially scanned FASTA file into batches and
+ * passes each batch to a thread of the executor, where the entries are handled
+ * by the actual handler. The number of pending batches is limited, so the
+ * scanning blocks if the handler is too slow.
+ *
+ * @author julian
+ *
+ * @param <E> the type of exception thrown by the handler
+ */
+class EntryBatchDispatcher<E extends Exception> implements FastaEntryHandler<E> {
+
+    /** number of residues after which a batch is dispatched */
+    private static final int BATCH_RESIDUES = 1 << 20;
+
+    /** the actual handler, called on the executor's threads */
+    private final FastaEntryHandler<E> handler;
+
+    /** the executor for the handling */
+    private final ExecutorService executor;
+
+    /** maximal number of batches waiting for or in handling */
+    private final int maxPendingBatches;
+
+    /** the dispatched batches */
+    private final Deque<Future<Integer>> pendingBatches;
+
+    /** headers of the current batch */
+    private List<String> headers;
+
+    /** sequences of the current batch */
+    private List<String> sequences;
+
+    /** number of residues in the current batch */
+    private int batchResidues;
+
+
+    public EntryBatchDispatcher(FastaEntryHandler<E> handler, ExecutorService executor, int maxPendingBatches) {
+        this.handler = handler;
+        this.executor = executor;
+        this.maxPendingBatches = Math.max(1, maxPendingBatches);
+        this.pendingBatches = new ArrayDeque<>();
+        this.headers = new ArrayList<>();
+        this.sequences = new ArrayList<>();
+        this.batchResidues = 0;
+    }
+
+
+    @Override
+    public void processEntry(String header, CharSequence proteinSequence) throws E {
+        headers.add(header);
+        sequences.add(proteinSequence.toString());
+        batchResidues += proteinSequence.length();
+
+        if (batchResidues >= BATCH_RESIDUES) {
+            try {
+                dispatchBatch();
+            } catch (IOException e) {
+                throw new DispatchException(e);
+            }
+        }
+    }
+
+
+    /**
+     * Dispatches the remaining entries and waits until all batches are
+     * handled.
+     *
+     * @throws IOException
+     * @throws E
+     */
+    public void finish() throws IOException, E {
+        dispatchBatch();
+        while (!pendingBatches.isEmpty()) {
+            FastaFileReader.<Integer, E>getResult(pendingBatches.poll());
+        }
+    }
+
+
+    /**
+     * Passes the current batch to the executor and waits for older batches, if
+     * too many are pending.
+     *
+     * @throws IOException
+     * @throws E
+     */
+    private void dispatchBatch() throws IOException, E {
+        if (headers.isEmpty()) {
+            return;
+        }
+
+        List<String> batchHeaders = headers;
+        List<String> batchSequences = sequences;
+        pendingBatches.add(executor.submit(() -> {
+            for (int i = 0; i < batchHeaders.size(); i++) {
+                handler.processEntry(batchHeaders.get(i), batchSequences.get(i));
+            }
+            return batchHeaders.size();
+        }));
+
+        headers = new ArrayList<>();
+        sequences = new ArrayList<>();
+        batchResidues = 0;
+
+        while (pendingBatches.size() > maxPendingBatches) {
+            FastaFileReader.<Integer, E>getResult(pendingBatches.poll());
+        }
+    }
+
+
+    /**
+     * Wraps an {@link IOException} of the dispatching, which cannot be thrown
+     * by {@link #processEntry(String, CharSequence)}. The reader unwraps only
+     * these, so unchecked exceptions of the handler pass unchanged.
+     */
+    static class DispatchException extends UncheckedIOException {
+
+        private static final long serialVersionUID = 1L;
+
+
+        private DispatchException(IOException cause) {
+            super(cause);
+        }
+    }
+}
@@ -20,6 +20,7 @@ public enum Enzyme {
     CUTALL {
         private String restrictionRules = "(?<=.)";
         private Pattern pattern = Pattern.compile(restrictionRules);
+        private CleavageRule cleavageRule = CleavageRule.cutAll();
 
         @Override
         public String getRestrictionRules() {
@@ -30,6 +31,11 @@ public enum Enzyme {
         protected Pattern getRestrictionPattern() {
             return pattern;
         }
+
+        @Override
+        protected CleavageRule getCleavageRule() {
+            return cleavageRule;
+        }
     },
 
     /**
@@ -38,6 +44,7 @@ public enum Enzyme {
     TRYPSIN {
         private String restrictionRules = "(?<=[KR])(?!P)";
         private Pattern pattern = Pattern.compile(restrictionRules);
+        private CleavageRule cleavageRule = new CleavageRule("KR", "P");
 
         @Override
         public String getRestrictionRules() {
@@ -48,6 +55,11 @@ public enum Enzyme {
         protected Pattern getRestrictionPattern() {
             return pattern;
         }
+
+        @Override
+        protected CleavageRule getCleavageRule() {
+            return cleavageRule;
+        }
     },
 
 
@@ -57,6 +69,7 @@ public enum Enzyme {
     CHYMOTRYPSIN {
         private String restrictionRules = "(?<=[FYWL])(?!P)";
         private Pattern pattern = Pattern.compile(restrictionRules);
+        private CleavageRule cleavageRule = new CleavageRule("FYWL", "P");
 
         @Override
         public String getRestrictionRules() {
@@ -67,11 +80,17 @@ public enum Enzyme {
         protected Pattern getRestrictionPattern() {
             return pattern;
         }
+
+        @Override
+        protected CleavageRule getCleavageRule() {
+            return cleavageRule;
+        }
     },
 
     CNBR {
         private String restrictionRules = "(?<=M)";
         private Pattern pattern = Pattern.compile(restrictionRules);
+        private CleavageRule cleavageRule = new CleavageRule("M", "");
 
         @Override
         public String getRestrictionRules() {
@@ -82,11 +101,17 @@ public enum Enzyme {
         protected Pattern getRestrictionPattern() {
             return pattern;
         }
+
+        @Override
+        protected CleavageRule getCleavageRule() {
+            return cleavageRule;
+        }
     },
 
     PROTEINASEK {
         private String restrictionRules = "(?<=[FYWLIAV])";
         private Pattern pattern = Pattern.compile(restrictionRules);
+        private CleavageRule cleavageRule = new CleavageRule("FYWLIAV", "");
 
         @Override
         public String getRestrictionRules() {
@@ -97,6 +122,11 @@ public enum Enzyme {
         protected Pattern getRestrictionPattern() {
             return pattern;
         }
+
+        @Override
+        protected CleavageRule getCleavageRule() {
+            return cleavageRule;
+        }
     },
 
     ;
@@ -118,6 +148,68 @@ public enum Enzyme {
     protected abstract Pattern getRestrictionPattern();
 
 
+    /**
+     * Returns the compiled cleavage rule of the enzyme, which cleaves at the
+     * same sites as the restriction pattern
+     *
+     * @return
+     */
+    protected abstract CleavageRule getCleavageRule();
+
+
+    /**
+     * Returns the cleavage sites of the enzyme in the given protein, i.e. the
+     * indices at which a new peptide starts (excluding 0 and the length of the
+     * protein).
+     *
+     * @param protein
+     * @return
+     */
+    public final int[] getCleavageSites(CharSequence protein) {
+        return getCleavageRule().getCleavageSites(protein);
+    }
+
+
+    /**
+     * Returns the cleavage sites of all given enzymes in the given protein,
+     * i.e. the union of the sites of each enzyme, found in one scan over the
+     * protein.
+     *
+     * @param protein
+     * @param enzymes
+     * @return the sorted cleavage sites, excluding 0 and the length of the
+     * protein
+     */
+    public static int[] getCombinedCleavageSites(CharSequence protein, Enzyme... enzymes) {
+        if (enzymes.length == 1) {
+            return enzymes[0].getCleavageSites(protein);
+        }
+
+        CleavageRule[] rules = new CleavageRule[enzymes.length];
+        for (int i = 0; i < enzymes.length; i++) {
+            rules[i] = enzymes[i].getCleavageRule();
+        }
+
+        int length = protein.length();
+        int[] sites = new int[Math.max(8, length / 4)];
+        int nrSites = 0;
+
+        for (int pos = 1; pos < length; pos++) {
+            for (CleavageRule rule : rules) {
+                if (rule.isCleavageSite(protein, pos)) {
+                    if (nrSites == sites.length) {
+                        sites = Arrays.copyOf(sites, sites.length * 2);
+                    }
+                    sites[nrSites++] = pos;
+                    break;
+                }
+            }
+        }
+
+        return Arrays.copyOf(sites, nrSites);
+    }
+
+
     /**
      * Digests the given protein string using the enzyme's restriction pattern
      * and minimal and maximal length allowing no missed cleavages
@@ -139,9 +231,84 @@ public enum Enzyme {
      * @return
      */
     public final List<String> digestProtein(String protein, int minLength, int maxLength, int missedCleavages) {
+        int[] sites = getCleavageSites(protein);
+        List<String> peptideList = new ArrayList<String>(sites.length + 1);
+
+        forEachPeptideWindow(sites, protein.length(), minLength, maxLength, missedCleavages,
+                (start, end) -> peptideList.add(protein.substring(start, end)));
+
+        return peptideList;
+    }
+
+
+    /**
+     * Enumerates the peptides given by the cleavage sites of a protein with
+     * the given length, including the peptides with up to missedCleavages
+     * missed cleavages. Only the peptides between minLength and maxLength (if
+     * these are larger than 0) are passed to the consumer, so no string is
+     * created for any filtered peptide.
+     * <p>
+     * For each fully cleaved peptide the peptide itself is passed first,
+     * followed by the peptides ending with it and containing 1 to
+     * missedCleavages missed cleavages.
+     *
+     * @param sites the sorted cleavage sites, as returned by
+     * {@link #getCleavageSites(CharSequence)}
+     * @param proteinLength the length of the protein
+     * @param consumer receives the start and end index of each peptide
+     */
+    public static void forEachPeptideWindow(int[] sites, int proteinLength, int minLength, int maxLength,
+            int missedCleavages, PeptideWindowConsumer consumer) {
+        int nrPeptides = sites.length + 1;
+
+        for (int pepIdx = 0; pepIdx < nrPeptides; pepIdx++) {
+            int end = (pepIdx < sites.length) ? sites[pepIdx] : proteinLength;
+            int maxMissed = Math.min(missedCleavages, pepIdx);
+
+            for (int missed = 0; missed <= maxMissed; missed++) {
+                int startIdx = pepIdx - missed;
+                int start = (startIdx > 0) ? sites[startIdx - 1] : 0;
+                int length = end - start;
+
+                if ((maxLength > 0) && (length > maxLength)) {
+                    // the peptides only get longer with more missed cleavages
+                    break;
+                }
+
+                if ((minLength <= 0) || (length >= minLength)) {
+                    consumer.accept(start, end);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Digests the given protein string like
+     * {@link #digestProtein(String, int, int, int)}, but splits the protein
+     * using the enzyme's regular expression and concatenates the peptides for
+     * missed cleavages. This is the reference implementation for the cleavage
+     * rules and the missed cleavages.
+     *
+     * @param protein
+     * @return
+     */
+    public final List<String> digestProteinByPattern(String protein, int minLength, int maxLength, int missedCleavages) {
         List<String> peptideList = new ArrayList<String>(
                 Arrays.asList(getRestrictionPattern().split(protein)));
 
+        return filterAndConcatenate(peptideList, minLength, maxLength, missedCleavages);
+    }
+
+
+    /**
+     * Removes too short or too long peptides from the list of cleavage
+     * products and adds the concatenated peptides for missed cleavages.
+     *
+     * @param peptideList the fully cleaved peptides, in order of the protein
+     * @return
+     */
+    private static List<String> filterAndConcatenate(List<String> peptideList, int minLength, int maxLength, int missedCleavages) {
         if ((minLength > 0) || (maxLength > 0) || (missedCleavages > 0)) {
             // remove too short or too long peptides and concatenate for missed cleavages
             ListIterator<String> listIt = peptideList.listIterator();
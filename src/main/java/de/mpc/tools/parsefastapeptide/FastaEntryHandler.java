@@ -0,0 +1,23 @@
+package de.mpc.tools.parsefastapeptide;
+
+/**
+ * Handles the entries read from a FASTA file.
+ *
+ * @author julian
+ *
+ * @param <E> the type of exception thrown by the handler
+ */
+@FunctionalInterface
+public interface FastaEntryHandler<E extends Exception> {
+
+    /**
+     * Called for each entry with a protein sequence of at least one residue.
+     * The sequence contains no whitespace and is only valid during this call,
+     * it must be copied (e.g. by calling toString()) if it is needed longer.
+     *
+     * @param header the header text without the leading '&gt;'
+     * @param proteinSequence the protein sequence
+     * @throws E
+     */
+    void processEntry(String header, CharSequence proteinSequence) throws E;
+}
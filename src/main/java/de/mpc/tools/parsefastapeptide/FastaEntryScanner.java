@@ -0,0 +1,204 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/**
+ * Splits raw bytes of a FASTA file into its entries. The bytes are fed in
+ * chunks of any size, the state between the chunks is kept. The headers are
+ * decoded as UTF-8, the residues are copied byte by byte (without any
+ * whitespace or control characters) into a reusable buffer, which is handed to
+ * the {@link FastaEntryHandler}. So no String is created per line or per
+ * sequence.
+ *
+ * @author julian
+ *
+ * @param <E> the type of exception thrown by the handler
+ */
+class FastaEntryScanner<E extends Exception> {
+
+    /** the handler for the entries */
+    private final FastaEntryHandler<E> handler;
+
+    /** the bytes of the current header */
+    private byte[] headerBytes;
+
+    /** number of bytes in the current header */
+    private int headerLength;
+
+    /** the decoded header of the current entry */
+    private String header;
+
+    /** the residues of the current entry */
+    private final ResidueBuffer residues;
+
+    /** whether the next byte is the first of a line */
+    private boolean atLineStart;
+
+    /** whether the header line is currently read */
+    private boolean inHeader;
+
+    /** whether an entry was started */
+    private boolean inEntry;
+
+    /** number of started entries (i.e. headers) */
+    private int entryCount;
+
+
+    public FastaEntryScanner(FastaEntryHandler<E> handler) {
+        this.handler = handler;
+        this.headerBytes = new byte[256];
+        this.residues = new ResidueBuffer();
+        this.atLineStart = true;
+        this.inHeader = false;
+        this.inEntry = false;
+        this.entryCount = 0;
+    }
+
+
+    /**
+     * Scans the given bytes and calls the handler for each entry finished in
+     * them.
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @throws E
+     */
+    public void feed(byte[] bytes, int offset, int length) throws E {
+        int end = offset + length;
+
+        for (int i = offset; i < end; i++) {
+            byte b = bytes[i];
+
+            if (inHeader) {
+                if ((b == '\n') || (b == '\r')) {
+                    header = new String(headerBytes, 0, headerLength, StandardCharsets.UTF_8).trim();
+                    inHeader = false;
+                    atLineStart = true;
+                } else {
+                    appendHeaderByte(b);
+                }
+            } else if ((b == '\n') || (b == '\r')) {
+                atLineStart = true;
+            } else if (atLineStart && (b == '>')) {
+                // start of a new entry
+                finishEntry();
+
+                inHeader = true;
+                inEntry = true;
+                headerLength = 0;
+                entryCount++;
+                atLineStart = false;
+            } else {
+                atLineStart = false;
+                // bytes before the first header are ignored, as are whitespaces
+                if (inEntry && ((b & 0xff) > ' ')) {
+                    residues.append(b);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Processes the last entry, must be called after all bytes were fed.
+     *
+     * @return the number of entries (i.e. headers), including entries without
+     * any sequence
+     * @throws E
+     */
+    public int finish() throws E {
+        if (inHeader) {
+            header = new String(headerBytes, 0, headerLength, StandardCharsets.UTF_8).trim();
+            inHeader = false;
+        }
+        finishEntry();
+        inEntry = false;
+        atLineStart = true;
+
+        return entryCount;
+    }
+
+
+    /**
+     * Calls the handler for the current entry, if it has a sequence.
+     *
+     * @throws E
+     */
+    private void finishEntry() throws E {
+        if (inEntry && (residues.length() > 0)) {
+            handler.processEntry(header, residues);
+        }
+        residues.clear();
+    }
+
+
+    /**
+     * Appends a byte to the header buffer, growing it if necessary.
+     *
+     * @param b
+     */
+    private void appendHeaderByte(byte b) {
+        if (headerLength == headerBytes.length) {
+            headerBytes = Arrays.copyOf(headerBytes, headerBytes.length * 2);
+        }
+        headerBytes[headerLength++] = b;
+    }
+
+
+    /**
+     * A reusable buffer for the residues of an entry, which can be used as a
+     * {@link CharSequence}. Each byte is one character.
+     */
+    private static class ResidueBuffer implements CharSequence {
+
+        private byte[] bytes = new byte[4096];
+
+        private int length = 0;
+
+
+        private void append(byte b) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[length++] = b;
+        }
+
+
+        private void clear() {
+            length = 0;
+        }
+
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+
+        @Override
+        public char charAt(int index) {
+            if (index >= length) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of sequence with length " + length);
+            }
+            return (char) (bytes[index] & 0xff);
+        }
+
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if ((start < 0) || (end > length) || (start > end)) {
+                throw new IndexOutOfBoundsException("Invalid subsequence [" + start + ", " + end + ")");
+            }
+            return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
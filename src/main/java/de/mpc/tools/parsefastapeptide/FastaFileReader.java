@@ -0,0 +1,372 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+
+/**
+ * Reads a FASTA file on byte level. The file is memory-mapped in windows and
+ * scanned for the entries without creating a String per line, see
+ * {@link FastaEntryScanner}.
+ * <p>
+ * The file can also be read in parallel: it is split into byte ranges, which
+ * are aligned to the start of the entries (i.e. a '&gt;' after a line break),
+ * and each range is scanned on its own worker thread.
+ * <p>
+ * Gzip compressed files are detected and decompressed while reading. These
+ * are scanned sequentially, but in parallel mode the blocks of BGZF files
+ * (e.g. created by bgzip) are decompressed on the worker threads and the
+ * entries are handled in batches on the worker threads. Other gzip files,
+ * including plain multi-member files (e.g. created by pigz or by
+ * concatenating gzip files), are decompressed on a single thread, as their
+ * member boundaries are only found by inflating them. Only the handling of
+ * their entries runs in parallel.
+ *
+ * @author julian
+ *
+ */
+public class FastaFileReader {
+
+    /** size of the memory-mapped windows of the file */
+    private static final long MAPPED_WINDOW_SIZE = 1L << 28;
+
+    /** size of the chunks copied from the mapped windows for the scanning */
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    /** the default minimal size of a byte range for the parallel reading */
+    private static final long MIN_RANGE_SIZE = 1L << 24;
+
+    /** number of ranges per thread, to balance the load between the threads */
+    private static final int RANGES_PER_THREAD = 4;
+
+    /** number of BGZF blocks per thread, which are decompressed ahead */
+    private static final int BLOCKS_PER_THREAD = 4;
+
+    /** the name of the FASTA file */
+    private final String fileName;
+
+    /** the minimal size of a byte range for the parallel reading */
+    private long minRangeSize;
+
+
+    public FastaFileReader(String fileName) {
+        this.fileName = fileName;
+        this.minRangeSize = MIN_RANGE_SIZE;
+    }
+
+
+    /**
+     * Getter for the file name of the FASTA file
+     * @return
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+
+    /**
+     * Sets the minimal size of the byte ranges, which are read in parallel.
+     *
+     * @param minRangeSize
+     */
+    void setMinRangeSize(long minRangeSize) {
+        this.minRangeSize = minRangeSize;
+    }
+
+
+    /**
+     * Reads the whole FASTA file and calls the handler for each entry with a
+     * sequence of at least one residue.
+     *
+     * @param handler
+     * @return the number of entries in the file, including entries without
+     * sequence
+     * @throws IOException
+     * @throws E
+     */
+    public <E extends Exception> int read(FastaEntryHandler<E> handler) throws IOException, E {
+        return read(handler, 1);
+    }
+
+
+    /**
+     * Reads the whole FASTA file using the given number of threads. The
+     * handler is called concurrently from the worker threads and must be
+     * thread-safe, the entries are not handled in the order of the file. With
+     * only one thread, this is the same as {@link #read(FastaEntryHandler)}.
+     *
+     * @param handler
+     * @param threads
+     * @return the number of entries in the file, including entries without
+     * sequence
+     * @throws IOException
+     * @throws E
+     */
+    public <E extends Exception> int read(FastaEntryHandler<E> handler, int threads) throws IOException, E {
+        if (isGzipped()) {
+            return readCompressed(handler, threads);
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            if (threads <= 1) {
+                return readRange(channel, 0, channel.size(), handler);
+            }
+
+            long[] boundaries = getRangeBoundaries(channel, threads * RANGES_PER_THREAD, minRangeSize);
+            if (boundaries.length <= 2) {
+                return readRange(channel, 0, channel.size(), handler);
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Integer>> rangeCounts = new ArrayList<>(boundaries.length - 1);
+                for (int i = 0; i + 1 < boundaries.length; i++) {
+                    long start = boundaries[i];
+                    long end = boundaries[i + 1];
+                    rangeCounts.add(executor.submit(() -> readRange(channel, start, end, handler)));
+                }
+
+                int entryCount = 0;
+                for (Future<Integer> count : rangeCounts) {
+                    entryCount += FastaFileReader.<Integer, E>getResult(count);
+                }
+                return entryCount;
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+
+    /**
+     * Checks whether the file starts with the gzip magic bytes
+     *
+     * @return
+     * @throws IOException
+     */
+    private boolean isGzipped() throws IOException {
+        byte[] start = readFileStart(2);
+        return (start.length == 2) && ((start[0] & 0xff) == 0x1f) && ((start[1] & 0xff) == 0x8b);
+    }
+
+
+    /**
+     * Reads up to the given number of bytes from the start of the file
+     *
+     * @param length
+     * @return
+     * @throws IOException
+     */
+    private byte[] readFileStart(int length) throws IOException {
+        try (InputStream in = Files.newInputStream(Paths.get(fileName))) {
+            byte[] start = new byte[length];
+            int read = 0;
+            int n;
+            while ((read < length) && ((n = in.read(start, read, length - read)) > 0)) {
+                read += n;
+            }
+            return (read < length) ? Arrays.copyOf(start, read) : start;
+        }
+    }
+
+
+    /**
+     * Reads a gzip compressed FASTA file. In parallel mode, BGZF blocks are
+     * decompressed and the entries are handled on the worker threads.
+     *
+     * @param handler
+     * @param threads
+     * @return
+     * @throws IOException
+     * @throws E
+     */
+    private <E extends Exception> int readCompressed(FastaEntryHandler<E> handler, int threads)
+            throws IOException, E {
+        ExecutorService executor = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
+
+        try (InputStream in = openDecompressed(executor, threads)) {
+            EntryBatchDispatcher<E> dispatcher = null;
+            FastaEntryScanner<E> scanner;
+            if (executor != null) {
+                dispatcher = new EntryBatchDispatcher<>(handler, executor, threads * 2);
+                scanner = new FastaEntryScanner<>(dispatcher);
+            } else {
+                scanner = new FastaEntryScanner<>(handler);
+            }
+
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int length;
+            while ((length = in.read(chunk)) >= 0) {
+                scanner.feed(chunk, 0, length);
+            }
+            int entryCount = scanner.finish();
+
+            if (dispatcher != null) {
+                dispatcher.finish();
+            }
+            return entryCount;
+        } catch (EntryBatchDispatcher.DispatchException e) {
+            throw e.getCause();
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+
+    /**
+     * Opens the decompressing stream of the gzip compressed file. If an
+     * executor is given and the file is in BGZF format, the blocks are
+     * decompressed in parallel. Any other gzip file is decompressed
+     * sequentially, all its members one after another.
+     *
+     * @param executor
+     * @param threads
+     * @return
+     * @throws IOException
+     */
+    private InputStream openDecompressed(ExecutorService executor, int threads) throws IOException {
+        boolean bgzf = false;
+        if (executor != null) {
+            byte[] start = readFileStart(64);
+            bgzf = BgzfInputStream.isBgzfHeader(start, start.length);
+        }
+
+        InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(fileName)), CHUNK_SIZE);
+        if (bgzf) {
+            return new BgzfInputStream(in, executor, threads * BLOCKS_PER_THREAD);
+        }
+        return new GZIPInputStream(in, CHUNK_SIZE);
+    }
+
+
+    /**
+     * Scans the entries in the given byte range of the file. The range must
+     * start at the beginning of the file or of an entry.
+     *
+     * @param channel
+     * @param start
+     * @param end
+     * @param handler
+     * @return number of entries in the range
+     * @throws IOException
+     * @throws E
+     */
+    private static <E extends Exception> int readRange(FileChannel channel, long start, long end,
+            FastaEntryHandler<E> handler) throws IOException, E {
+        FastaEntryScanner<E> scanner = new FastaEntryScanner<>(handler);
+        byte[] chunk = new byte[CHUNK_SIZE];
+
+        for (long position = start; position < end; position += MAPPED_WINDOW_SIZE) {
+            long windowSize = Math.min(MAPPED_WINDOW_SIZE, end - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+
+            while (window.hasRemaining()) {
+                int length = Math.min(chunk.length, window.remaining());
+                window.get(chunk, 0, length);
+                scanner.feed(chunk, 0, length);
+            }
+        }
+
+        return scanner.finish();
+    }
+
+
+    /**
+     * Splits the file into (at most) the given number of ranges and aligns each
+     * range to the start of the next entry.
+     *
+     * @param channel
+     * @param nrRanges
+     * @param minRangeSize
+     * @return the boundaries of the ranges, starting with 0 and ending with the
+     * file size
+     * @throws IOException
+     */
+    private static long[] getRangeBoundaries(FileChannel channel, int nrRanges, long minRangeSize)
+            throws IOException {
+        long fileSize = channel.size();
+        long rangeSize = Math.max(minRangeSize, fileSize / nrRanges + 1);
+
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        long lastBoundary = 0;
+        for (long position = rangeSize; position < fileSize; position += rangeSize) {
+            if (position > lastBoundary) {
+                lastBoundary = findEntryStart(channel, position);
+                if (lastBoundary < fileSize) {
+                    boundaries.add(lastBoundary);
+                }
+            }
+        }
+        boundaries.add(fileSize);
+
+        return boundaries.stream().mapToLong(Long::longValue).toArray();
+    }
+
+
+    /**
+     * Finds the position of the first '&gt;' following a line break at or
+     * after the given position.
+     *
+     * @param channel
+     * @param position
+     * @return the position of the entry start or the file size, if there is no
+     * further entry
+     * @throws IOException
+     */
+    private static long findEntryStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        long bufferStart = position - 1;
+        byte previous = 0;
+
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, bufferStart);
+            if (read <= 0) {
+                return channel.size();
+            }
+
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if ((b == '>') && (i + bufferStart > position - 1) && ((previous == '\n') || (previous == '\r'))) {
+                    return bufferStart + i;
+                }
+                previous = b;
+            }
+            bufferStart += read;
+        }
+    }
+
+
+    /**
+     * Gets the result of a range's or batch's future and rethrows the
+     * exceptions of the worker thread. The reading tasks throw no other
+     * checked exceptions than IOExceptions and the exceptions E of the
+     * handler.
+     *
+     * @param future
+     * @return
+     * @throws IOException
+     * @throws E
+     */
+    @SuppressWarnings("unchecked")
+    static <T, E extends Exception> T getResult(Future<T> future) throws IOException, E {
+        return Futures.get(future, (Class<E>) Exception.class, "reading FASTA file");
+    }
+}
@@ -0,0 +1,73 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+
+/**
+ * Waits for the results of tasks, which were passed to an executor, and
+ * rethrows the exceptions of the worker threads.
+ *
+ * @author julian
+ *
+ */
+final class Futures {
+
+    private Futures() {
+        // only static methods
+    }
+
+
+    /**
+     * Gets the result of the future. IOExceptions, RuntimeExceptions and
+     * Errors of the task are rethrown, any other exception is wrapped into an
+     * IOException.
+     *
+     * @param future
+     * @param task the description of the task for the messages, e.g.
+     *        "decompressing BGZF block"
+     * @return
+     * @throws IOException
+     */
+    static <T> T get(Future<T> future, String task) throws IOException {
+        return get(future, IOException.class, task);
+    }
+
+
+    /**
+     * Gets the result of the future. Exceptions of the given type,
+     * IOExceptions, RuntimeExceptions and Errors of the task are rethrown,
+     * any other exception is wrapped into an IOException.
+     *
+     * @param future
+     * @param exceptionType the type of the checked exceptions of the task
+     * @param task the description of the task for the messages, e.g.
+     *        "decompressing BGZF block"
+     * @return
+     * @throws IOException
+     * @throws E
+     */
+    static <T, E extends Exception> T get(Future<T> future, Class<E> exceptionType, String task)
+            throws IOException, E {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while " + task);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else if (exceptionType.isInstance(cause)) {
+                throw exceptionType.cast(cause);
+            }
+            throw new IOException("Error while " + task, cause);
+        }
+    }
+}
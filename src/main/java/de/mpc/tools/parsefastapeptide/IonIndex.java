@@ -0,0 +1,305 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Reads a binary ion index written by {@link IonIndexWriter}. The file is
+ * mapped into memory and the ions in a m/z range are found by a binary search
+ * over the sorted fixed-width records, so precursor lookups need no database.
+ * <p>
+ * The peptide IDs of the ions are the indices in the {@link PeptideIndex} of
+ * the same peptides. The modifications of an ion are decoded by a
+ * {@link PeptideMassCalculator} created with {@link #createMassCalculator()}.
+ *
+ * @author julian
+ *
+ */
+public class IonIndex implements Closeable {
+
+    /** the unit of a m/z tolerance */
+    public enum ToleranceUnit {
+        /** absolute tolerance in Dalton (Th) */
+        DA,
+        /** relative tolerance in parts per million */
+        PPM;
+
+        /**
+         * Returns the absolute tolerance for the given m/z
+         *
+         * @param massToCharge
+         * @param tolerance
+         * @return
+         */
+        public double getAbsoluteTolerance(double massToCharge, double tolerance) {
+            return (this == PPM) ? massToCharge * tolerance / 1e6 : tolerance;
+        }
+    }
+
+
+    /** the mapped index file */
+    private final MappedFile file;
+
+    /** number of ions */
+    private final long nrIons;
+
+    /** position of the ion records */
+    private final long recordsPos;
+
+    /** the maximal number of variable modifications per ion */
+    private final int maxVariableModifications;
+
+    /** the fixed modifications, mapping from the residues to the mass shifts */
+    private final Map<Character, Double> fixedModifications;
+
+    /** the variable modifications, mapping from the residues to the mass shifts */
+    private final Map<Character, Double> variableModifications;
+
+
+    public IonIndex(String fileName) throws IOException {
+        this.file = new MappedFile(new File(fileName));
+
+        if ((file.size() < IonIndexWriter.HEADER_SIZE) || (file.getInt(0) != IonIndexWriter.MAGIC)) {
+            throw new IOException(fileName + " is no ion index");
+        }
+        if (file.getInt(4) != IonIndexWriter.VERSION) {
+            throw new IOException("Unsupported version " + file.getInt(4) + " of ion index " + fileName);
+        }
+
+        this.nrIons = file.getLong(8);
+        this.recordsPos = file.getLong(16);
+        long[] position = {file.getLong(24)};
+        this.maxVariableModifications = file.getInt(32);
+
+        this.fixedModifications = readModifications(position);
+        this.variableModifications = readModifications(position);
+    }
+
+
+    private Map<Character, Double> readModifications(long[] position) {
+        int nrModifications = file.getInt(position[0]);
+        position[0] += 4;
+
+        Map<Character, Double> modifications = new HashMap<>(nrModifications * 2);
+        for (int i = 0; i < nrModifications; i++) {
+            char residue = (char) (file.getByte(position[0]) << 8 | (file.getByte(position[0] + 1) & 0xFF));
+            modifications.put(residue, file.getDouble(position[0] + 2));
+            position[0] += 10;
+        }
+        return Collections.unmodifiableMap(modifications);
+    }
+
+
+    /**
+     * Returns the number of ions in the index
+     *
+     * @return
+     */
+    public long size() {
+        return nrIons;
+    }
+
+
+    /**
+     * Returns the fixed modifications of the ions
+     *
+     * @return mapping from the residues to the mass shifts
+     */
+    public Map<Character, Double> getFixedModifications() {
+        return fixedModifications;
+    }
+
+
+    /**
+     * Returns the variable modifications of the ions
+     *
+     * @return mapping from the residues to the mass shifts
+     */
+    public Map<Character, Double> getVariableModifications() {
+        return variableModifications;
+    }
+
+
+    /**
+     * Returns the maximal number of variable modifications per ion
+     *
+     * @return
+     */
+    public int getMaxVariableModifications() {
+        return maxVariableModifications;
+    }
+
+
+    /**
+     * Creates a mass calculator with the modifications of the index, which
+     * decodes the modification IDs of the ions
+     *
+     * @return
+     */
+    public PeptideMassCalculator createMassCalculator() {
+        return new PeptideMassCalculator(fixedModifications, variableModifications);
+    }
+
+
+    private long recordPosition(long index) {
+        return recordsPos + IonIndexWriter.RECORD_SIZE * index;
+    }
+
+
+    /**
+     * Returns the m/z of the ion with the given index
+     *
+     * @param index
+     * @return
+     */
+    public double getMassToCharge(long index) {
+        checkIndex(index);
+        return file.getDouble(recordPosition(index));
+    }
+
+
+    /**
+     * Returns the modification ID of the ion with the given index
+     *
+     * @param index
+     * @return
+     */
+    public long getModificationId(long index) {
+        checkIndex(index);
+        return file.getLong(recordPosition(index) + 8);
+    }
+
+
+    /**
+     * Returns the peptide ID of the ion with the given index
+     *
+     * @param index
+     * @return
+     */
+    public int getPeptideId(long index) {
+        checkIndex(index);
+        return file.getInt(recordPosition(index) + 16);
+    }
+
+
+    /**
+     * Returns the charge of the ion with the given index
+     *
+     * @param index
+     * @return
+     */
+    public int getCharge(long index) {
+        checkIndex(index);
+        return file.getInt(recordPosition(index) + 20);
+    }
+
+
+    /**
+     * Whether the fixed modifications are applied in the given modification
+     * ID
+     *
+     * @param modificationId
+     * @return
+     */
+    public static boolean hasFixedModifications(long modificationId) {
+        return (modificationId & IonIndexWriter.FIXED_MODIFICATIONS_FLAG) != 0;
+    }
+
+
+    /**
+     * Returns the bitmask of the modified variable sites in the given
+     * modification ID
+     *
+     * @param modificationId
+     * @return
+     */
+    public static long getVariableModifications(long modificationId) {
+        return modificationId & ~IonIndexWriter.FIXED_MODIFICATIONS_FLAG;
+    }
+
+
+    /**
+     * Returns the index of the first ion with a m/z not smaller than the given
+     * one, found by binary search
+     *
+     * @param massToCharge
+     * @return the index or the number of ions, if all are smaller
+     */
+    public long lowerBound(double massToCharge) {
+        long low = 0;
+        long high = nrIons;
+
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (file.getDouble(recordPosition(mid)) < massToCharge) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Returns the indices of the ions within the tolerance around the given
+     * m/z
+     *
+     * @param massToCharge
+     * @param tolerance
+     * @param unit
+     * @param charge the charge of the ions, 0 for all charges
+     * @return the ascending indices of the ions
+     */
+    public long[] find(double massToCharge, double tolerance, ToleranceUnit unit, int charge) {
+        double absoluteTolerance = unit.getAbsoluteTolerance(massToCharge, tolerance);
+        return findRange(massToCharge - absoluteTolerance, massToCharge + absoluteTolerance, charge);
+    }
+
+
+    /**
+     * Returns the indices of the ions in the given m/z range
+     *
+     * @param minMassToCharge the minimal m/z (inclusive)
+     * @param maxMassToCharge the maximal m/z (inclusive)
+     * @param charge the charge of the ions, 0 for all charges
+     * @return the ascending indices of the ions
+     */
+    public long[] findRange(double minMassToCharge, double maxMassToCharge, int charge) {
+        long[] indices = new long[16];
+        int nrFound = 0;
+
+        for (long index = lowerBound(minMassToCharge); index < nrIons; index++) {
+            long position = recordPosition(index);
+            if (file.getDouble(position) > maxMassToCharge) {
+                break;
+            }
+            if ((charge == 0) || (file.getInt(position + 20) == charge)) {
+                if (nrFound == indices.length) {
+                    indices = Arrays.copyOf(indices, nrFound * 2);
+                }
+                indices[nrFound++] = index;
+            }
+        }
+        return Arrays.copyOf(indices, nrFound);
+    }
+
+
+    private void checkIndex(long index) {
+        if ((index < 0) || (index >= nrIons)) {
+            throw new IndexOutOfBoundsException("Index " + index + " for " + nrIons + " ions");
+        }
+    }
+
+
+    @Override
+    public void close() {
+        file.close();
+    }
+}
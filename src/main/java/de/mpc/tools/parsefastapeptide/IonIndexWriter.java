@@ -0,0 +1,395 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Writes the binary ion index, which is read by {@link IonIndex}. For each
+ * added peptide the ions of all charges and modified forms are calculated,
+ * like they are stored in the Neo4j database by the ParseToNeo4J importer.
+ * <p>
+ * The ions are buffered in memory. Each full buffer is sorted and written as
+ * a run into a temporary file ({@link SortedRuns}), on closing the runs are
+ * merged into the index. So the number of ions is only limited by the disk space.
+ * <p>
+ * The index consists of
+ * <ul>
+ * <li>the header: magic number, version, number of ions, the maximal number of
+ * variable modifications and the positions of the sections</li>
+ * <li>the ion records sorted by m/z (ties by peptide ID, charge and
+ * modification ID), each with the m/z (double), modification ID (long),
+ * peptide ID (int) and charge (int)</li>
+ * <li>the modification dictionary: the number of fixed modifications, their
+ * residues (as short) and mass shifts (double), followed by the same for the
+ * variable modifications</li>
+ * </ul>
+ * All numbers are written big-endian.
+ * <p>
+ * The modification ID of an ion is the bitmask of the modified variable sites
+ * of its peptide (see {@link PeptideMassCalculator}), with the highest bit
+ * set, if the fixed modifications are applied.
+ *
+ * @author julian
+ *
+ */
+public class IonIndexWriter implements Closeable {
+
+    /** magic number of the index files ("IONX") */
+    static final int MAGIC = 0x494F4E58;
+
+    /** the version of the format */
+    static final int VERSION = 1;
+
+    /** the size of the header */
+    static final int HEADER_SIZE = 64;
+
+    /** the size of one ion record */
+    static final int RECORD_SIZE = 24;
+
+    /** the bit of the modification ID, which marks applied fixed modifications */
+    public static final long FIXED_MODIFICATIONS_FLAG = 1L << 63;
+
+    /** size of the buffer for writing the index */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** the order of the ions: by their m/z, ties by the peptide ID, charge and modification ID */
+    private static final Comparator<Ion> ION_ORDER = (ion1, ion2) -> {
+        int cmp = Double.compare(ion1.massToCharge, ion2.massToCharge);
+        if (cmp == 0) {
+            cmp = Integer.compare(ion1.peptideId, ion2.peptideId);
+        }
+        if (cmp == 0) {
+            cmp = Integer.compare(ion1.charge, ion2.charge);
+        }
+        if (cmp == 0) {
+            cmp = Long.compare(ion1.modificationId, ion2.modificationId);
+        }
+        return cmp;
+    };
+
+    /** writes and reads the ion records, in the runs as well as in the index */
+    private static final SortedRuns.RunFormat<Ion> ION_FORMAT = new SortedRuns.RunFormat<Ion>() {
+        @Override
+        public void write(DataOutputStream out, Ion ion) throws IOException {
+            out.writeDouble(ion.massToCharge);
+            out.writeLong(ion.modificationId);
+            out.writeInt(ion.peptideId);
+            out.writeInt(ion.charge);
+        }
+
+
+        @Override
+        public Ion read(DataInputStream in) throws IOException {
+            return new Ion(in.readDouble(), in.readLong(), in.readInt(), in.readInt());
+        }
+    };
+
+    /** the written file */
+    private final RandomAccessFile file;
+
+    /** the considered fixed modifications */
+    private final Map<Character, Double> fixedModifications;
+
+    /** the considered variable modifications */
+    private final Map<Character, Double> variableModifications;
+
+    /** calculates the masses of the peptides */
+    private final PeptideMassCalculator massCalculator;
+
+    /** charges of the ions */
+    private int[] charges;
+
+    /** the maximal number of variable modifications per ion */
+    private int maxVariableModifications;
+
+    /** whether the ions without the fixed modifications are written as well */
+    private boolean encodeUnmodified;
+
+
+    /** the number of ions buffered before a run is written */
+    private int recordsPerRun;
+
+    /** the buffered ions */
+    private final List<Ion> buffer;
+
+    /** the sorted runs on disk */
+    private SortedRuns<Ion> runs;
+
+    /** number of all added ions */
+    private long nrIons;
+
+
+    /**
+     * Creates a writer of an index for the given modifications. By default
+     * ions of charge 2 and 3 with up to 3 variable modifications are written.
+     *
+     * @param fileName
+     * @param fixedModifications mapping from the residues to the mass shifts
+     * @param variableModifications mapping from the residues to the mass shifts
+     * @throws IOException
+     */
+    public IonIndexWriter(String fileName, Map<Character, Double> fixedModifications,
+            Map<Character, Double> variableModifications) throws IOException {
+        this.fixedModifications = new HashMap<>(fixedModifications);
+        this.variableModifications = new HashMap<>(variableModifications);
+        this.massCalculator = new PeptideMassCalculator(fixedModifications, variableModifications);
+
+        this.charges = new int[]{2, 3};
+        this.maxVariableModifications = 3;
+        this.encodeUnmodified = true;
+        this.recordsPerRun = 1 << 20;
+
+        this.buffer = new ArrayList<>();
+        this.runs = new SortedRuns<>("ions", null, ION_ORDER, null, ION_FORMAT);
+        this.nrIons = 0;
+
+        this.file = new RandomAccessFile(fileName, "rw");
+        this.file.setLength(0);
+    }
+
+
+    /**
+     * Sets the charges of the ions
+     *
+     * @param charges
+     */
+    public void setCharges(int... charges) {
+        for (int charge : charges) {
+            if (charge < 1) {
+                throw new IllegalArgumentException("Invalid charge " + charge);
+            }
+        }
+        this.charges = charges.clone();
+    }
+
+
+    /**
+     * Sets the maximal number of variable modifications per ion
+     *
+     * @param maxVariableModifications
+     */
+    public void setMaxVariableModifications(int maxVariableModifications) {
+        this.maxVariableModifications = Math.max(0, maxVariableModifications);
+    }
+
+
+    /**
+     * Sets whether the ions without the fixed modifications are written as
+     * well
+     *
+     * @param encodeUnmodified
+     */
+    public void setEncodeUnmodified(boolean encodeUnmodified) {
+        this.encodeUnmodified = encodeUnmodified;
+    }
+
+
+    /**
+     * Sets the directory of the temporary run files, by default the system's
+     * temporary directory
+     *
+     * @param tempDirectory
+     */
+    public void setTempDirectory(File tempDirectory) {
+        if (runs.getNumberOfRuns() > 0) {
+            throw new IllegalStateException("Runs were already written");
+        }
+        this.runs = new SortedRuns<>("ions", tempDirectory, ION_ORDER, null, ION_FORMAT);
+    }
+
+
+    /**
+     * Sets the number of ions, which are sorted in memory before they are
+     * written into a run. Each buffered ion takes about 48 bytes of the heap,
+     * by default 2^20 ions are buffered.
+     *
+     * @param recordsPerRun
+     */
+    public void setRecordsPerRun(int recordsPerRun) {
+        if (nrIons > 0) {
+            throw new IllegalStateException("Ions were already added");
+        }
+        this.recordsPerRun = Math.max(1, recordsPerRun);
+    }
+
+
+    /**
+     * Returns the number of added ions
+     *
+     * @return
+     */
+    public long getNrIons() {
+        return nrIons;
+    }
+
+
+    /**
+     * Adds the ions of all peptides in the peptide index, the peptide IDs of
+     * the ions are the indices in the peptide index. Peptides with unknown
+     * residues are skipped.
+     *
+     * @param peptides
+     * @throws IOException
+     */
+    public void addAll(PeptideIndex peptides) throws IOException {
+        for (int peptideId = 0; peptideId < peptides.size(); peptideId++) {
+            add(peptideId, peptides.getPeptide(peptideId));
+        }
+    }
+
+
+    /**
+     * Adds the ions of all charges and modified forms of the given peptide
+     *
+     * @param peptideId
+     * @param peptide
+     * @return false, if the peptide contains unknown residues or too many
+     * modification sites and no ions were added
+     * @throws IOException
+     */
+    public boolean add(int peptideId, CharSequence peptide) throws IOException {
+        try {
+            massCalculator.forEachModifiedForm(peptide, maxVariableModifications, encodeUnmodified,
+                    (theoreticalMass, withFixed, variableMask) -> addIons(peptideId, theoreticalMass,
+                            withFixed ? (variableMask | FIXED_MODIFICATIONS_FLAG) : variableMask));
+        } catch (IllegalArgumentException e) {
+            // the peptide has unknown residues or too many modification sites
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Buffers the ions of all charges of the given modified form
+     *
+     * @param peptideId
+     * @param theoreticalMass
+     * @param modificationId
+     * @throws IOException
+     */
+    private void addIons(int peptideId, double theoreticalMass, long modificationId) throws IOException {
+        for (int charge : charges) {
+            if (buffer.size() == recordsPerRun) {
+                writeBufferRun();
+            }
+            buffer.add(new Ion(PeptideMassCalculator.calculateMassToCharge(theoreticalMass, charge), modificationId,
+                    peptideId, charge));
+            nrIons++;
+        }
+    }
+
+
+    /**
+     * Sorts the buffer and writes it into a new run
+     *
+     * @throws IOException
+     */
+    private void writeBufferRun() throws IOException {
+        buffer.sort(ION_ORDER);
+        runs.addRun(buffer);
+        buffer.clear();
+    }
+
+
+    /**
+     * Merges the ions into the index, writes the modification dictionary and
+     * the header and closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            FileChannel channel = file.getChannel();
+            channel.position(HEADER_SIZE);
+            OutputStream channelOut = Channels.newOutputStream(channel);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(channelOut, BUFFER_SIZE));
+
+            if (runs.getNumberOfRuns() == 0) {
+                buffer.sort(ION_ORDER);
+                for (Ion ion : buffer) {
+                    ION_FORMAT.write(out, ion);
+                }
+            } else {
+                if (!buffer.isEmpty()) {
+                    writeBufferRun();
+                }
+                runs.reduceRuns(SortedRuns.MAX_MERGE_RUNS);
+                try (SortedRuns<Ion>.MergingIterator it = runs.merge()) {
+                    while (it.hasNext()) {
+                        ION_FORMAT.write(out, it.next());
+                    }
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+
+            long modificationsPos = HEADER_SIZE + RECORD_SIZE * nrIons;
+            writeModifications(out, fixedModifications);
+            writeModifications(out, variableModifications);
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(nrIons);
+            header.putLong(HEADER_SIZE);
+            header.putLong(modificationsPos);
+            header.putInt(maxVariableModifications);
+            header.flip();
+            channel.write(header, 0);
+        } finally {
+            buffer.clear();
+            runs.close();
+            file.close();
+        }
+    }
+
+
+    private static void writeModifications(DataOutputStream out, Map<Character, Double> modifications)
+            throws IOException {
+        out.writeInt(modifications.size());
+        for (Map.Entry<Character, Double> modification : modifications.entrySet()) {
+            out.writeShort(modification.getKey());
+            out.writeDouble(modification.getValue());
+        }
+    }
+
+
+    /**
+     * A buffered ion
+     */
+    private static final class Ion {
+
+        private final double massToCharge;
+
+        private final long modificationId;
+
+        private final int peptideId;
+
+        private final int charge;
+
+
+        private Ion(double massToCharge, long modificationId, int peptideId, int charge) {
+            this.massToCharge = massToCharge;
+            this.modificationId = modificationId;
+            this.peptideId = peptideId;
+            this.charge = charge;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * A file mapped read-only into memory. Files larger than 2GB are mapped in
+ * several pages, reads crossing the page boundaries are assembled from the
+ * single bytes. All values are read big-endian.
+ *
+ * @author julian
+ *
+ */
+class MappedFile implements Closeable {
+
+    /** number of bits of the page size */
+    private static final int PAGE_BITS = 30;
+
+    /** the size of one page (1GB) */
+    private static final long PAGE_SIZE = 1L << PAGE_BITS;
+
+    /** mask for the offset in a page */
+    private static final long PAGE_MASK = PAGE_SIZE - 1;
+
+    /** the mapped pages */
+    private ByteBuffer[] pages;
+
+    /** the size of the file */
+    private final long size;
+
+
+    public MappedFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            this.size = channel.size();
+
+            int nrPages = (int) ((size + PAGE_SIZE - 1) >>> PAGE_BITS);
+            this.pages = new ByteBuffer[nrPages];
+            for (int i = 0; i < nrPages; i++) {
+                long start = (long) i << PAGE_BITS;
+                pages[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(PAGE_SIZE, size - start));
+            }
+        }
+    }
+
+
+    /**
+     * Returns the size of the file in bytes
+     *
+     * @return
+     */
+    public long size() {
+        return size;
+    }
+
+
+    public byte getByte(long position) {
+        return pages[(int) (position >>> PAGE_BITS)].get((int) (position & PAGE_MASK));
+    }
+
+
+    public int getInt(long position) {
+        int offset = (int) (position & PAGE_MASK);
+        if (offset + 4 <= PAGE_SIZE) {
+            return pages[(int) (position >>> PAGE_BITS)].getInt(offset);
+        }
+        return (int) readBytes(position, 4);
+    }
+
+
+    public long getLong(long position) {
+        int offset = (int) (position & PAGE_MASK);
+        if (offset + 8 <= PAGE_SIZE) {
+            return pages[(int) (position >>> PAGE_BITS)].getLong(offset);
+        }
+        return readBytes(position, 8);
+    }
+
+
+    public double getDouble(long position) {
+        return Double.longBitsToDouble(getLong(position));
+    }
+
+
+    /**
+     * Reads the given number of bytes big-endian into a long
+     *
+     * @param position
+     * @param nrBytes
+     * @return
+     */
+    private long readBytes(long position, int nrBytes) {
+        long value = 0;
+        for (int i = 0; i < nrBytes; i++) {
+            value = (value << 8) | (getByte(position + i) & 0xFF);
+        }
+        return value;
+    }
+
+
+    /**
+     * Releases the pages. The memory is unmapped, when the pages are garbage
+     * collected.
+     */
+    @Override
+    public void close() {
+        pages = new ByteBuffer[0];
+    }
+}
@@ -0,0 +1,122 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+
+/**
+ * Lazily enumerates the combinations of variable modifications of a peptide
+ * with at most a maximal number of modifications. A combination is a bitmask
+ * over the modification sites, like in {@link PeptideMassCalculator}.
+ * <p>
+ * The combinations are created ordered by their number of modifications,
+ * starting with the unmodified peptide. Each next combination with the same
+ * number of modifications is calculated in constant time (Gosper's hack), so
+ * only the allowed combinations are visited and none are kept in memory.
+ *
+ * @author julian
+ *
+ */
+public class ModificationCombinations implements PrimitiveIterator.OfLong {
+
+    /** the number of modification sites */
+    private final int nrSites;
+
+    /** the maximal number of modifications in a combination */
+    private final int maxModifications;
+
+    /** the number of modifications of the next combination */
+    private int nrModifications;
+
+    /** the next combination */
+    private long next;
+
+
+    /**
+     * Creates the enumeration for the given number of sites
+     *
+     * @param nrSites the number of modification sites, at most 63
+     * @param maxModifications the maximal number of modifications per
+     * combination
+     */
+    public ModificationCombinations(int nrSites, int maxModifications) {
+        if ((nrSites < 0) || (nrSites > PeptideMassCalculator.MAX_VARIABLE_SITES)) {
+            throw new IllegalArgumentException("Invalid number of modification sites " + nrSites);
+        }
+        this.nrSites = nrSites;
+        this.maxModifications = Math.max(0, Math.min(nrSites, maxModifications));
+        this.nrModifications = 0;
+        this.next = 0;
+    }
+
+
+    /**
+     * Returns the number of combinations with at most the given number of
+     * modifications. The count saturates at Long.MAX_VALUE, which is only
+     * reached by all combinations of 63 sites.
+     *
+     * @param nrSites the number of modification sites, at most 63
+     * @param maxModifications
+     * @return
+     */
+    static long count(int nrSites, int maxModifications) {
+        if ((nrSites < 0) || (nrSites > PeptideMassCalculator.MAX_VARIABLE_SITES)) {
+            throw new IllegalArgumentException("Invalid number of modification sites " + nrSites);
+        }
+
+        long count = 0;
+        long binomial = 1;
+        for (int k = 0; k <= Math.min(nrSites, maxModifications); k++) {
+            if (count > Long.MAX_VALUE - binomial) {
+                return Long.MAX_VALUE;
+            }
+            count += binomial;
+
+            // C(n, k + 1) = C(n, k) * (n - k) / (k + 1), reduced before multiplying, so it does not overflow
+            long divisor = gcd(binomial, k + 1);
+            binomial = (binomial / divisor) * ((nrSites - k) / ((k + 1) / divisor));
+        }
+        return count;
+    }
+
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long remainder = a % b;
+            a = b;
+            b = remainder;
+        }
+        return a;
+    }
+
+
+    @Override
+    public boolean hasNext() {
+        return nrModifications <= maxModifications;
+    }
+
+
+    @Override
+    public long nextLong() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        long combination = next;
+        if (combination == 0) {
+            nrModifications++;
+            next = (1L << nrModifications) - 1;
+        } else {
+            // the next larger number with the same number of set bits
+            long lowest = combination & -combination;
+            long ripple = combination + lowest;
+            next = (((ripple ^ combination) >>> 2) / lowest) | ripple;
+
+            if ((next >>> nrSites) != 0) {
+                nrModifications++;
+                next = (1L << nrModifications) - 1;
+            }
+        }
+        return combination;
+    }
+}
@@ -0,0 +1,25 @@
+package de.mpc.tools.parsefastapeptide;
+
+/**
+ * Receives the modified forms of the current peptide of a
+ * {@link PeptideMassCalculator}, see
+ * {@link PeptideMassCalculator#forEachModifiedForm(CharSequence, int, boolean, ModifiedFormConsumer)}.
+ *
+ * @author julian
+ *
+ * @param <E> the type of exception thrown by the consumer
+ */
+@FunctionalInterface
+public interface ModifiedFormConsumer<E extends Exception> {
+
+    /**
+     * Called for each modified form, the ions of all charges can be
+     * calculated from its mass.
+     *
+     * @param theoreticalMass the mass of the modified peptide
+     * @param withFixed whether the fixed modifications are applied
+     * @param variableMask the applied variable modifications
+     * @throws E
+     */
+    void accept(double theoreticalMass, boolean withFixed, long variableMask) throws E;
+}
@@ -0,0 +1,231 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A growing memory region outside of the Java heap, addressed by long offsets.
+ * The memory is allocated in pages, either as direct buffers or mapped from a
+ * temporary file, which is deleted when the arena is closed. New memory is
+ * always zeroed.
+ * <p>
+ * A single allocation never crosses a page boundary, except for
+ * {@link #allocateLarge(long)}, so all accesses of one allocated block stay
+ * within one page. The arena is not thread-safe.
+ *
+ * @author julian
+ *
+ */
+class OffHeapArena implements Closeable {
+
+    /** the default number of bits of the page size */
+    static final int DEFAULT_PAGE_BITS = 26;
+
+    /** number of bits of the page size */
+    private final int pageBits;
+
+    /** the size of one page (64MB by default) */
+    private final int pageSize;
+
+    /** mask for the offset in a page */
+    private final long pageMask;
+
+    /** the allocated pages */
+    private final List<ByteBuffer> pages;
+
+    /** the backing file, null for direct memory */
+    private final File file;
+
+    /** the channel of the backing file, null for direct memory */
+    private final FileChannel channel;
+
+    /** the next free address */
+    private long position;
+
+
+    /**
+     * Creates an arena in direct memory, if the directory is null, or else in a
+     * temporary file mapped into memory in the given directory.
+     *
+     * @param directory
+     * @throws IOException
+     */
+    public OffHeapArena(File directory) throws IOException {
+        this(directory, DEFAULT_PAGE_BITS);
+    }
+
+
+    /**
+     * Creates an arena with pages of 2^pageBits bytes. Smaller pages waste
+     * less memory for small arenas, but need more mappings for large ones.
+     *
+     * @param directory the directory of the mapped file or null for direct
+     *        memory
+     * @param pageBits between 3 and 30
+     * @throws IOException
+     */
+    public OffHeapArena(File directory, int pageBits) throws IOException {
+        if ((pageBits < 3) || (pageBits > 30)) {
+            throw new IllegalArgumentException("Invalid number of page bits " + pageBits);
+        }
+        this.pageBits = pageBits;
+        this.pageSize = 1 << pageBits;
+        this.pageMask = pageSize - 1L;
+        this.pages = new ArrayList<>();
+        if (directory != null) {
+            this.file = File.createTempFile("peptides", ".arena", directory);
+            this.file.deleteOnExit();
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+        } else {
+            this.file = null;
+            this.channel = null;
+        }
+
+        // address 0 is never handed out, so it can be used as null
+        this.position = 8;
+    }
+
+
+    /**
+     * Allocates a block of the given size, which lies within one page
+     *
+     * @param size at most the page size
+     * @return the address of the block
+     */
+    public long allocate(int size) {
+        if ((size < 0) || (size > pageSize)) {
+            throw new IllegalArgumentException("Invalid block size " + size);
+        }
+        if ((position & pageMask) + size > pageSize) {
+            position = ((position >>> pageBits) + 1) << pageBits;
+        }
+
+        long address = position;
+        position += size;
+        ensurePages((position - 1) >>> pageBits);
+        return address;
+    }
+
+
+    /**
+     * Allocates a block of the given size starting at a new page. Accesses to
+     * the block must not cross page boundaries, which holds e.g. for arrays of
+     * longs.
+     *
+     * @param size
+     * @return the address of the block
+     */
+    public long allocateLarge(long size) {
+        if ((position & pageMask) != 0) {
+            position = ((position >>> pageBits) + 1) << pageBits;
+        }
+
+        long address = position;
+        position += Math.max(size, 1);
+        ensurePages((position - 1) >>> pageBits);
+        return address;
+    }
+
+
+    /**
+     * Allocates the pages up to the given page index
+     *
+     * @param lastPage
+     */
+    private void ensurePages(long lastPage) {
+        while (pages.size() <= lastPage) {
+            ByteBuffer page;
+            if (channel != null) {
+                try {
+                    page = channel.map(FileChannel.MapMode.READ_WRITE, (long) pages.size() << pageBits, pageSize);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not map page of " + file, e);
+                }
+            } else {
+                page = ByteBuffer.allocateDirect(pageSize);
+            }
+            pages.add(page.order(ByteOrder.nativeOrder()));
+        }
+    }
+
+
+    /**
+     * Returns the number of bytes used by the arena
+     *
+     * @return
+     */
+    public long getUsedBytes() {
+        return position;
+    }
+
+
+    /**
+     * Returns the size of the pages, the largest block allocated by
+     * {@link #allocate(int)}
+     *
+     * @return
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+
+    private ByteBuffer page(long address) {
+        return pages.get((int) (address >>> pageBits));
+    }
+
+
+    public byte getByte(long address) {
+        return page(address).get((int) (address & pageMask));
+    }
+
+
+    public void putByte(long address, byte value) {
+        page(address).put((int) (address & pageMask), value);
+    }
+
+
+    public int getInt(long address) {
+        return page(address).getInt((int) (address & pageMask));
+    }
+
+
+    public void putInt(long address, int value) {
+        page(address).putInt((int) (address & pageMask), value);
+    }
+
+
+    public long getLong(long address) {
+        return page(address).getLong((int) (address & pageMask));
+    }
+
+
+    public void putLong(long address, long value) {
+        page(address).putLong((int) (address & pageMask), value);
+    }
+
+
+    /**
+     * Releases the pages and deletes the backing file, if any. The direct
+     * memory is freed, when the pages are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        pages.clear();
+        if (channel != null) {
+            channel.close();
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
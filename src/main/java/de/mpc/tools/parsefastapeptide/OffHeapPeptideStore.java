@@ -0,0 +1,577 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Aggregates the peptides of a digestion outside of the Java heap, so the heap
+ * can stay small for very large digestions. Like in the
+ * {@link PeptideAggregator}, the peptides are distributed by their hash code
+ * over shards, each with its own lock. Each shard keeps an open addressing
+ * hash table (with linear probing) of record addresses and an arena with the
+ * records of the peptide's bytes and the blocks of the accession IDs.
+ * <p>
+ * The arenas are either allocated in direct memory (which is limited by
+ * -XX:MaxDirectMemorySize) or in temporary files mapped into memory. As each
+ * shard allocates its own pages, the store uses fewer shards than the
+ * aggregator by default. The records returned by {@link #get(CharSequence)}
+ * and the iterator are copies, which are not updated.
+ *
+ * @author julian
+ *
+ */
+public class OffHeapPeptideStore implements RandomAccessPeptideStore {
+
+    /** the default number of shards */
+    private static final int DEFAULT_SHARDS = 16;
+
+    /** number of bits of the page size of the shards' arenas (4MB) */
+    private static final int SHARD_PAGE_BITS = 22;
+
+    /** the maximal load factor of the tables */
+    private static final double MAX_LOAD = 0.7;
+
+    /** multiplier for spreading the hash codes */
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /** offset of the hash code in a peptide record */
+    private static final int HASH = 0;
+
+    /** offset of the peptide length in a peptide record */
+    private static final int LENGTH = 4;
+
+    /** offset of the number of occurrences in a peptide record */
+    private static final int OCCURRENCES = 8;
+
+    /** offset of the number of stored accession IDs in a peptide record */
+    private static final int NR_ACCESSIONS = 12;
+
+    /** offset of the single accession ID or the address of the accession block in a peptide record */
+    private static final int ACCESSIONS = 16;
+
+    /** offset of the peptide's bytes in a peptide record */
+    private static final int SEQUENCE = 24;
+
+    /** offset of the accession IDs in an accession block, after the block's capacity */
+    private static final int ACCESSION_IDS = 4;
+
+    /** the capacity of a new accession block */
+    private static final int MIN_ACCESSION_CAPACITY = 4;
+
+    /** the dictionary of the accession IDs */
+    private final AccessionDictionary accessions;
+
+    /** the shards, each shard is locked on itself */
+    private final Shard[] shards;
+
+
+    /**
+     * Creates a store in direct memory, if the directory is null, or else in
+     * memory mapped files in the given directory.
+     *
+     * @param accessions the dictionary of the accession IDs
+     * @param directory the directory for the mapped files or null
+     * @param initialCapacity the expected number of peptides
+     * @throws IOException
+     */
+    public OffHeapPeptideStore(AccessionDictionary accessions, File directory, int initialCapacity) throws IOException {
+        this(accessions, directory, DEFAULT_SHARDS, initialCapacity);
+    }
+
+
+    /**
+     * Creates a store with (at least) the given number of shards
+     *
+     * @param accessions the dictionary of the accession IDs
+     * @param directory the directory for the mapped files or null
+     * @param nrShards will be rounded up to a power of two
+     * @param initialCapacity the expected number of peptides
+     * @throws IOException
+     */
+    public OffHeapPeptideStore(AccessionDictionary accessions, File directory, int nrShards, int initialCapacity)
+            throws IOException {
+        this.accessions = accessions;
+
+        int bits = 0;
+        while ((1 << bits) < nrShards) {
+            bits++;
+        }
+
+        this.shards = new Shard[1 << bits];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = new Shard(directory, initialCapacity / shards.length);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+
+    @Override
+    public AccessionDictionary getAccessionDictionary() {
+        return accessions;
+    }
+
+
+    /**
+     * Returns the shard for the given peptide
+     *
+     * @param peptide
+     * @return
+     */
+    private Shard getShard(PeptideSpan peptide) {
+        // the tables spread the hash into their upper bits, so use the (folded) lower bits like a HashMap
+        int hash = peptide.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+    }
+
+
+    @Override
+    public void addPeptide(PeptideSpan peptide, int accessionId) {
+        Shard shard = getShard(peptide);
+        synchronized (shard) {
+            shard.addPeptide(peptide, accessionId);
+        }
+    }
+
+
+    @Override
+    public PeptideRecord get(CharSequence peptide) {
+        PeptideSpan span = PeptideSpan.of(peptide);
+        Shard shard = getShard(span);
+        synchronized (shard) {
+            long record = shard.getRecord(span);
+            return (record != 0) ? shard.readRecord(record) : null;
+        }
+    }
+
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.size;
+            }
+        }
+        return size;
+    }
+
+
+    /**
+     * Returns the number of bytes used in the arenas and the tables
+     *
+     * @return
+     */
+    public long getUsedBytes() {
+        long usedBytes = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                usedBytes += shard.arena.getUsedBytes() + shard.tableArena.getUsedBytes();
+            }
+        }
+        return usedBytes;
+    }
+
+
+    /**
+     * Returns an iterator over copies of the stored peptides and their
+     * records. The store must not be modified during the iteration.
+     */
+    @Override
+    public Iterator<Map.Entry<PackedPeptide, PeptideRecord>> iterator() {
+        return new Iterator<Map.Entry<PackedPeptide, PeptideRecord>>() {
+            private int shardIdx = 0;
+
+            private long slot = -1;
+
+            private long nextRecord = advance();
+
+
+            /**
+             * Returns the next record of the current or the following shards
+             */
+            private long advance() {
+                while (shardIdx < shards.length) {
+                    Shard shard = shards[shardIdx];
+                    synchronized (shard) {
+                        long capacity = 1L << shard.tableBits;
+                        while (++slot < capacity) {
+                            long record = shard.tableArena.getLong(shard.table + (slot << 3));
+                            if (record != 0) {
+                                return record;
+                            }
+                        }
+                    }
+                    shardIdx++;
+                    slot = -1;
+                }
+                return 0;
+            }
+
+
+            @Override
+            public boolean hasNext() {
+                return nextRecord != 0;
+            }
+
+
+            @Override
+            public Map.Entry<PackedPeptide, PeptideRecord> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                Map.Entry<PackedPeptide, PeptideRecord> entry;
+                Shard shard = shards[shardIdx];
+                synchronized (shard) {
+                    entry = new AbstractMap.SimpleImmutableEntry<>(PackedPeptide.pack(shard.readSequence(nextRecord)),
+                            shard.readRecord(nextRecord));
+                }
+                nextRecord = advance();
+                return entry;
+            }
+        };
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        for (Shard shard : shards) {
+            if (shard != null) {
+                synchronized (shard) {
+                    shard.close();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * One shard of the store with its table and arena. The shard is not
+     * thread-safe, it is locked by the store.
+     */
+    private static final class Shard {
+
+        /** the directory of the mapped files, null for direct memory */
+        private final File directory;
+
+        /** the arena of the peptide records and the accession blocks */
+        private final OffHeapArena arena;
+
+        /** the arena of the table, one long per slot (the record's address or 0) */
+        private OffHeapArena tableArena;
+
+        /** address of the table */
+        private long table;
+
+        /** number of bits of the table's capacity */
+        private int tableBits;
+
+        /** number of stored peptides */
+        private int size;
+
+
+        private Shard(File directory, int initialCapacity) throws IOException {
+            this.directory = directory;
+            this.arena = new OffHeapArena(directory, SHARD_PAGE_BITS);
+
+            int bits = 10;
+            while ((1L << bits) * MAX_LOAD < initialCapacity) {
+                bits++;
+            }
+            this.tableBits = bits;
+            this.tableArena = createTableArena(directory, bits);
+            this.table = tableArena.allocateLarge(8L << bits);
+            this.size = 0;
+        }
+
+
+        /**
+         * Creates the arena for a table with the given number of bits, its
+         * pages are an eighth of the table, so little memory is wasted before
+         * the table's first page.
+         *
+         * @param directory
+         * @param bits
+         * @return
+         * @throws IOException
+         */
+        private static OffHeapArena createTableArena(File directory, int bits) throws IOException {
+            return new OffHeapArena(directory, Math.min(bits, OffHeapArena.DEFAULT_PAGE_BITS));
+        }
+
+
+        /**
+         * Returns the slot of the given peptide or the empty slot, at which it
+         * should be inserted
+         *
+         * @param peptide
+         * @param hash
+         * @return
+         */
+        private long findSlot(CharSequence peptide, int hash) {
+            long mask = (1L << tableBits) - 1;
+            long slot = (hash * HASH_MULTIPLIER) >>> (64 - tableBits);
+
+            while (true) {
+                long record = tableArena.getLong(table + (slot << 3));
+                if ((record == 0) || matches(record, peptide, hash)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+
+        /**
+         * Checks whether the record at the given address holds the given
+         * peptide
+         *
+         * @param record
+         * @param peptide
+         * @param hash
+         * @return
+         */
+        private boolean matches(long record, CharSequence peptide, int hash) {
+            int length = peptide.length();
+            if ((arena.getInt(record + HASH) != hash) || (arena.getInt(record + LENGTH) != length)) {
+                return false;
+            }
+
+            long sequence = record + SEQUENCE;
+            for (int i = 0; i < length; i++) {
+                if (arena.getByte(sequence + i) != (byte) peptide.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+
+        /**
+         * Returns the address of the peptide's record
+         *
+         * @param peptide
+         * @return the address or 0, if the peptide is not stored
+         */
+        private long getRecord(PeptideSpan peptide) {
+            return tableArena.getLong(table + (findSlot(peptide, peptide.hashCode()) << 3));
+        }
+
+
+        /**
+         * Adds one occurrence of the peptide in the protein with the given
+         * accession ID, the peptide's record is created if it is not yet
+         * stored.
+         *
+         * @param peptide
+         * @param accessionId
+         */
+        private void addPeptide(PeptideSpan peptide, int accessionId) {
+            int hash = peptide.hashCode();
+            long slot = findSlot(peptide, hash);
+            long record = tableArena.getLong(table + (slot << 3));
+
+            if (record == 0) {
+                if (size + 1 > (1L << tableBits) * MAX_LOAD) {
+                    resizeTable();
+                    slot = findSlot(peptide, hash);
+                }
+
+                int length = peptide.length();
+                record = arena.allocate((SEQUENCE + length + 7) & ~7);
+                arena.putInt(record + HASH, hash);
+                arena.putInt(record + LENGTH, length);
+                for (int i = 0; i < length; i++) {
+                    arena.putByte(record + SEQUENCE + i, (byte) peptide.charAt(i));
+                }
+
+                tableArena.putLong(table + (slot << 3), record);
+                size++;
+            }
+
+            addAccession(record, accessionId);
+            arena.putInt(record + OCCURRENCES, arena.getInt(record + OCCURRENCES) + 1);
+        }
+
+
+        /**
+         * Doubles the capacity of the table
+         */
+        private void resizeTable() {
+            OffHeapArena oldArena = tableArena;
+            long oldTable = table;
+            long oldCapacity = 1L << tableBits;
+
+            try {
+                tableArena = createTableArena(directory, tableBits + 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not create the peptide table", e);
+            }
+            tableBits++;
+            table = tableArena.allocateLarge(8L << tableBits);
+
+            long mask = (1L << tableBits) - 1;
+            for (long oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+                long record = oldArena.getLong(oldTable + (oldSlot << 3));
+                if (record == 0) {
+                    continue;
+                }
+
+                long slot = (arena.getInt(record + HASH) * HASH_MULTIPLIER) >>> (64 - tableBits);
+                while (tableArena.getLong(table + (slot << 3)) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                tableArena.putLong(table + (slot << 3), record);
+            }
+
+            try {
+                oldArena.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not release the old peptide table", e);
+            }
+        }
+
+
+        /**
+         * Adds the accession ID to the record. A single ID is stored in the
+         * record, more IDs are appended to a block, unless the ID is the last
+         * added one. When the block is full, it is sorted and cleared of
+         * duplicates first and only grows, if this did not free enough space.
+         * So the block's size is bounded by the number of distinct
+         * accessions.
+         *
+         * @param record
+         * @param accessionId
+         */
+        private void addAccession(long record, int accessionId) {
+            int nrIds = arena.getInt(record + NR_ACCESSIONS);
+            long block;
+
+            if (nrIds == 0) {
+                arena.putInt(record + ACCESSIONS, accessionId);
+                arena.putInt(record + NR_ACCESSIONS, 1);
+                return;
+            } else if (nrIds == 1) {
+                int singleId = arena.getInt(record + ACCESSIONS);
+                if (singleId == accessionId) {
+                    return;
+                }
+                block = allocateAccessionBlock(MIN_ACCESSION_CAPACITY);
+                arena.putInt(block + ACCESSION_IDS, singleId);
+                arena.putLong(record + ACCESSIONS, block);
+            } else {
+                block = arena.getLong(record + ACCESSIONS);
+                int capacity = arena.getInt(block);
+                if (nrIds == capacity) {
+                    int[] ids = readAccessionIds(block, nrIds);
+                    Arrays.sort(ids);
+                    nrIds = 1;
+                    for (int i = 1; i < ids.length; i++) {
+                        if (ids[nrIds - 1] != ids[i]) {
+                            ids[nrIds++] = ids[i];
+                        }
+                    }
+
+                    // grow only, if not enough duplicates were removed
+                    if (nrIds >= capacity - (capacity >> 2)) {
+                        block = allocateAccessionBlock(capacity * 2);
+                        arena.putLong(record + ACCESSIONS, block);
+                    }
+                    for (int i = 0; i < nrIds; i++) {
+                        arena.putInt(block + ACCESSION_IDS + 4L * i, ids[i]);
+                    }
+                    arena.putInt(record + NR_ACCESSIONS, nrIds);
+                }
+
+                if (arena.getInt(block + ACCESSION_IDS + 4L * (nrIds - 1)) == accessionId) {
+                    // the same protein most often adds its peptides consecutively
+                    return;
+                }
+            }
+
+            arena.putInt(block + ACCESSION_IDS + 4L * nrIds, accessionId);
+            arena.putInt(record + NR_ACCESSIONS, nrIds + 1);
+        }
+
+
+        /**
+         * Allocates an accession block with the given capacity
+         *
+         * @param capacity
+         * @return
+         */
+        private long allocateAccessionBlock(int capacity) {
+            // keep the following records aligned to 8 bytes
+            long bytes = (ACCESSION_IDS + 4L * capacity + 7) & ~7;
+            long block = (bytes <= arena.getPageSize()) ? arena.allocate((int) bytes) : arena.allocateLarge(bytes);
+            arena.putInt(block, capacity);
+            return block;
+        }
+
+
+        /**
+         * Reads the accession IDs of the block
+         *
+         * @param block
+         * @param nrIds
+         * @return
+         */
+        private int[] readAccessionIds(long block, int nrIds) {
+            int[] ids = new int[nrIds];
+            for (int i = 0; i < nrIds; i++) {
+                ids[i] = arena.getInt(block + ACCESSION_IDS + 4L * i);
+            }
+            return ids;
+        }
+
+
+        /**
+         * Reads a copy of the record at the given address. The accession IDs
+         * of a block are sorted and deduplicated in the copy.
+         *
+         * @param record
+         * @return
+         */
+        private PeptideRecord readRecord(long record) {
+            int nrIds = arena.getInt(record + NR_ACCESSIONS);
+            int occurrences = arena.getInt(record + OCCURRENCES);
+            if (nrIds <= 1) {
+                return PeptideRecord.ofSorted(new int[]{arena.getInt(record + ACCESSIONS)}, nrIds, occurrences);
+            }
+            return PeptideRecord.of(readAccessionIds(arena.getLong(record + ACCESSIONS), nrIds), nrIds, occurrences);
+        }
+
+
+        /**
+         * Reads the peptide sequence of the record at the given address
+         *
+         * @param record
+         * @return
+         */
+        private String readSequence(long record) {
+            byte[] sequence = new byte[arena.getInt(record + LENGTH)];
+            for (int i = 0; i < sequence.length; i++) {
+                sequence[i] = arena.getByte(record + SEQUENCE + i);
+            }
+            return new String(sequence, StandardCharsets.ISO_8859_1);
+        }
+
+
+        private void close() throws IOException {
+            arena.close();
+            tableArena.close();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.util.Arrays;
+
+
+/**
+ * A compact peptide key, which packs the residues A-Z with 5 bits each into
+ * longs. The first residues are stored in the most significant bits and unused
+ * bits are 0, while the residues are coded from 1 (A) to 26 (Z). So comparing
+ * the words as numbers compares the peptides like Strings, shorter peptides
+ * come before longer ones with the same prefix.
+ * <p>
+ * The first 12 residues are stored inline, only longer peptides need an
+ * additional array. Peptides containing any other character than A-Z are
+ * kept as a String, which is slower but compares and hashes consistently.
+ *
+ * @author julian
+ *
+ */
+public final class PackedPeptide implements CharSequence, Comparable<PackedPeptide> {
+
+    /** number of residues packed into one long */
+    private static final int RESIDUES_PER_WORD = 12;
+
+    /** bits per residue */
+    private static final int BITS_PER_RESIDUE = 5;
+
+    /** mask of one residue */
+    private static final int RESIDUE_MASK = (1 << BITS_PER_RESIDUE) - 1;
+
+    /** multiplier for mixing the hash code */
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /** the first residues */
+    private final long head;
+
+    /** the further residues, null if the peptide fits into the head */
+    private final long[] tail;
+
+    /** the sequence, if it could not be packed */
+    private final String unpacked;
+
+    /** the length of the peptide */
+    private final int length;
+
+    /** the precomputed hash code */
+    private final int hash;
+
+
+    private PackedPeptide(long head, long[] tail, String unpacked, int length) {
+        this.head = head;
+        this.tail = tail;
+        this.unpacked = unpacked;
+        this.length = length;
+
+        if (unpacked != null) {
+            this.hash = unpacked.hashCode() * (int) HASH_MULTIPLIER;
+        } else {
+            long h = head * HASH_MULTIPLIER;
+            if (tail != null) {
+                for (long word : tail) {
+                    h = (h + word) * HASH_MULTIPLIER;
+                }
+            }
+            h += length;
+            this.hash = (int) (h ^ (h >>> 32));
+        }
+    }
+
+
+    /**
+     * Packs the given peptide sequence
+     *
+     * @param peptide
+     * @return
+     */
+    public static PackedPeptide pack(CharSequence peptide) {
+        if (peptide instanceof PackedPeptide) {
+            return (PackedPeptide) peptide;
+        }
+
+        int length = peptide.length();
+        long[] tail = (length > RESIDUES_PER_WORD) ? new long[(length - 1) / RESIDUES_PER_WORD] : null;
+        long head = 0;
+
+        for (int i = 0; i < length; i++) {
+            char residue = peptide.charAt(i);
+            if ((residue < 'A') || (residue > 'Z')) {
+                return new PackedPeptide(0, null, peptide.toString(), length);
+            }
+
+            long code = (long) (residue - 'A' + 1) << shift(i);
+            int word = i / RESIDUES_PER_WORD;
+            if (word == 0) {
+                head |= code;
+            } else {
+                tail[word - 1] |= code;
+            }
+        }
+
+        return new PackedPeptide(head, tail, null, length);
+    }
+
+
+    /**
+     * Returns the bit shift of the residue at the given position in its word
+     *
+     * @param pos
+     * @return
+     */
+    private static int shift(int pos) {
+        return (RESIDUES_PER_WORD - 1 - (pos % RESIDUES_PER_WORD)) * BITS_PER_RESIDUE;
+    }
+
+
+    /**
+     * Returns the word with the given index, 0 is the head
+     *
+     * @param idx
+     * @return
+     */
+    private long word(int idx) {
+        return (idx == 0) ? head : tail[idx - 1];
+    }
+
+
+    /**
+     * Returns the number of used words
+     *
+     * @return
+     */
+    private int nrWords() {
+        return (tail != null) ? tail.length + 1 : 1;
+    }
+
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+
+    @Override
+    public char charAt(int index) {
+        if ((index < 0) || (index >= length)) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of peptide with length " + length);
+        }
+        if (unpacked != null) {
+            return unpacked.charAt(index);
+        }
+
+        int code = (int) (word(index / RESIDUES_PER_WORD) >>> shift(index)) & RESIDUE_MASK;
+        return (char) ('A' + code - 1);
+    }
+
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+
+    @Override
+    public String toString() {
+        if (unpacked != null) {
+            return unpacked;
+        }
+
+        char[] sequence = new char[length];
+        for (int i = 0; i < length; i++) {
+            sequence[i] = charAt(i);
+        }
+        return new String(sequence);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PackedPeptide)) {
+            return false;
+        }
+
+        PackedPeptide other = (PackedPeptide) obj;
+        if ((length != other.length) || (hash != other.hash) || (head != other.head)) {
+            return false;
+        }
+        if (unpacked != null) {
+            return unpacked.equals(other.unpacked);
+        }
+        return (other.unpacked == null) && Arrays.equals(tail, other.tail);
+    }
+
+
+    /**
+     * Checks whether the given sequence has the same residues as this
+     * peptide, without packing the sequence
+     *
+     * @param peptide
+     * @return
+     */
+    boolean contentEquals(CharSequence peptide) {
+        if (peptide.length() != length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            char residue = peptide.charAt(i);
+            if (unpacked != null) {
+                if (unpacked.charAt(i) != residue) {
+                    return false;
+                }
+            } else if ((residue < 'A') || (residue > 'Z')
+                    || (((word(i / RESIDUES_PER_WORD) >>> shift(i)) & RESIDUE_MASK) != residue - 'A' + 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Compares the peptides lexicographically like
+     * {@link String#compareTo(String)}
+     */
+    @Override
+    public int compareTo(PackedPeptide other) {
+        if ((unpacked != null) || (other.unpacked != null)) {
+            int minLength = Math.min(length, other.length);
+            for (int i = 0; i < minLength; i++) {
+                char c1 = charAt(i);
+                char c2 = other.charAt(i);
+                if (c1 != c2) {
+                    return c1 - c2;
+                }
+            }
+            return length - other.length;
+        }
+
+        int minWords = Math.min(nrWords(), other.nrWords());
+        for (int i = 0; i < minWords; i++) {
+            int cmp = Long.compare(word(i), other.word(i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - other.length;
+    }
+}
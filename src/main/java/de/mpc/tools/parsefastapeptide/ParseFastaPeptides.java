@@ -1,19 +1,13 @@
 package de.mpc.tools.parsefastapeptide;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 
 public class ParseFastaPeptides {
@@ -21,11 +15,11 @@ public class ParseFastaPeptides {
     /** the name of the fasta file */
     private String fastaFileName;
 
-    /** mapping from the peptide to the accessions */
-    private Map<String, Set<String>> peptideAccessionMap;
+    /** the peptides with their accessions and number of all occurrences (including double occurrences in one protein) */
+    private PeptideStore peptides;
 
-    /** mapping from the peptide to the number of all occurrences (including double occurrences in one protein) */
-    private Map<String, Integer> peptideAllOccurrences;
+    /** the IDs of the parsed accessions */
+    private AccessionDictionary accessions;
 
     /** the minimal length of an output peptide */
     private int minLength;
@@ -36,8 +30,20 @@ public class ParseFastaPeptides {
     /** the number of allowed missed cleavages */
     private int missedCleavages;
 
-    /** used protein digester(s) */
-    private ProteinDigester[] digester;
+    /** the protein digester, combining all enzymes */
+    private ProteinDigester digester;
+
+    /** number of threads used for parsing and digestion */
+    private int numberOfThreads;
+
+    /** the storage of the aggregated peptides */
+    private PeptideStorage storage;
+
+    /** directory for the temporary files of the storage, null for the default temporary directory */
+    private String storageDirectory;
+
+    /** the memory budget of the aggregation in bytes, when spilling to disk */
+    private long memoryBudget;
 
 
     public ParseFastaPeptides(String fileName) {
@@ -55,141 +61,218 @@ public class ParseFastaPeptides {
         this.minLength = minLength;
         this.maxLength = maxLength;
         this.missedCleavages = missedCleavages;
-
-        this.digester = new ProteinDigester[enzymeNames.length];
-        int c = 0;
-        for (String enzymeName : enzymeNames) {
-            Enzyme enzyme = Enzyme.valueOf(enzymeName);
-            // don't use max length restriction when digesting with multiple enzymes, these will be filtered after digestion
-            int max = (enzymeNames.length > 1) ? 0 : this.maxLength;
-            this.digester[c++] = new ProteinDigester(enzyme, this.minLength, max, this.missedCleavages);
+        this.numberOfThreads = 1;
+        this.storage = PeptideStorage.HEAP;
+        this.storageDirectory = null;
+        this.memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+
+        Enzyme[] enzymes = new Enzyme[enzymeNames.length];
+        for (int i = 0; i < enzymeNames.length; i++) {
+            enzymes[i] = Enzyme.valueOf(enzymeNames[i]);
         }
+        // multiple enzymes are combined, so the protein is digested only once
+        this.digester = new ProteinDigester(enzymes, this.minLength, this.maxLength, this.missedCleavages);
+    }
+
+
+    /**
+     * Setter for the number of threads used for parsing and digesting the
+     * FASTA file
+     *
+     * @param numberOfThreads
+     */
+    public void setNumberOfThreads(int numberOfThreads) {
+        this.numberOfThreads = Math.max(1, numberOfThreads);
+    }
+
+
+    /**
+     * Setter for the storage of the peptides during the aggregation. For very
+     * large digestions, the peptides can be stored outside of the Java heap.
+     *
+     * @param storage
+     */
+    public void setPeptideStorage(PeptideStorage storage) {
+        this.storage = storage;
+    }
+
+
+    /**
+     * Setter for the directory of the temporary files used by the storage.
+     * Defaults to the system's temporary directory.
+     *
+     * @param storageDirectory
+     */
+    public void setStorageDirectory(String storageDirectory) {
+        this.storageDirectory = storageDirectory;
+    }
+
+
+    /**
+     * Setter for the memory budget in bytes used for aggregating the peptides
+     * before they are spilled to disk. Only used for
+     * {@link PeptideStorage#SPILL_TO_DISK}, defaults to a quarter of the
+     * maximal heap size.
+     *
+     * @param memoryBudget
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+
+    /**
+     * Creates an empty peptide store of the set storage
+     *
+     * @param initialCapacity
+     * @return
+     * @throws IOException
+     */
+    private PeptideStore createPeptideStore(int initialCapacity) throws IOException {
+        File directory = new File((storageDirectory != null) ? storageDirectory : System.getProperty("java.io.tmpdir"));
+
+        switch (storage) {
+        case DIRECT_MEMORY:
+            return new OffHeapPeptideStore(accessions, null, initialCapacity);
 
-        if ((this.digester.length > 1) && (missedCleavages > 0)) {
-            System.err.println("WARNING: multiple enzymes and missedCleavages > 0 will not work correctly!");
+        case MAPPED_FILE:
+            return new OffHeapPeptideStore(accessions, directory, initialCapacity);
+
+        case SPILL_TO_DISK:
+            return new SpillingPeptideStore(accessions, directory, memoryBudget);
+
+        case HEAP:
+        default:
+            return new PeptideAggregator(accessions, Math.max(64, numberOfThreads * 16), initialCapacity);
         }
     }
 
 
     public void parseFastaFile() throws IOException, DigestException {
-        FileInputStream fileStream = new FileInputStream(fastaFileName);
-
-        DataInputStream in = new DataInputStream(fileStream);
-        BufferedReader br = new BufferedReader(new InputStreamReader(in));
-
-        peptideAccessionMap = new HashMap<String, Set<String>>(10000);
-        peptideAllOccurrences = new HashMap<String, Integer>(10000);
-
-        String strLine = null;
-        StringBuilder proteinSequence = null;
-        String accession = null;
-
-        // first round: digest with the first enzyme
-        System.out.println("digesting with " + digester[0].getEnzyme().toString());
-        while ((strLine = br.readLine()) != null) {
-            if (strLine.startsWith(">")) {
-                if ((accession != null) && (proteinSequence != null) && (proteinSequence.length() > 0)) {
-                    for (String peptide : digester[0].digest(proteinSequence.toString())) {
-                        Set<String> accSet = peptideAccessionMap.get(peptide);
-                        if (accSet == null) {
-                            accSet = new HashSet<String>();
-                            peptideAccessionMap.put(peptide, accSet);
-                            peptideAllOccurrences.put(peptide, 0);
-                        }
-                        accSet.add(accession);
-                        peptideAllOccurrences.put(peptide, peptideAllOccurrences.get(peptide) + 1);
-                    }
-                }
-
-                // start of a new protein
-                accession = strLine.split(" ", 2)[0].substring(1);
-
-                proteinSequence = new StringBuilder();
-            } else {
-                // just reading in the protein sequence
-                proteinSequence.append(strLine.trim());
-            }
+        accessions = new AccessionDictionary();
+        if (peptides != null) {
+            peptides.close();
         }
+        peptides = createPeptideStore(10000);
 
-        // digest the last protein
-        if ((accession != null) && (proteinSequence != null) && (proteinSequence.length() > 0)) {
-            for (String peptide : digester[0].digest(proteinSequence.toString())) {
-                Set<String> accSet = peptideAccessionMap.get(peptide);
-                if (accSet == null) {
-                    accSet = new HashSet<String>();
-                    peptideAccessionMap.put(peptide, accSet);
-                    peptideAllOccurrences.put(peptide, 0);
-                }
-                accSet.add(accession);
-                peptideAllOccurrences.put(peptide, peptideAllOccurrences.get(peptide) + 1);
-            }
-        }
+        String enzymeNames = Arrays.stream(digester.getEnzymes()).map(Enzyme::toString).collect(Collectors.joining(", "));
+        System.out.println("digesting with " + enzymeNames);
+        new FastaFileReader(fastaFileName).read(
+                (header, proteinSequence) -> addProteinPeptides(header.split(" ", 2)[0], proteinSequence),
+                numberOfThreads);
 
-        br.close();
-        System.out.println("digestion with " + digester[0].getEnzyme().toString() + " done, " + peptideAccessionMap.size() + " peptides");
-
-        // digest with further enzymes, if any are given
-        for (int i=1; i < digester.length; i++) {
-            Map<String, Set<String>> roundPeptideAccessionMap = new HashMap<String, Set<String>>(peptideAccessionMap.size());
-
-            System.out.println("digesting with " + digester[i].getEnzyme().toString());
-            int pepCount = 0;
-            for (Map.Entry<String, Set<String>> peptideIt : peptideAccessionMap.entrySet()) {
-                for (String peptide : digester[i].digest(peptideIt.getKey())) {
-                    Set<String> accSet = roundPeptideAccessionMap.get(peptide);
-                    if (accSet == null) {
-                        accSet = new HashSet<String>();
-                        roundPeptideAccessionMap.put(peptide, accSet);
-                    }
-                    accSet.addAll(peptideIt.getValue());
-
-                    if (!peptideAllOccurrences.containsKey(peptide)) {
-                        peptideAllOccurrences.put(peptide, 0);
-                    }
-
-                    peptideAllOccurrences.put(peptide, peptideAllOccurrences.get(peptide) + peptideIt.getValue().size());
-                }
-
-                // reset the counts (even uncut peptides are counted again later)
-                peptideAllOccurrences.put(peptideIt.getKey(), peptideAllOccurrences.get(peptideIt.getKey()) - peptideIt.getValue().size());
-
-                pepCount++;
-                if (pepCount % 500000 == 0) {
-                    System.out.println("\t" + pepCount + " peptides digested with " + digester[i].getEnzyme().toString());
-                }
-            }
+        System.out.println("digestion with " + enzymeNames + " done, " + peptides.size() + " peptides");
+    }
 
-            peptideAccessionMap = roundPeptideAccessionMap;
-            System.out.println("digestion with " + digester[i].getEnzyme().toString() + " done, " + peptideAccessionMap.size() + " peptides");
-        }
 
-        if ((digester.length > 1) && (maxLength > 0)) {
-            System.out.println("removing peptides longer than " + maxLength);
-            // filter out the long peptides, if more than one enzyme was used
-            Iterator<Map.Entry<String, Set<String>>> mapIt = peptideAccessionMap.entrySet().iterator();
-            int remCount = 0;
-            while (mapIt.hasNext()) {
-                Map.Entry<String, Set<String>> entry = mapIt.next();
+    /**
+     * Digests the given protein and adds its peptides to the aggregator. Only
+     * peptides, which are not yet aggregated, are copied out of the protein.
+     * This is called concurrently, if more than one thread is used.
+     *
+     * @param accession
+     * @param proteinSequence
+     * @throws DigestException
+     */
+    private void addProteinPeptides(String accession, CharSequence proteinSequence) throws DigestException {
+        int accessionId = accessions.getId(accession);
+        digester.digest(proteinSequence, peptide -> peptides.addPeptide(peptide, accessionId));
+    }
 
-                if (entry.getKey().length() > maxLength) {
-                    mapIt.remove();
-                    remCount++;
 
-                    peptideAllOccurrences.remove(entry.getKey());
-                }
-            }
-            System.out.println("removed " + remCount + " peptides, " + peptideAccessionMap.size() + " remaining");
+    /**
+     * Returns the mapping from the peptides to their accessions. The returned
+     * map is a read-only view on the parsed peptides.
+     *
+     * @return
+     * @throws IllegalStateException if the peptides were spilled to disk and
+     *         can only be read sequentially by {@link #getPeptideStore()}
+     */
+    public Map<String, Set<String>> getPeptideAccessionMap() {
+        return getLookupStore().getAccessionMapView();
+    }
+
+
+    /**
+     * Returns the store of the parsed peptides, which can be read
+     * sequentially with any storage.
+     *
+     * @return
+     */
+    public PeptideStore getPeptideStore() {
+        return peptides;
+    }
+
+
+    /**
+     * Returns the store of the parsed peptides for lookups of single
+     * peptides, which are supported by all storages but
+     * {@link PeptideStorage#SPILL_TO_DISK}.
+     *
+     * @return the store or null, if the peptides can only be read sequentially
+     */
+    public RandomAccessPeptideStore getRandomAccessPeptideStore() {
+        return (peptides instanceof RandomAccessPeptideStore) ? (RandomAccessPeptideStore) peptides : null;
+    }
+
+
+    /**
+     * Returns the store of the parsed peptides for lookups of single peptides
+     *
+     * @return
+     * @throws IllegalStateException if the storage supports no lookups
+     */
+    private RandomAccessPeptideStore getLookupStore() {
+        RandomAccessPeptideStore store = getRandomAccessPeptideStore();
+        if (store == null) {
+            throw new IllegalStateException("Lookups of single peptides are not supported with the peptide storage "
+                    + storage + ", read the peptides sequentially from getPeptideStore()");
         }
+        return store;
     }
 
 
-    public Map<String, Set<String>> getPeptideAccessionMap() {
-        return peptideAccessionMap;
+    /**
+     * Writes the parsed peptides into a binary index, which can be read with
+     * {@link PeptideIndex}.
+     *
+     * @param fileName
+     * @throws IOException
+     */
+    public void writePeptideIndex(String fileName) throws IOException {
+        PeptideIndexWriter.write(peptides, fileName);
     }
 
 
-    public Integer getPeptideAllOccurences(String peptide) {
-        return peptideAllOccurrences.get(peptide);
+    /**
+     * Adds the ions of the parsed peptides to the ion index writer. The
+     * peptide IDs are the indices in the peptide index written by
+     * {@link #writePeptideIndex(String)}.
+     *
+     * @param writer
+     * @throws IOException
+     */
+    public void writeIonIndex(IonIndexWriter writer) throws IOException {
+        Iterator<Map.Entry<PackedPeptide, PeptideRecord>> peptideIt = peptides.sortedIterator();
+        int peptideId = 0;
+        while (peptideIt.hasNext()) {
+            writer.add(peptideId++, peptideIt.next().getKey());
+        }
+    }
+
+
+    /**
+     * Returns the number of all occurrences of the peptide. Only available, if
+     * the peptides were not spilled to disk.
+     *
+     * @param peptide
+     * @return the occurrences or null, if the peptide was not parsed
+     * @throws IllegalStateException if the peptides were spilled to disk and
+     *         can only be read sequentially by {@link #getPeptideStore()}
+     */
+    public Integer getPeptideAllOccurences(CharSequence peptide) {
+        PeptideRecord record = getLookupStore().get(peptide);
+        return (record != null) ? record.getOccurrences() : null;
     }
 
 
@@ -212,78 +295,41 @@ public class ParseFastaPeptides {
         String outFileName = "/mnt/data/uni/lehre/2018SS-Vorlesung_Tutorial/tutorial01/NUPR1.protein.fasta.digested.0_missed.txt";
         boolean split = false;
         int splitlength = 1000000;
+        boolean sorted = false;
+        boolean gzip = false;
+        boolean writeIndex = false;
+        boolean writeIonIndex = false;
 
         parser.parseFastaFile();
 
-        System.out.println("Start writing results to file...");
-        FileOutputStream fileStream = new FileOutputStream(outFileName);
-        DataOutputStream out = new DataOutputStream(fileStream);
-        BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out));
-
-        String headerline = "peptide\tpeptideLength\t#accessions\t#occurrences\taccessions";
-        bw.append(headerline);
-        bw.newLine();
-
-        StringBuilder line = null;
-
-        int splitfile = 1;
-        int splitLineCount = 0;
-        BufferedWriter splitBW = null;
-        if (split && (parser.getPeptideAccessionMap().size() > splitlength)) {
-            FileOutputStream splitFileStream = new FileOutputStream(outFileName + ".split" + splitfile);
-            DataOutputStream splitStream = new DataOutputStream(splitFileStream);
-            splitBW = new BufferedWriter(new OutputStreamWriter(splitStream));
-
-            splitBW.append(headerline);
-            splitBW.newLine();
+        if (writeIndex) {
+            System.out.println("Start writing peptide index...");
+            parser.writePeptideIndex(outFileName + ".pepidx");
+            System.out.println("Peptide index written.");
         }
 
-        for (Map.Entry<String, Set<String>> mapIt : parser.getPeptideAccessionMap().entrySet()) {
-            line = new StringBuilder();
-
-            line.append(mapIt.getKey());
-            line.append('\t');
-            line.append(mapIt.getKey().length());
-            line.append('\t');
-            line.append(mapIt.getValue().size());
-            line.append('\t');
-            line.append(parser.getPeptideAllOccurences(mapIt.getKey()));
-            line.append('\t');
-            int nrAccs = 0;
-            for (String acc : mapIt.getValue()) {
-                if (nrAccs++ > 0) {
-                    line.append(',');
-                }
-                line.append(acc);
-            }
-
-            bw.append(line);
-            bw.newLine();
-
-            if (splitBW != null) {
-                splitLineCount++;
-                if (splitLineCount % splitlength == 0) {
-                    splitBW.close();
-
-                    splitfile++;
-                    FileOutputStream splitFileStream = new FileOutputStream(outFileName + ".split" + splitfile);
-                    DataOutputStream splitStream = new DataOutputStream(splitFileStream);
-                    splitBW = new BufferedWriter(new OutputStreamWriter(splitStream));
-
-                    splitBW.append(headerline);
-                    splitBW.newLine();
-                }
-
-                splitBW.append(line);
-                splitBW.newLine();
+        if (writeIonIndex) {
+            System.out.println("Start writing ion index...");
+            Map<Character, Double> fixedModifications = new HashMap<>();
+            fixedModifications.put('C', 57.021464);
+            Map<Character, Double> variableModifications = new HashMap<>();
+            variableModifications.put('M', 15.994915);
+            try (IonIndexWriter ionWriter = new IonIndexWriter(outFileName + ".ionidx",
+                    fixedModifications, variableModifications)) {
+                parser.writeIonIndex(ionWriter);
             }
+            System.out.println("Ion index written.");
         }
 
-        bw.close();
-
-        if (splitBW != null) {
-            splitBW.close();
+        System.out.println("Start writing results to file...");
+        PeptideTsvWriter writer = new PeptideTsvWriter();
+        writer.setNumberOfThreads(Runtime.getRuntime().availableProcessors());
+        writer.setSorted(sorted);
+        writer.setGzip(gzip);
+        if (split) {
+            writer.setSplitLength(splitlength);
         }
+        writer.write(parser.getPeptideStore(), outFileName);
 
         System.out.println("Results written to file.");
     }
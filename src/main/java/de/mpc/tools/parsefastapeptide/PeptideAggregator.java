@@ -0,0 +1,171 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Aggregates the peptides of a digestion with their accessions and number of
+ * occurrences on the Java heap. The peptides are distributed by their hash
+ * code over shards, each with its own lock, so the peptides can be added
+ * concurrently by several threads with little contention. The accessions are
+ * stored as IDs of an {@link AccessionDictionary} and only resolved in the
+ * views.
+ * <p>
+ * The reading methods are not synchronized and should only be called after all
+ * peptides were added.
+ *
+ * @author julian
+ *
+ */
+public class PeptideAggregator implements RandomAccessPeptideStore {
+
+    /** the default number of shards */
+    private static final int DEFAULT_SHARDS = 64;
+
+    /** the shards, each shard is locked on itself */
+    private final PeptideTable[] shards;
+
+    /** the dictionary of the accession IDs */
+    private final AccessionDictionary accessions;
+
+
+    public PeptideAggregator(AccessionDictionary accessions) {
+        this(accessions, DEFAULT_SHARDS, 10000);
+    }
+
+
+    /**
+     * Creates an aggregator with (at least) the given number of shards
+     *
+     * @param accessions the dictionary of the accession IDs
+     * @param nrShards will be rounded up to a power of two
+     * @param initialCapacity the expected number of peptides
+     */
+    public PeptideAggregator(AccessionDictionary accessions, int nrShards, int initialCapacity) {
+        this.accessions = accessions;
+
+        int bits = 0;
+        while ((1 << bits) < nrShards) {
+            bits++;
+        }
+
+        this.shards = new PeptideTable[1 << bits];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new PeptideTable(initialCapacity / shards.length);
+        }
+    }
+
+
+    /**
+     * Getter for the dictionary of the accession IDs
+     *
+     * @return
+     */
+    @Override
+    public AccessionDictionary getAccessionDictionary() {
+        return accessions;
+    }
+
+
+    /**
+     * Returns the shard for the given peptide
+     *
+     * @param peptide
+     * @return
+     */
+    private PeptideTable getShard(PeptideSpan peptide) {
+        // the tables spread the hash into their upper bits, so use the (folded) lower bits like a HashMap
+        int hash = peptide.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+    }
+
+
+    /**
+     * Adds one occurrence of the peptide in the protein with the given
+     * accession ID.
+     *
+     * @param peptide
+     * @param accessionId
+     */
+    @Override
+    public void addPeptide(PeptideSpan peptide, int accessionId) {
+        PeptideTable shard = getShard(peptide);
+        synchronized (shard) {
+            shard.getOrCreate(peptide).addOccurrence(accessionId);
+        }
+    }
+
+
+    /**
+     * Returns the record of the given peptide
+     *
+     * @param peptide
+     * @return the record or null, if the peptide is not in the aggregator
+     */
+    @Override
+    public PeptideRecord get(CharSequence peptide) {
+        PeptideSpan span = PeptideSpan.of(peptide);
+        return getShard(span).get(span);
+    }
+
+
+    /**
+     * Returns the number of aggregated peptides
+     *
+     * @return
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (PeptideTable shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+
+    @Override
+    public Iterator<Map.Entry<PackedPeptide, PeptideRecord>> iterator() {
+        return new EntryIterator();
+    }
+
+
+    @Override
+    public void close() {
+        for (PeptideTable shard : shards) {
+            shard.clear();
+        }
+    }
+
+
+    /**
+     * Iterates over the entries of all shards.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<PackedPeptide, PeptideRecord>> {
+
+        private int shardIdx = 0;
+
+        private Iterator<Map.Entry<PackedPeptide, PeptideRecord>> shardIt = shards[0].iterator();
+
+
+        @Override
+        public boolean hasNext() {
+            while (!shardIt.hasNext() && (shardIdx + 1 < shards.length)) {
+                shardIdx++;
+                shardIt = shards[shardIdx].iterator();
+            }
+            return shardIt.hasNext();
+        }
+
+
+        @Override
+        public Map.Entry<PackedPeptide, PeptideRecord> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return shardIt.next();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Reads a binary peptide index written by {@link PeptideIndexWriter}. The file
+ * is mapped into memory and the peptides are found by a binary search, so
+ * nothing but the header is read on opening the index.
+ *
+ * @author julian
+ *
+ */
+public class PeptideIndex implements Closeable {
+
+    /** the mapped index file */
+    private final MappedFile file;
+
+    /** number of peptides */
+    private final int nrPeptides;
+
+    /** number of accessions */
+    private final int nrAccessions;
+
+    /** position of the peptide offsets */
+    private final long offsetsPos;
+
+    /** position of the data section */
+    private final long dataPos;
+
+    /** position of the accession offsets */
+    private final long accessionOffsetsPos;
+
+    /** position of the accession data */
+    private final long accessionDataPos;
+
+
+    public PeptideIndex(String fileName) throws IOException {
+        this.file = new MappedFile(new File(fileName));
+
+        if ((file.size() < PeptideIndexWriter.HEADER_SIZE) || (file.getInt(0) != PeptideIndexWriter.MAGIC)) {
+            throw new IOException(fileName + " is no peptide index");
+        }
+        if (file.getInt(4) != PeptideIndexWriter.VERSION) {
+            throw new IOException("Unsupported version " + file.getInt(4) + " of peptide index " + fileName);
+        }
+
+        this.nrPeptides = (int) file.getLong(8);
+        this.nrAccessions = (int) file.getLong(16);
+        this.offsetsPos = file.getLong(24);
+        this.dataPos = file.getLong(32);
+        this.accessionOffsetsPos = file.getLong(40);
+        this.accessionDataPos = file.getLong(48);
+    }
+
+
+    /**
+     * Returns the number of peptides in the index
+     *
+     * @return
+     */
+    public int size() {
+        return nrPeptides;
+    }
+
+
+    /**
+     * Returns the number of accessions in the index
+     *
+     * @return
+     */
+    public int getNrAccessions() {
+        return nrAccessions;
+    }
+
+
+    /**
+     * Returns the position of the record with the given index
+     *
+     * @param index
+     * @return
+     */
+    private long recordPosition(int index) {
+        return dataPos + file.getLong(offsetsPos + 8L * index);
+    }
+
+
+    /**
+     * Returns the index of the given peptide, found by binary search
+     *
+     * @param peptide
+     * @return the index or (-(insertion point) - 1), if the peptide is not in
+     * the index
+     */
+    public int indexOf(CharSequence peptide) {
+        int low = 0;
+        int high = nrPeptides - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareAt(mid, peptide);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+
+    /**
+     * Compares the peptide with the given index to the given peptide like
+     * Strings are compared
+     *
+     * @param index
+     * @param peptide
+     * @return
+     */
+    private int compareAt(int index, CharSequence peptide) {
+        long[] position = {recordPosition(index)};
+        int length = readVarInt(position);
+
+        int minLength = Math.min(length, peptide.length());
+        for (int i = 0; i < minLength; i++) {
+            char c1 = (char) (file.getByte(position[0] + i) & 0xFF);
+            char c2 = peptide.charAt(i);
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return length - peptide.length();
+    }
+
+
+    /**
+     * Returns the peptide with the given index
+     *
+     * @param index
+     * @return
+     */
+    public String getPeptide(int index) {
+        checkIndex(index);
+        long[] position = {recordPosition(index)};
+        byte[] sequence = new byte[readVarInt(position)];
+        for (int i = 0; i < sequence.length; i++) {
+            sequence[i] = file.getByte(position[0] + i);
+        }
+        return new String(sequence, StandardCharsets.ISO_8859_1);
+    }
+
+
+    /**
+     * Returns the record of the peptide with the given index
+     *
+     * @param index
+     * @return
+     */
+    public PeptideRecord getRecord(int index) {
+        checkIndex(index);
+        long[] position = {recordPosition(index)};
+        int length = readVarInt(position);
+        position[0] += length;
+
+        int occurrences = readVarInt(position);
+        int[] ids = new int[readVarInt(position)];
+        int lastId = 0;
+        for (int i = 0; i < ids.length; i++) {
+            lastId += readVarInt(position);
+            ids[i] = lastId;
+        }
+        return PeptideRecord.ofSorted(ids, ids.length, occurrences);
+    }
+
+
+    /**
+     * Returns the record of the given peptide
+     *
+     * @param peptide
+     * @return the record or null, if the peptide is not in the index
+     */
+    public PeptideRecord get(CharSequence peptide) {
+        int index = indexOf(peptide);
+        return (index >= 0) ? getRecord(index) : null;
+    }
+
+
+    /**
+     * Returns the accessions of the proteins containing the given peptide
+     *
+     * @param peptide
+     * @return the sorted accessions or null, if the peptide is not in the
+     * index
+     */
+    public List<String> getAccessions(CharSequence peptide) {
+        PeptideRecord record = get(peptide);
+        if (record == null) {
+            return null;
+        }
+
+        List<String> peptideAccessions = new ArrayList<>(record.getNrAccessions());
+        for (int i = 0; i < record.getNrAccessions(); i++) {
+            peptideAccessions.add(getAccession(record.getAccessionId(i)));
+        }
+        return peptideAccessions;
+    }
+
+
+    /**
+     * Returns the accession with the given ID
+     *
+     * @param accessionId
+     * @return
+     */
+    public String getAccession(int accessionId) {
+        if ((accessionId < 0) || (accessionId >= nrAccessions)) {
+            throw new IndexOutOfBoundsException("Accession ID " + accessionId + " for " + nrAccessions + " accessions");
+        }
+
+        long start = file.getLong(accessionOffsetsPos + 8L * accessionId);
+        byte[] accession = new byte[(int) (file.getLong(accessionOffsetsPos + 8L * (accessionId + 1)) - start)];
+        for (int i = 0; i < accession.length; i++) {
+            accession[i] = file.getByte(accessionDataPos + start + i);
+        }
+        return new String(accession, StandardCharsets.UTF_8);
+    }
+
+
+    private void checkIndex(int index) {
+        if ((index < 0) || (index >= nrPeptides)) {
+            throw new IndexOutOfBoundsException("Index " + index + " for " + nrPeptides + " peptides");
+        }
+    }
+
+
+    /**
+     * Reads a variable length integer at the given position and advances the
+     * position
+     *
+     * @param position the position, is advanced
+     * @return
+     */
+    private int readVarInt(long[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = file.getByte(position[0]++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+
+    @Override
+    public void close() {
+        file.close();
+    }
+}
@@ -0,0 +1,273 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+
+
+/**
+ * Writes the binary peptide index, which is read by {@link PeptideIndex}. The
+ * peptides must be added sorted by their sequence and their number must be
+ * known in advance.
+ * <p>
+ * The index consists of
+ * <ul>
+ * <li>the header: magic number, version, number of peptides and accessions and
+ * the positions of the sections</li>
+ * <li>the offsets of the peptide records in the data section (nrPeptides + 1
+ * longs)</li>
+ * <li>the data section with the sorted peptide records: the length and bytes
+ * of the sequence, the number of occurrences, the number of accessions and
+ * the accession IDs as differences to the previous ID, all numbers as
+ * variable length integers</li>
+ * <li>the offsets of the accessions (nrAccessions + 1 longs)</li>
+ * <li>the UTF-8 encoded accessions</li>
+ * </ul>
+ * All fixed size numbers are written big-endian.
+ *
+ * @author julian
+ *
+ */
+public class PeptideIndexWriter implements Closeable {
+
+    /** magic number of the index files ("PEPX") */
+    static final int MAGIC = 0x50455058;
+
+    /** the version of the format */
+    static final int VERSION = 1;
+
+    /** the size of the header */
+    static final int HEADER_SIZE = 64;
+
+    /** number of offsets, which are buffered before they are written */
+    private static final int OFFSET_BUFFER_SIZE = 8192;
+
+    /** the written file */
+    private final RandomAccessFile file;
+
+    /** the channel of the file */
+    private final FileChannel channel;
+
+    /** the dictionary of the accessions, written at the end */
+    private final AccessionDictionary accessions;
+
+    /** the number of peptides to write */
+    private final long nrPeptides;
+
+    /** position of the peptide offsets */
+    private final long offsetsPos;
+
+    /** position of the data section */
+    private final long dataPos;
+
+    /** stream writing the data section */
+    private final OutputStream data;
+
+    /** number of bytes written to the data section */
+    private long dataSize;
+
+    /** the buffered offsets */
+    private final ByteBuffer offsetBuffer;
+
+    /** number of offsets flushed to the file */
+    private long flushedOffsets;
+
+    /** number of added peptides */
+    private long addedPeptides;
+
+    /** the last added peptide */
+    private PackedPeptide lastPeptide;
+
+
+    /**
+     * Creates a writer of an index with the given number of peptides
+     *
+     * @param fileName
+     * @param accessions the dictionary of the accession IDs in the records
+     * @param nrPeptides
+     * @throws IOException
+     */
+    public PeptideIndexWriter(String fileName, AccessionDictionary accessions, long nrPeptides) throws IOException {
+        this.file = new RandomAccessFile(fileName, "rw");
+        this.file.setLength(0);
+        this.channel = file.getChannel();
+        this.accessions = accessions;
+        this.nrPeptides = nrPeptides;
+
+        this.offsetsPos = HEADER_SIZE;
+        this.dataPos = offsetsPos + 8 * (nrPeptides + 1);
+        channel.position(dataPos);
+        this.data = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+        this.dataSize = 0;
+
+        this.offsetBuffer = ByteBuffer.allocate(8 * OFFSET_BUFFER_SIZE);
+        this.flushedOffsets = 0;
+        this.addedPeptides = 0;
+        this.lastPeptide = null;
+    }
+
+
+    /**
+     * Writes the given store into an index file
+     *
+     * @param store
+     * @param fileName
+     * @throws IOException
+     */
+    public static void write(PeptideStore store, String fileName) throws IOException {
+        try (PeptideIndexWriter writer = new PeptideIndexWriter(fileName, store.getAccessionDictionary(), store.size())) {
+            Iterator<Map.Entry<PackedPeptide, PeptideRecord>> peptideIt = store.sortedIterator();
+            while (peptideIt.hasNext()) {
+                Map.Entry<PackedPeptide, PeptideRecord> entry = peptideIt.next();
+                writer.add(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+
+    /**
+     * Adds the next peptide, which must be greater than the last added one
+     *
+     * @param peptide
+     * @param record
+     * @throws IOException
+     */
+    public void add(CharSequence peptide, PeptideRecord record) throws IOException {
+        PackedPeptide packed = PackedPeptide.pack(peptide);
+        if ((lastPeptide != null) && (lastPeptide.compareTo(packed) >= 0)) {
+            throw new IllegalArgumentException("Peptides not added in sorted order: " + lastPeptide + ", " + peptide);
+        }
+        if (addedPeptides == nrPeptides) {
+            throw new IllegalStateException("More than the expected " + nrPeptides + " peptides added");
+        }
+
+        addOffset(dataSize);
+
+        int length = peptide.length();
+        writeVarInt(length);
+        for (int i = 0; i < length; i++) {
+            data.write(peptide.charAt(i));
+        }
+        dataSize += length;
+
+        writeVarInt(record.getOccurrences());
+        writeVarInt(record.getNrAccessions());
+        int lastId = 0;
+        for (int i = 0; i < record.getNrAccessions(); i++) {
+            int id = record.getAccessionId(i);
+            writeVarInt(id - lastId);
+            lastId = id;
+        }
+
+        lastPeptide = packed;
+        addedPeptides++;
+    }
+
+
+    /**
+     * Writes a non-negative integer with 7 bits per byte, the highest bit
+     * marks further bytes
+     *
+     * @param value
+     * @throws IOException
+     */
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            data.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+            dataSize++;
+        }
+        data.write(value);
+        dataSize++;
+    }
+
+
+    /**
+     * Buffers the offset of the next record
+     *
+     * @param offset
+     * @throws IOException
+     */
+    private void addOffset(long offset) throws IOException {
+        offsetBuffer.putLong(offset);
+        if (!offsetBuffer.hasRemaining()) {
+            flushOffsets();
+        }
+    }
+
+
+    private void flushOffsets() throws IOException {
+        offsetBuffer.flip();
+        int nrOffsets = offsetBuffer.remaining() / 8;
+        long position = offsetsPos + 8 * flushedOffsets;
+        while (offsetBuffer.hasRemaining()) {
+            position += channel.write(offsetBuffer, position);
+        }
+        flushedOffsets += nrOffsets;
+        offsetBuffer.clear();
+    }
+
+
+    /**
+     * Writes the accessions and the header and closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (addedPeptides != nrPeptides) {
+                throw new IllegalStateException("Only " + addedPeptides + " of " + nrPeptides + " peptides added");
+            }
+
+            addOffset(dataSize);
+            flushOffsets();
+
+            // the accession dictionary follows the data
+            int nrAccessions = accessions.size();
+            long accessionOffsetsPos = dataPos + dataSize;
+            long accessionDataPos = accessionOffsetsPos + 8L * (nrAccessions + 1);
+
+            byte[][] encoded = new byte[nrAccessions][];
+            long accessionOffset = 0;
+            for (int id = 0; id < nrAccessions; id++) {
+                encoded[id] = accessions.getAccession(id).getBytes(StandardCharsets.UTF_8);
+                writeLong(accessionOffset);
+                accessionOffset += encoded[id].length;
+            }
+            writeLong(accessionOffset);
+            for (byte[] accession : encoded) {
+                data.write(accession);
+            }
+            data.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(nrPeptides);
+            header.putLong(nrAccessions);
+            header.putLong(offsetsPos);
+            header.putLong(dataPos);
+            header.putLong(accessionOffsetsPos);
+            header.putLong(accessionDataPos);
+            header.flip();
+            channel.write(header, 0);
+        } finally {
+            file.close();
+        }
+    }
+
+
+    private void writeLong(long value) throws IOException {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            data.write((int) (value >>> shift));
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import uk.ac.ebi.pride.utilities.mol.MoleculeUtilities;
+import uk.ac.ebi.pride.utilities.mol.NeutralLoss;
+import uk.ac.ebi.pride.utilities.mol.NuclearParticle;
+
+
+/**
+ * Calculates the masses of peptides and their modified forms without
+ * allocations. The residue masses and the mass shifts of the modifications are
+ * kept in primitive tables indexed by the residue's character.
+ * <p>
+ * After setting a peptide with {@link #setPeptide(CharSequence)}, its
+ * unmodified mass, the sum of the fixed modifications and the sites of the
+ * variable modifications are known. A combination of variable modifications
+ * is given as a bitmask over the sites, bit i set means the i-th site (from
+ * the N-terminus) is modified. The encoded modification Strings are only
+ * created on request.
+ * <p>
+ * The calculator holds the state of the current peptide and is not
+ * thread-safe, each thread should use its own instance.
+ *
+ * @author julian
+ *
+ */
+public class PeptideMassCalculator {
+
+    /** the monoisotopic masses of the amino acid residues, NaN for other characters */
+    private static final double[] RESIDUE_MASSES = createResidueMasses();
+
+    /** the mass of water, which is added to the residues of a peptide */
+    private static final double WATER_MASS = NeutralLoss.WATER_LOSS.getMonoMass();
+
+    /** the mass of a proton */
+    private static final double PROTON_MASS = NuclearParticle.PROTON.getMonoMass();
+
+    /** the maximal number of variable modification sites, which fit into the bitmask */
+    public static final int MAX_VARIABLE_SITES = 63;
+
+    /** the mass shifts of the fixed modifications, 0 for none */
+    private final double[] fixedShifts;
+
+    /** the mass shifts of the variable modifications, 0 for none */
+    private final double[] variableShifts;
+
+    /** the encoded fixed modifications of the residues, e.g. "C[57.021464]" */
+    private final String[] fixedEncodings;
+
+    /** the encoded variable modifications of the residues without the position, e.g. "15.994915" */
+    private final String[] variableEncodings;
+
+    /** the current peptide */
+    private CharSequence peptide;
+
+    /** the unmodified mass of the current peptide */
+    private double mass;
+
+    /** the mass shift of all fixed modifications of the current peptide */
+    private double fixedShift;
+
+    /** bitmask of the residues with fixed modifications in the current peptide */
+    private long fixedResidues;
+
+    /** positions of the variable modification sites in the current peptide */
+    private int[] variableSites;
+
+    /** number of variable modification sites in the current peptide */
+    private int nrVariableSites;
+
+
+    /**
+     * Creates a calculator for the given modifications
+     *
+     * @param fixedModifications mapping from the residues to the mass shifts
+     * @param variableModifications mapping from the residues to the mass shifts
+     */
+    public PeptideMassCalculator(Map<Character, Double> fixedModifications, Map<Character, Double> variableModifications) {
+        this.fixedShifts = new double[128];
+        this.variableShifts = new double[128];
+        this.fixedEncodings = new String[128];
+        this.variableEncodings = new String[128];
+
+        for (Map.Entry<Character, Double> modification : fixedModifications.entrySet()) {
+            char residue = checkResidue(modification.getKey());
+            fixedShifts[residue] = modification.getValue();
+            fixedEncodings[residue] = residue + "[" + modification.getValue() + "]";
+        }
+        for (Map.Entry<Character, Double> modification : variableModifications.entrySet()) {
+            char residue = checkResidue(modification.getKey());
+            variableShifts[residue] = modification.getValue();
+            variableEncodings[residue] = "[" + modification.getValue() + "]";
+        }
+
+        this.variableSites = new int[16];
+        this.peptide = "";
+    }
+
+
+    /**
+     * Creates the table of the residue masses
+     *
+     * @return
+     */
+    private static double[] createResidueMasses() {
+        double[] masses = new double[128];
+        Arrays.fill(masses, Double.NaN);
+        for (char residue = 'A'; residue <= 'Z'; residue++) {
+            String sequence = String.valueOf(residue);
+            if (MoleculeUtilities.isAminoAcidSequence(sequence)) {
+                masses[residue] = MoleculeUtilities.calculateTheoreticalMass(sequence);
+            }
+        }
+        return masses;
+    }
+
+
+    /**
+     * Checks that the residue can be modified
+     *
+     * @param residue
+     * @return
+     */
+    private static char checkResidue(char residue) {
+        if ((residue >= RESIDUE_MASSES.length) || Double.isNaN(RESIDUE_MASSES[residue])) {
+            throw new IllegalArgumentException("Modification of unknown residue " + residue);
+        }
+        return residue;
+    }
+
+
+    /**
+     * Returns the monoisotopic mass of the residue
+     *
+     * @param residue
+     * @return the mass or NaN, if the character is no amino acid
+     */
+    public static double getResidueMass(char residue) {
+        return (residue < RESIDUE_MASSES.length) ? RESIDUE_MASSES[residue] : Double.NaN;
+    }
+
+
+    /**
+     * Checks whether the sequence consists only of amino acids, like
+     * {@link MoleculeUtilities#isAminoAcidSequence(String)} but without
+     * copying the sequence into a String.
+     *
+     * @param sequence
+     * @return
+     */
+    public static boolean isAminoAcidSequence(CharSequence sequence) {
+        for (int pos = 0; pos < sequence.length(); pos++) {
+            if (Double.isNaN(getResidueMass(sequence.charAt(pos)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Calculates the m/z of an ion with the given mass and charge
+     *
+     * @param mass
+     * @param charge
+     * @return
+     */
+    public static double calculateMassToCharge(double mass, int charge) {
+        return (mass + charge * PROTON_MASS) / charge;
+    }
+
+
+    /**
+     * Sets the current peptide and calculates its unmodified mass, the fixed
+     * modifications and the sites of the variable modifications in one pass.
+     *
+     * @param peptide
+     * @throws IllegalArgumentException if the peptide contains characters,
+     * which are no amino acids, or too many variable modification sites
+     */
+    public void setPeptide(CharSequence peptide) {
+        double residueMass = 0;
+        double shift = 0;
+        long fixed = 0;
+        int nrSites = 0;
+
+        for (int pos = 0; pos < peptide.length(); pos++) {
+            char residue = peptide.charAt(pos);
+            double residueMassAt = getResidueMass(residue);
+            if (Double.isNaN(residueMassAt)) {
+                throw new IllegalArgumentException("Unknown residue " + residue + " in peptide " + peptide);
+            }
+            residueMass += residueMassAt;
+
+            if (fixedShifts[residue] != 0) {
+                shift += fixedShifts[residue];
+                fixed |= 1L << (residue - 'A');
+            }
+
+            if (variableShifts[residue] != 0) {
+                if (nrSites == MAX_VARIABLE_SITES) {
+                    throw new IllegalArgumentException("Too many variable modification sites in peptide " + peptide);
+                }
+                if (nrSites == variableSites.length) {
+                    variableSites = Arrays.copyOf(variableSites, nrSites * 2);
+                }
+                variableSites[nrSites++] = pos;
+            }
+        }
+
+        this.peptide = peptide;
+        this.mass = residueMass + WATER_MASS;
+        this.fixedShift = shift;
+        this.fixedResidues = fixed;
+        this.nrVariableSites = nrSites;
+    }
+
+
+    /**
+     * Returns the unmodified mass of the current peptide
+     *
+     * @return
+     */
+    public double getMass() {
+        return mass;
+    }
+
+
+    /**
+     * Whether the current peptide has any fixed modifications
+     *
+     * @return
+     */
+    public boolean hasFixedModifications() {
+        return fixedResidues != 0;
+    }
+
+
+    /**
+     * Returns the mass shift of all fixed modifications of the current peptide
+     *
+     * @return
+     */
+    public double getFixedMassShift() {
+        return fixedShift;
+    }
+
+
+    /**
+     * Returns the number of variable modification sites of the current
+     * peptide
+     *
+     * @return
+     */
+    public int getNrVariableSites() {
+        return nrVariableSites;
+    }
+
+
+    /**
+     * Returns the position of the variable modification site in the current
+     * peptide
+     *
+     * @param site
+     * @return
+     */
+    public int getVariableSitePosition(int site) {
+        return variableSites[site];
+    }
+
+
+    /**
+     * Returns the lazy enumeration of the combinations of variable
+     * modifications of the current peptide
+     *
+     * @param maxModifications the maximal number of variable modifications
+     * per combination
+     * @return
+     */
+    public ModificationCombinations getVariableModificationCombinations(int maxModifications) {
+        return new ModificationCombinations(nrVariableSites, maxModifications);
+    }
+
+
+    /**
+     * Sets the current peptide and passes all its modified forms to the
+     * consumer: each combination of at most the given number of variable
+     * modifications with the fixed modifications applied, if the peptide has
+     * any, and optionally also without them.
+     *
+     * @param peptide
+     * @param maxVariableModifications the maximal number of variable
+     * modifications per form
+     * @param encodeUnmodified whether the forms without the fixed
+     * modifications are passed as well, if the peptide has fixed modifications
+     * @param consumer
+     * @throws E
+     * @throws IllegalArgumentException like {@link #setPeptide(CharSequence)}
+     */
+    public <E extends Exception> void forEachModifiedForm(CharSequence peptide, int maxVariableModifications,
+            boolean encodeUnmodified, ModifiedFormConsumer<E> consumer) throws E {
+        setPeptide(peptide);
+
+        ModificationCombinations combinations = getVariableModificationCombinations(maxVariableModifications);
+        while (combinations.hasNext()) {
+            long variableMask = combinations.nextLong();
+            double variableMass = mass + getVariableMassShift(variableMask);
+
+            if (hasFixedModifications()) {
+                consumer.accept(variableMass + fixedShift, true, variableMask);
+                if (encodeUnmodified) {
+                    consumer.accept(variableMass, false, variableMask);
+                }
+            } else {
+                consumer.accept(variableMass, false, variableMask);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the mass shift of the given combination of variable
+     * modifications of the current peptide
+     *
+     * @param variableMask the modified sites
+     * @return
+     */
+    public double getVariableMassShift(long variableMask) {
+        double shift = 0;
+        for (long mask = variableMask; mask != 0; mask &= mask - 1) {
+            shift += variableShifts[peptide.charAt(variableSites[Long.numberOfTrailingZeros(mask)])];
+        }
+        return shift;
+    }
+
+
+    /**
+     * Returns the encoded fixed modifications of the current peptide, e.g.
+     * "C[57.021464]"
+     *
+     * @return
+     */
+    public String getFixedModificationsString() {
+        StringBuilder encoded = new StringBuilder();
+        for (long residues = fixedResidues; residues != 0; residues &= residues - 1) {
+            encoded.append(fixedEncodings['A' + Long.numberOfTrailingZeros(residues)]);
+        }
+        return encoded.toString();
+    }
+
+
+    /**
+     * Returns the encoded combination of variable modifications of the
+     * current peptide, e.g. "M3[15.994915]M7[15.994915]" with the positions
+     * starting at 1
+     *
+     * @param variableMask the modified sites
+     * @return
+     */
+    public String getVariableModificationsString(long variableMask) {
+        StringBuilder encoded = new StringBuilder();
+        for (long mask = variableMask; mask != 0; mask &= mask - 1) {
+            int pos = variableSites[Long.numberOfTrailingZeros(mask)];
+            char residue = peptide.charAt(pos);
+            encoded.append(residue).append(pos + 1).append(variableEncodings[residue]);
+        }
+        return encoded.toString();
+    }
+}
@@ -0,0 +1,255 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.util.Arrays;
+
+
+/**
+ * The aggregated information of one peptide: the IDs of the accessions (see
+ * {@link AccessionDictionary}) of the proteins containing it and the number of
+ * all occurrences (including double occurrences in one protein).
+ * <p>
+ * Most peptides occur in only one protein, so a single accession ID is stored
+ * inline. The IDs of shared peptides are appended to an int array, which is
+ * sorted and cleared of duplicates only when it is full or when the IDs are
+ * read. As for the stores, the records should only be read after all
+ * peptides were added.
+ *
+ * @author julian
+ *
+ */
+public class PeptideRecord {
+
+    /** the accession ID, if the peptide has only one accession */
+    private int singleAccession;
+
+    /** the accession IDs, if the peptide has more than one accession */
+    private int[] accessionIds;
+
+    /** number of accessions, including the not yet removed duplicates */
+    private int nrAccessions;
+
+    /** whether the accession IDs must still be sorted and cleared of duplicates */
+    private volatile boolean unsorted;
+
+    /** number of all occurrences of the peptide */
+    private int occurrences;
+
+
+    public PeptideRecord() {
+        this.accessionIds = null;
+        this.nrAccessions = 0;
+        this.occurrences = 0;
+    }
+
+
+    /**
+     * Creates a record with the given accession IDs, which may be unsorted and
+     * contain duplicates, and the given number of occurrences.
+     *
+     * @param accessionIds
+     * @param nrIds number of used IDs in the array
+     * @param occurrences
+     * @return
+     */
+    static PeptideRecord of(int[] accessionIds, int nrIds, int occurrences) {
+        int[] sorted = Arrays.copyOf(accessionIds, nrIds);
+        Arrays.sort(sorted);
+
+        int nrUnique = 0;
+        for (int i = 0; i < nrIds; i++) {
+            if ((nrUnique == 0) || (sorted[nrUnique - 1] != sorted[i])) {
+                sorted[nrUnique++] = sorted[i];
+            }
+        }
+        return ofSorted(sorted, nrUnique, occurrences);
+    }
+
+
+    /**
+     * Creates a record with the given accession IDs, which must be sorted
+     * ascending without duplicates. The array is used by the record and must
+     * not be changed afterwards.
+     *
+     * @param accessionIds
+     * @param nrIds number of used IDs in the array
+     * @param occurrences
+     * @return
+     */
+    static PeptideRecord ofSorted(int[] accessionIds, int nrIds, int occurrences) {
+        PeptideRecord record = new PeptideRecord();
+        if (nrIds == 1) {
+            record.singleAccession = accessionIds[0];
+        } else if (nrIds > 1) {
+            record.accessionIds = accessionIds;
+        }
+        record.nrAccessions = nrIds;
+        record.occurrences = occurrences;
+        return record;
+    }
+
+
+    /**
+     * Adds one occurrence of the peptide in the protein with the given
+     * accession ID.
+     *
+     * @param accessionId
+     * @return whether the accession ID was stored, it may still be a
+     *         duplicate, which is removed later
+     */
+    boolean addOccurrence(int accessionId) {
+        occurrences++;
+        return addAccession(accessionId);
+    }
+
+
+    /**
+     * Adds the accessions of the given record and the given number of
+     * occurrences.
+     *
+     * @param other
+     * @param addedOccurrences
+     */
+    void addOccurrences(PeptideRecord other, int addedOccurrences) {
+        for (int i = 0; i < other.getNrAccessions(); i++) {
+            addAccession(other.getAccessionId(i));
+        }
+        occurrences += addedOccurrences;
+    }
+
+
+    /**
+     * Appends the accession ID, unless it is the last added ID. The array is
+     * cleared of duplicates before it grows.
+     *
+     * @param accessionId
+     * @return whether the ID was stored
+     */
+    private boolean addAccession(int accessionId) {
+        if (nrAccessions == 0) {
+            singleAccession = accessionId;
+            nrAccessions = 1;
+            return true;
+        } else if (nrAccessions == 1) {
+            if (singleAccession == accessionId) {
+                return false;
+            }
+            accessionIds = new int[4];
+            accessionIds[0] = singleAccession;
+        } else {
+            if (nrAccessions == accessionIds.length) {
+                sortAccessions();
+                // grow only, if not enough duplicates were removed
+                if (nrAccessions >= accessionIds.length - (accessionIds.length >> 2)) {
+                    accessionIds = Arrays.copyOf(accessionIds, accessionIds.length + (accessionIds.length >> 1));
+                }
+            }
+            if (accessionIds[nrAccessions - 1] == accessionId) {
+                // the same protein most often adds its peptides consecutively
+                return false;
+            }
+        }
+
+        if (!unsorted && (accessionIds[nrAccessions - 1] > accessionId)) {
+            unsorted = true;
+        }
+        accessionIds[nrAccessions++] = accessionId;
+        return true;
+    }
+
+
+    /**
+     * Sorts the appended accession IDs and removes their duplicates, if this
+     * was not yet done since the last adding.
+     */
+    private void ensureSorted() {
+        if (unsorted) {
+            sortAccessions();
+        }
+    }
+
+
+    /**
+     * Sorts the accession IDs and removes the duplicates
+     */
+    private synchronized void sortAccessions() {
+        if (!unsorted) {
+            return;
+        }
+
+        Arrays.sort(accessionIds, 0, nrAccessions);
+        int nrUnique = 1;
+        for (int i = 1; i < nrAccessions; i++) {
+            if (accessionIds[nrUnique - 1] != accessionIds[i]) {
+                accessionIds[nrUnique++] = accessionIds[i];
+            }
+        }
+        nrAccessions = nrUnique;
+        unsorted = false;
+    }
+
+
+    /**
+     * Getter for the number of accessions of the proteins containing the
+     * peptide
+     * @return
+     */
+    public int getNrAccessions() {
+        ensureSorted();
+        return nrAccessions;
+    }
+
+
+    /**
+     * Returns the accession ID at the given index, the IDs are sorted
+     * ascending.
+     *
+     * @param index
+     * @return
+     */
+    public int getAccessionId(int index) {
+        ensureSorted();
+        if ((index < 0) || (index >= nrAccessions)) {
+            throw new IndexOutOfBoundsException("Index " + index + " for " + nrAccessions + " accessions");
+        }
+        return (nrAccessions == 1) ? singleAccession : accessionIds[index];
+    }
+
+
+    /**
+     * Returns a copy of the sorted accession IDs
+     *
+     * @return
+     */
+    public int[] getAccessionIds() {
+        ensureSorted();
+        if (nrAccessions == 1) {
+            return new int[]{singleAccession};
+        }
+        return (accessionIds != null) ? Arrays.copyOf(accessionIds, nrAccessions) : new int[0];
+    }
+
+
+    /**
+     * Checks whether the given accession ID is in the record
+     *
+     * @param accessionId
+     * @return
+     */
+    public boolean containsAccessionId(int accessionId) {
+        ensureSorted();
+        if (nrAccessions == 1) {
+            return singleAccession == accessionId;
+        }
+        return (nrAccessions > 1) && (Arrays.binarySearch(accessionIds, 0, nrAccessions, accessionId) >= 0);
+    }
+
+
+    /**
+     * Getter for the number of all occurrences, including double occurrences
+     * in one protein
+     * @return
+     */
+    public int getOccurrences() {
+        return occurrences;
+    }
+}
@@ -0,0 +1,21 @@
+package de.mpc.tools.parsefastapeptide;
+
+/**
+ * Receives the peptides of a protein digestion one by one, as soon as they are
+ * created.
+ *
+ * @author julian
+ *
+ */
+@FunctionalInterface
+public interface PeptideSink {
+
+    /**
+     * Called for each digested peptide. The span points into the normalized
+     * protein sequence and must be compacted, if it is stored beyond the
+     * processing of the protein.
+     *
+     * @param peptide
+     */
+    void accept(PeptideSpan peptide);
+}
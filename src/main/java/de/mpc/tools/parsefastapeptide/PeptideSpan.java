@@ -0,0 +1,181 @@
+package de.mpc.tools.parsefastapeptide;
+
+
+/**
+ * A peptide given as a span (offset and length) into the sequence of its
+ * protein. No characters are copied until {@link #toString()} or
+ * {@link #compact()} is called.
+ * <p>
+ * The hash code is precomputed and equals the {@link String#hashCode()} of the
+ * peptide sequence, spans are equal if their sequences are equal and they
+ * compare like their sequences as Strings. So spans can be used as keys in
+ * hash or tree based maps, but should be compacted before storing them to not
+ * keep the whole protein sequence alive.
+ *
+ * @author julian
+ *
+ */
+public final class PeptideSpan implements CharSequence, Comparable<PeptideSpan> {
+
+    /** the sequence containing the peptide, usually the protein */
+    private final CharSequence sequence;
+
+    /** offset of the peptide in the sequence */
+    private final int offset;
+
+    /** length of the peptide */
+    private final int length;
+
+    /** the precomputed hash code */
+    private final int hash;
+
+
+    /**
+     * Creates a span of the given sequence from start (inclusive) to end
+     * (exclusive). The sequence should not change during the lifetime of the
+     * span.
+     *
+     * @param sequence
+     * @param start
+     * @param end
+     */
+    public PeptideSpan(CharSequence sequence, int start, int end) {
+        if ((start < 0) || (end > sequence.length()) || (start > end)) {
+            throw new IndexOutOfBoundsException("Invalid span [" + start + ", " + end + ") of sequence with length "
+                    + sequence.length());
+        }
+
+        this.sequence = sequence;
+        this.offset = start;
+        this.length = end - start;
+
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + sequence.charAt(i);
+        }
+        this.hash = h;
+    }
+
+
+    /**
+     * Creates a span covering the whole given peptide sequence, e.g. for
+     * lookups in a map with spans as keys.
+     *
+     * @param peptide
+     * @return
+     */
+    public static PeptideSpan of(CharSequence peptide) {
+        if (peptide instanceof PeptideSpan) {
+            return (PeptideSpan) peptide;
+        }
+        return new PeptideSpan(peptide, 0, peptide.length());
+    }
+
+
+    /**
+     * Returns a span with the same sequence, which only references a String of
+     * the peptide's sequence and not the whole protein.
+     *
+     * @return
+     */
+    public PeptideSpan compact() {
+        if (isCompact()) {
+            return this;
+        }
+        return new PeptideSpan(toString(), 0, length);
+    }
+
+
+    /**
+     * Whether this span covers a complete String
+     *
+     * @return
+     */
+    private boolean isCompact() {
+        return (sequence instanceof String) && (offset == 0) && (length == sequence.length());
+    }
+
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+
+    @Override
+    public char charAt(int index) {
+        if ((index < 0) || (index >= length)) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of span with length " + length);
+        }
+        return sequence.charAt(offset + index);
+    }
+
+
+    @Override
+    public PeptideSpan subSequence(int start, int end) {
+        if ((start < 0) || (end > length) || (start > end)) {
+            throw new IndexOutOfBoundsException("Invalid subsequence [" + start + ", " + end + ") of span with length "
+                    + length);
+        }
+        return new PeptideSpan(sequence, offset + start, offset + end);
+    }
+
+
+    /**
+     * Returns the peptide sequence as a String. For a compacted span, no
+     * characters are copied.
+     */
+    @Override
+    public String toString() {
+        if (isCompact()) {
+            return (String) sequence;
+        }
+        return sequence.subSequence(offset, offset + length).toString();
+    }
+
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PeptideSpan)) {
+            return false;
+        }
+
+        PeptideSpan other = (PeptideSpan) obj;
+        if ((length != other.length) || (hash != other.hash)) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (sequence.charAt(offset + i) != other.sequence.charAt(other.offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Compares the spans lexicographically like {@link String#compareTo(String)}
+     */
+    @Override
+    public int compareTo(PeptideSpan other) {
+        int minLength = Math.min(length, other.length);
+        for (int i = 0; i < minLength; i++) {
+            char c1 = sequence.charAt(offset + i);
+            char c2 = other.sequence.charAt(other.offset + i);
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return length - other.length;
+    }
+}
@@ -0,0 +1,23 @@
+package de.mpc.tools.parsefastapeptide;
+
+/**
+ * The storages for the aggregation of the digested peptides
+ *
+ * @author julian
+ *
+ */
+public enum PeptideStorage {
+
+    /** the peptides are stored on the Java heap ({@link PeptideAggregator}) */
+    HEAP,
+
+    /** the peptides are stored in direct memory ({@link OffHeapPeptideStore}) */
+    DIRECT_MEMORY,
+
+    /** the peptides are stored in memory mapped temporary files ({@link OffHeapPeptideStore}) */
+    MAPPED_FILE,
+
+    /** the peptides are aggregated within a memory budget and spilled to disk in sorted runs ({@link SpillingPeptideStore}) */
+    SPILL_TO_DISK,
+    ;
+}
@@ -0,0 +1,76 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+
+/**
+ * Storage for the aggregation of digested peptides with the IDs of their
+ * accessions and their number of occurrences. The peptides can be added
+ * concurrently, the reading methods should only be called after all peptides
+ * were added. The peptides can only be read sequentially, stores supporting
+ * lookups of single peptides implement {@link RandomAccessPeptideStore}.
+ *
+ * @author julian
+ *
+ */
+public interface PeptideStore extends Closeable {
+
+    /**
+     * Getter for the dictionary of the accession IDs
+     *
+     * @return
+     */
+    AccessionDictionary getAccessionDictionary();
+
+
+    /**
+     * Adds one occurrence of the peptide in the protein with the given
+     * accession ID.
+     *
+     * @param peptide
+     * @param accessionId
+     */
+    void addPeptide(PeptideSpan peptide, int accessionId);
+
+
+    /**
+     * Returns the number of stored peptides
+     *
+     * @return
+     */
+    int size();
+
+
+    /**
+     * Returns an iterator over the peptides and their records
+     *
+     * @return
+     */
+    Iterator<Map.Entry<PackedPeptide, PeptideRecord>> iterator();
+
+
+    /**
+     * Returns an iterator over the peptides sorted by their sequence
+     *
+     * @return
+     */
+    Iterator<Map.Entry<PackedPeptide, PeptideRecord>> sortedIterator();
+
+
+    /**
+     * Performs the given action for each peptide and its record
+     *
+     * @param action
+     */
+    default void forEach(BiConsumer<PackedPeptide, PeptideRecord> action) {
+        Iterator<Map.Entry<PackedPeptide, PeptideRecord>> it = iterator();
+        while (it.hasNext()) {
+            Map.Entry<PackedPeptide, PeptideRecord> entry = it.next();
+            action.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+}
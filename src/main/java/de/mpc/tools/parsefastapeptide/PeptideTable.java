@@ -0,0 +1,210 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+
+/**
+ * A hash table of packed peptides and their records, which is looked up with
+ * {@link PeptideSpan}s. The slots are probed (linearly) with the hash code of
+ * the span and the spans are compared with the packed keys residue by residue,
+ * so a digested peptide is only packed, when it is inserted. Like in a
+ * {@link java.util.HashMap}, the table is not synchronized.
+ *
+ * @author julian
+ *
+ */
+class PeptideTable {
+
+    /** the maximal load factor of the table */
+    private static final double MAX_LOAD = 0.7;
+
+    /** multiplier for spreading the hash codes */
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /** number of bits of the table's capacity */
+    private int tableBits;
+
+    /** the hash codes of the peptides in the slots */
+    private int[] hashes;
+
+    /** the peptides in the slots, null for empty slots */
+    private PackedPeptide[] peptides;
+
+    /** the records of the peptides in the slots */
+    private PeptideRecord[] records;
+
+    /** number of stored peptides */
+    private int size;
+
+
+    /**
+     * Creates a table for the given number of peptides, it grows as needed
+     *
+     * @param initialCapacity
+     */
+    public PeptideTable(int initialCapacity) {
+        int bits = 4;
+        while ((1 << bits) * MAX_LOAD < initialCapacity) {
+            bits++;
+        }
+        allocate(bits);
+    }
+
+
+    private void allocate(int bits) {
+        tableBits = bits;
+        hashes = new int[1 << bits];
+        peptides = new PackedPeptide[1 << bits];
+        records = new PeptideRecord[1 << bits];
+        size = 0;
+    }
+
+
+    /**
+     * Returns the slot of the given peptide or the empty slot, at which it
+     * should be inserted
+     *
+     * @param peptide
+     * @param hash
+     * @return
+     */
+    private int findSlot(PeptideSpan peptide, int hash) {
+        int mask = (1 << tableBits) - 1;
+        int slot = (int) ((hash * HASH_MULTIPLIER) >>> (64 - tableBits));
+
+        while (peptides[slot] != null) {
+            if ((hashes[slot] == hash) && peptides[slot].contentEquals(peptide)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+
+    /**
+     * Returns the record of the given peptide
+     *
+     * @param peptide
+     * @return the record or null, if the peptide is not in the table
+     */
+    public PeptideRecord get(PeptideSpan peptide) {
+        return records[findSlot(peptide, peptide.hashCode())];
+    }
+
+
+    /**
+     * Returns the record of the given peptide, the peptide is packed and
+     * inserted with an empty record, if it is not yet in the table.
+     *
+     * @param peptide
+     * @return
+     */
+    public PeptideRecord getOrCreate(PeptideSpan peptide) {
+        int hash = peptide.hashCode();
+        int slot = findSlot(peptide, hash);
+        if (peptides[slot] != null) {
+            return records[slot];
+        }
+
+        if (size + 1 > (1 << tableBits) * MAX_LOAD) {
+            resize();
+            slot = findSlot(peptide, hash);
+        }
+
+        PeptideRecord record = new PeptideRecord();
+        hashes[slot] = hash;
+        peptides[slot] = PackedPeptide.pack(peptide);
+        records[slot] = record;
+        size++;
+        return record;
+    }
+
+
+    /**
+     * Doubles the capacity of the table
+     */
+    private void resize() {
+        int[] oldHashes = hashes;
+        PackedPeptide[] oldPeptides = peptides;
+        PeptideRecord[] oldRecords = records;
+        allocate(tableBits + 1);
+
+        int mask = (1 << tableBits) - 1;
+        for (int oldSlot = 0; oldSlot < oldPeptides.length; oldSlot++) {
+            if (oldPeptides[oldSlot] == null) {
+                continue;
+            }
+
+            int slot = (int) ((oldHashes[oldSlot] * HASH_MULTIPLIER) >>> (64 - tableBits));
+            while (peptides[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = oldHashes[oldSlot];
+            peptides[slot] = oldPeptides[oldSlot];
+            records[slot] = oldRecords[oldSlot];
+            size++;
+        }
+    }
+
+
+    /**
+     * Returns the number of peptides in the table
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Removes all peptides and shrinks the table to its minimal capacity
+     */
+    public void clear() {
+        allocate(4);
+    }
+
+
+    /**
+     * Returns an iterator over the peptides and their records in the order of
+     * the slots. The table must not be modified during the iteration.
+     *
+     * @return
+     */
+    public Iterator<Map.Entry<PackedPeptide, PeptideRecord>> iterator() {
+        return new Iterator<Map.Entry<PackedPeptide, PeptideRecord>>() {
+            private int slot = advance(-1);
+
+
+            private int advance(int from) {
+                int next = from + 1;
+                while ((next < peptides.length) && (peptides[next] == null)) {
+                    next++;
+                }
+                return next;
+            }
+
+
+            @Override
+            public boolean hasNext() {
+                return slot < peptides.length;
+            }
+
+
+            @Override
+            public Map.Entry<PackedPeptide, PeptideRecord> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<PackedPeptide, PeptideRecord> entry =
+                        new AbstractMap.SimpleImmutableEntry<>(peptides[slot], records[slot]);
+                slot = advance(slot);
+                return entry;
+            }
+        };
+    }
+}
@@ -0,0 +1,342 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Writes the peptides of a {@link PeptideStore} as tab separated values with
+ * the columns of {@link #HEADER}.
+ * <p>
+ * The rows are formatted (and compressed) in chunks on several threads and
+ * written in order. If the output is compressed, each chunk is an own gzip
+ * member, which concatenated are still a valid gzip file. If the output is
+ * split, the rows are written directly into the split files, each with the
+ * header and splitLength rows.
+ *
+ * @author julian
+ *
+ */
+public class PeptideTsvWriter {
+
+    /** the header line of the output */
+    public static final String HEADER = "peptide\tpeptideLength\t#accessions\t#occurrences\taccessions";
+
+    /** number of rows formatted in one chunk */
+    private static final int CHUNK_SIZE = 16384;
+
+    /** the line separator */
+    private static final String NEW_LINE = System.lineSeparator();
+
+    /** number of threads used for formatting */
+    private int numberOfThreads;
+
+    /** whether the rows are sorted by the peptide sequences */
+    private boolean sorted;
+
+    /** whether the output is gzip compressed */
+    private boolean gzip;
+
+    /** maximal number of rows per file, 0 for no splitting */
+    private int splitLength;
+
+
+    public PeptideTsvWriter() {
+        this.numberOfThreads = 1;
+        this.sorted = false;
+        this.gzip = false;
+        this.splitLength = 0;
+    }
+
+
+    /**
+     * Setter for the number of threads used for formatting and compressing
+     *
+     * @param numberOfThreads
+     */
+    public void setNumberOfThreads(int numberOfThreads) {
+        this.numberOfThreads = Math.max(1, numberOfThreads);
+    }
+
+
+    /**
+     * Sets whether the rows are sorted by the peptide sequences. Otherwise
+     * they are written in the order of the store.
+     *
+     * @param sorted
+     */
+    public void setSorted(boolean sorted) {
+        this.sorted = sorted;
+    }
+
+
+    /**
+     * Sets whether the output is gzip compressed. The file names get the
+     * suffix ".gz", if they do not have it already.
+     *
+     * @param gzip
+     */
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+
+    /**
+     * Sets the maximal number of rows per file. If there are more rows, they
+     * are written into the files fileName.split1, fileName.split2... instead
+     * of one file.
+     *
+     * @param splitLength the number of rows, 0 for no splitting
+     */
+    public void setSplitLength(int splitLength) {
+        this.splitLength = Math.max(0, splitLength);
+    }
+
+
+    /**
+     * Writes the peptides of the store
+     *
+     * @param store
+     * @param fileName
+     * @return the number of written rows
+     * @throws IOException
+     */
+    public long write(PeptideStore store, String fileName) throws IOException {
+        boolean split = (splitLength > 0) && (store.size() > splitLength);
+        AccessionDictionary accessions = store.getAccessionDictionary();
+
+        ExecutorService executor = (numberOfThreads > 1) ? Executors.newFixedThreadPool(numberOfThreads) : null;
+        Deque<Future<List<Segment>>> pending = new ArrayDeque<>();
+        int maxPending = numberOfThreads * 2;
+
+        OutputTarget target = new OutputTarget(fileName, split);
+        long nrRows = 0;
+
+        try {
+            if (!split) {
+                target.open(0);
+            }
+
+            Iterator<Map.Entry<PackedPeptide, PeptideRecord>> peptideIt = sorted ? store.sortedIterator() : store.iterator();
+            while (peptideIt.hasNext()) {
+                List<Map.Entry<PackedPeptide, PeptideRecord>> rows = new ArrayList<>(CHUNK_SIZE);
+                while (peptideIt.hasNext() && (rows.size() < CHUNK_SIZE)) {
+                    rows.add(peptideIt.next());
+                }
+
+                long firstRow = nrRows;
+                nrRows += rows.size();
+                Callable<List<Segment>> formatter = () -> formatChunk(rows, firstRow, split, accessions);
+
+                if (executor != null) {
+                    pending.add(executor.submit(formatter));
+                    while (pending.size() >= maxPending) {
+                        target.write(Futures.get(pending.poll(), "formatting the peptide rows"));
+                    }
+                } else {
+                    target.write(callFormatter(formatter));
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                target.write(Futures.get(pending.poll(), "formatting the peptide rows"));
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            target.close();
+        }
+
+        return nrRows;
+    }
+
+
+    private static List<Segment> callFormatter(Callable<List<Segment>> formatter) throws IOException {
+        try {
+            return formatter.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+
+    /**
+     * Formats the rows of one chunk into segments, a new segment is started at
+     * the first row of each split file.
+     *
+     * @param rows
+     * @param firstRow the number of the chunk's first row
+     * @param split
+     * @param accessions
+     * @return
+     * @throws IOException
+     */
+    private List<Segment> formatChunk(List<Map.Entry<PackedPeptide, PeptideRecord>> rows, long firstRow,
+            boolean split, AccessionDictionary accessions) throws IOException {
+        List<Segment> segments = new ArrayList<>(1);
+        StringBuilder text = new StringBuilder(rows.size() * 64);
+        int fileIdx = split ? (int) (firstRow / splitLength) : 0;
+
+        long rowNr = firstRow;
+        for (Map.Entry<PackedPeptide, PeptideRecord> row : rows) {
+            int rowFileIdx = split ? (int) (rowNr / splitLength) : 0;
+            if (rowFileIdx != fileIdx) {
+                segments.add(new Segment(fileIdx, encode(text)));
+                text.setLength(0);
+                fileIdx = rowFileIdx;
+            }
+
+            appendRow(text, row.getKey(), row.getValue(), accessions);
+            rowNr++;
+        }
+        segments.add(new Segment(fileIdx, encode(text)));
+
+        return segments;
+    }
+
+
+    /**
+     * Appends the row of the peptide
+     *
+     * @param text
+     * @param peptide
+     * @param record
+     * @param accessions
+     */
+    private static void appendRow(StringBuilder text, CharSequence peptide, PeptideRecord record,
+            AccessionDictionary accessions) {
+        text.append(peptide);
+        text.append('\t');
+        text.append(peptide.length());
+        text.append('\t');
+        text.append(record.getNrAccessions());
+        text.append('\t');
+        text.append(record.getOccurrences());
+        text.append('\t');
+        for (int i = 0; i < record.getNrAccessions(); i++) {
+            if (i > 0) {
+                text.append(',');
+            }
+            text.append(accessions.getAccession(record.getAccessionId(i)));
+        }
+        text.append(NEW_LINE);
+    }
+
+
+    /**
+     * Encodes the text as UTF-8 and compresses it, if gzip is set
+     *
+     * @param text
+     * @return
+     * @throws IOException
+     */
+    private byte[] encode(CharSequence text) throws IOException {
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        if (!gzip) {
+            return bytes;
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 3 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed, 1 << 16)) {
+            out.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+
+    /**
+     * Formatted rows, which belong into the file with the given index
+     */
+    private static class Segment {
+
+        private final int fileIdx;
+
+        private final byte[] data;
+
+
+        private Segment(int fileIdx, byte[] data) {
+            this.fileIdx = fileIdx;
+            this.data = data;
+        }
+    }
+
+
+    /**
+     * The currently written file
+     */
+    private class OutputTarget {
+
+        private final String baseName;
+
+        private final boolean split;
+
+        private OutputStream out;
+
+        private int fileIdx;
+
+
+        private OutputTarget(String fileName, boolean split) {
+            // the suffix is appended to each compressed file again
+            this.baseName = (gzip && fileName.endsWith(".gz"))
+                    ? fileName.substring(0, fileName.length() - 3) : fileName;
+            this.split = split;
+            this.out = null;
+            this.fileIdx = -1;
+        }
+
+
+        /**
+         * Closes the current file and opens the file with the given index
+         *
+         * @param idx
+         * @throws IOException
+         */
+        private void open(int idx) throws IOException {
+            close();
+
+            String name = split ? (baseName + ".split" + (idx + 1)) : baseName;
+            if (gzip) {
+                name += ".gz";
+            }
+            out = new BufferedOutputStream(new FileOutputStream(name), 1 << 16);
+            out.write(encode(HEADER + NEW_LINE));
+            fileIdx = idx;
+        }
+
+
+        private void write(List<Segment> segments) throws IOException {
+            for (Segment segment : segments) {
+                if (segment.fileIdx != fileIdx) {
+                    open(segment.fileIdx);
+                }
+                out.write(segment.data);
+            }
+        }
+
+
+        private void close() throws IOException {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        }
+    }
+}
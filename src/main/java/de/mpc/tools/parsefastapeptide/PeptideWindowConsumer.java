@@ -0,0 +1,20 @@
+package de.mpc.tools.parsefastapeptide;
+
+/**
+ * Receives the peptides of a digestion as windows into the protein sequence,
+ * without any string being created.
+ *
+ * @author julian
+ *
+ */
+@FunctionalInterface
+public interface PeptideWindowConsumer {
+
+    /**
+     * Called for each peptide of the digestion
+     *
+     * @param start the index of the peptide's first residue in the protein
+     * @param end the index after the peptide's last residue in the protein
+     */
+    void accept(int start, int end);
+}
@@ -1,5 +1,6 @@
 package de.mpc.tools.parsefastapeptide;
 
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -10,8 +11,8 @@ import java.util.List;
  *
  */
 public class ProteinDigester {
-	/** the used enzyme */
-	private Enzyme enzyme;
+	/** the used enzymes, the protein is cleaved at the sites of any of them */
+	private Enzyme[] enzymes;
 	
 	/** the minimal length of an output peptide */
 	private int minLength;
@@ -24,12 +25,27 @@ public class ProteinDigester {
 	
 	
 	public ProteinDigester() {
-		this(null, 7, 45, 0);
+		this((Enzyme) null, 7, 45, 0);
 	}
 	
 	
 	public ProteinDigester(Enzyme enzyme, int minLength, int maxLength, int missedCleavages) {
-		this.enzyme = enzyme;
+		this((enzyme != null) ? new Enzyme[]{enzyme} : null, minLength, maxLength, missedCleavages);
+	}
+	
+	
+	/**
+	 * Creates a digester, which cleaves at the sites of all given enzymes in
+	 * one pass. The length restrictions and missed cleavages are applied to
+	 * the combined cleavage sites.
+	 * 
+	 * @param enzymes
+	 * @param minLength
+	 * @param maxLength
+	 * @param missedCleavages
+	 */
+	public ProteinDigester(Enzyme[] enzymes, int minLength, int maxLength, int missedCleavages) {
+		this.enzymes = enzymes;
 		this.minLength = minLength;
 		this.maxLength = maxLength;
 		this.missedCleavages = missedCleavages;
@@ -42,16 +58,35 @@ public class ProteinDigester {
 	 * @param enzyme
 	 */
 	public void setEnzyme(Enzyme enzyme) {
-		this.enzyme = enzyme;
+		this.enzymes = (enzyme != null) ? new Enzyme[]{enzyme} : null;
 	}
 	
 	
 	/**
-	 * Getter for the enzyme
+	 * Getter for the (first) enzyme
 	 * @return
 	 */
 	public Enzyme getEnzyme() {
-		return enzyme;
+		return (enzymes != null) ? enzymes[0] : null;
+	}
+	
+	
+	/**
+	 * Setter for the enzymes, which are combined in the digestion
+	 * 
+	 * @param enzymes
+	 */
+	public void setEnzymes(Enzyme... enzymes) {
+		this.enzymes = enzymes;
+	}
+	
+	
+	/**
+	 * Getter for the enzymes
+	 * @return
+	 */
+	public Enzyme[] getEnzymes() {
+		return enzymes;
 	}
 	
 	
@@ -59,17 +94,76 @@ public class ProteinDigester {
 	 * Digest the given protein
 	 */
 	public List<String> digest(String proteinSequence) throws DigestException {
+		List<String> peptides = new ArrayList<>();
+		digest(proteinSequence, peptide -> peptides.add(peptide.toString()));
+		return peptides;
+	}
+	
+	
+	/**
+	 * Digest the given protein and return the peptides as spans into the
+	 * (normalized) protein sequence, so no peptide sequence is copied.
+	 */
+	public List<PeptideSpan> digestToSpans(CharSequence proteinSequence) throws DigestException {
+		List<PeptideSpan> peptides = new ArrayList<>();
+		digest(proteinSequence, peptides::add);
+		return peptides;
+	}
+	
+	
+	/**
+	 * Digest the given protein and pass each peptide directly to the sink,
+	 * without collecting the peptides first.
+	 * 
+	 * @param proteinSequence
+	 * @param sink receives the peptides in the same order as
+	 * {@link #digest(String)} returns them
+	 * @throws DigestException
+	 */
+	public void digest(CharSequence proteinSequence, PeptideSink sink) throws DigestException {
+		checkDigestion(proteinSequence);
+		
+		String protein = normalizeSequence(proteinSequence);
+		Enzyme.forEachPeptideWindow(Enzyme.getCombinedCleavageSites(protein, enzymes), protein.length(),
+				minLength, maxLength, missedCleavages,
+				(start, end) -> sink.accept(new PeptideSpan(protein, start, end)));
+	}
+	
+	
+	/**
+	 * Checks whether the digestion of the sequence can be performed
+	 * 
+	 * @param proteinSequence
+	 * @throws DigestException
+	 */
+	private void checkDigestion(CharSequence proteinSequence) throws DigestException {
 		// here we finally have some logic 
 		if (proteinSequence == null) {
 			throw new DigestException("No protein sequence given for digestion.");
 		}
 		
-		if (enzyme == null) {
+		if ((enzymes == null) || (enzymes.length == 0)) {
 			throw new DigestException("No enzyme given for digestion.");
 		}
-		
-		return enzyme.digestProtein(proteinSequence.replaceAll("\\s", "").toUpperCase(),
-				minLength, maxLength, missedCleavages);
+	}
+	
+	
+	/**
+	 * Removes all whitespaces and converts the sequence to upper case. If the
+	 * sequence is a String and already normalized, it is returned without
+	 * copying.
+	 * 
+	 * @param proteinSequence
+	 * @return
+	 */
+	private static String normalizeSequence(CharSequence proteinSequence) {
+		for (int i = 0; i < proteinSequence.length(); i++) {
+			char c = proteinSequence.charAt(i);
+			if (((c >= 'a') && (c <= 'z')) || (c > 127) || Character.isWhitespace(c)) {
+				return proteinSequence.toString().replaceAll("\\s", "").toUpperCase();
+			}
+		}
+		return proteinSequence.toString();
 	}
 	
 	
@@ -0,0 +1,74 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+
+/**
+ * A {@link PeptideStore}, in which the records of single peptides can be
+ * looked up.
+ *
+ * @author julian
+ *
+ */
+public interface RandomAccessPeptideStore extends PeptideStore {
+
+    /**
+     * Returns the record of the given peptide
+     *
+     * @param peptide
+     * @return the record or null, if the peptide is not stored
+     */
+    PeptideRecord get(CharSequence peptide);
+
+
+    /**
+     * Returns an iterator over the peptides sorted by their sequence. By
+     * default, the peptides are sorted in memory and their records are looked
+     * up one after the other.
+     *
+     * @return
+     */
+    @Override
+    default Iterator<Map.Entry<PackedPeptide, PeptideRecord>> sortedIterator() {
+        PackedPeptide[] peptides = new PackedPeptide[size()];
+        Iterator<Map.Entry<PackedPeptide, PeptideRecord>> it = iterator();
+        for (int i = 0; i < peptides.length; i++) {
+            peptides[i] = it.next().getKey();
+        }
+        Arrays.parallelSort(peptides);
+
+        return new Iterator<Map.Entry<PackedPeptide, PeptideRecord>>() {
+            private int idx = 0;
+
+            @Override
+            public boolean hasNext() {
+                return idx < peptides.length;
+            }
+
+            @Override
+            public Map.Entry<PackedPeptide, PeptideRecord> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                PackedPeptide peptide = peptides[idx++];
+                return new AbstractMap.SimpleImmutableEntry<>(peptide, get(peptide));
+            }
+        };
+    }
+
+
+    /**
+     * Returns a read-only view on the peptides and their accessions. The
+     * accessions are resolved from the dictionary on access.
+     *
+     * @return
+     */
+    default Map<String, Set<String>> getAccessionMapView() {
+        return new AccessionMapView(this);
+    }
+}
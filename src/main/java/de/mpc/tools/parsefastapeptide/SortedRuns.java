@@ -0,0 +1,427 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.BinaryOperator;
+
+
+/**
+ * Sorted runs in temporary files for sorting more elements than fit into
+ * memory. The elements are sorted in memory by the caller and written as a
+ * run, the runs are merged (k-way) by {@link #merge()} in one pass, or
+ * {@link #reduceRuns(int)} merges groups of them into fewer runs first.
+ * <p>
+ * Each run consists of the number of its elements (as long) followed by the
+ * elements in the {@link RunFormat}. Equal elements of different runs can be
+ * combined into one by the merge. The runs are deleted by {@link #close()}.
+ *
+ * @author julian
+ *
+ * @param <T> the type of the elements
+ */
+final class SortedRuns<T> implements Closeable {
+
+    /** maximal number of runs merged at once */
+    static final int MAX_MERGE_RUNS = 64;
+
+    /** size of the buffers for reading and writing the runs */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** prefix of the run files */
+    private final String prefix;
+
+    /** the directory of the run files, null for the system's temporary directory */
+    private final File directory;
+
+    /** the order of the elements in the runs */
+    private final Comparator<? super T> order;
+
+    /** combines equal elements of different runs, null to keep all */
+    private final BinaryOperator<T> combiner;
+
+    /** writes and reads the elements */
+    private final RunFormat<T> format;
+
+    /** the run files on disk */
+    private List<File> runs;
+
+
+    /**
+     * Reads and writes the elements of the runs
+     *
+     * @param <T>
+     */
+    interface RunFormat<T> {
+
+        /**
+         * Writes the element to the stream
+         *
+         * @param out
+         * @param element
+         * @throws IOException
+         */
+        void write(DataOutputStream out, T element) throws IOException;
+
+
+        /**
+         * Reads the next element from the stream
+         *
+         * @param in
+         * @return
+         * @throws IOException
+         */
+        T read(DataInputStream in) throws IOException;
+    }
+
+
+    /**
+     * Creates an empty set of runs
+     *
+     * @param prefix the prefix of the run files
+     * @param directory the directory of the run files, null for the system's
+     *        temporary directory
+     * @param order the order of the elements in the runs
+     * @param combiner combines equal elements of different runs into the
+     *        first one, null to keep all elements
+     * @param format writes and reads the elements
+     */
+    SortedRuns(String prefix, File directory, Comparator<? super T> order, BinaryOperator<T> combiner,
+            RunFormat<T> format) {
+        this.prefix = prefix;
+        this.directory = directory;
+        this.order = order;
+        this.combiner = combiner;
+        this.format = format;
+        this.runs = new ArrayList<>();
+    }
+
+
+    /**
+     * Returns the number of run files on disk
+     *
+     * @return
+     */
+    int getNumberOfRuns() {
+        return runs.size();
+    }
+
+
+    /**
+     * Writes the elements, which must be sorted, as a new run
+     *
+     * @param sorted
+     * @throws IOException
+     */
+    void addRun(Collection<? extends T> sorted) throws IOException {
+        File run = createRunFile();
+        try (RunWriter writer = new RunWriter(run)) {
+            for (T element : sorted) {
+                writer.write(element);
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteRun(run);
+            throw e;
+        }
+        runs.add(run);
+    }
+
+
+    /**
+     * Merges groups of up to {@link #MAX_MERGE_RUNS} runs, until at most the
+     * given number of runs is left
+     *
+     * @param maxRuns
+     * @throws IOException
+     */
+    void reduceRuns(int maxRuns) throws IOException {
+        while (runs.size() > Math.max(1, maxRuns)) {
+            List<File> mergedRuns = new ArrayList<>();
+            try {
+                for (int from = 0; from < runs.size(); from += MAX_MERGE_RUNS) {
+                    List<File> group = runs.subList(from, Math.min(runs.size(), from + MAX_MERGE_RUNS));
+                    File merged = createRunFile();
+                    mergedRuns.add(merged);
+                    mergeInto(group, merged);
+                }
+            } catch (IOException | RuntimeException e) {
+                for (File merged : mergedRuns) {
+                    deleteRun(merged);
+                }
+                throw e;
+            }
+
+            for (File run : runs) {
+                deleteRun(run);
+            }
+            runs = mergedRuns;
+        }
+    }
+
+
+    /**
+     * Merges the given runs into the new run file
+     *
+     * @param group
+     * @param merged
+     * @throws IOException
+     */
+    private void mergeInto(List<File> group, File merged) throws IOException {
+        try (MergingIterator it = new MergingIterator(group);
+                RunWriter writer = new RunWriter(merged)) {
+            while (it.hasNext()) {
+                writer.write(it.next());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+
+    /**
+     * Returns the number of elements in all runs, equal elements of different
+     * runs are counted each
+     *
+     * @return
+     * @throws IOException
+     */
+    long countElements() throws IOException {
+        long count = 0;
+        for (File run : runs) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(run))) {
+                count += in.readLong();
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Returns an iterator over the merged elements of all runs. Errors while
+     * reading are thrown as {@link UncheckedIOException}, the iterator closes
+     * the runs, when it is exhausted.
+     *
+     * @return
+     * @throws IOException
+     */
+    MergingIterator merge() throws IOException {
+        return new MergingIterator(runs);
+    }
+
+
+    /**
+     * Deletes all runs
+     */
+    @Override
+    public void close() {
+        for (File run : runs) {
+            deleteRun(run);
+        }
+        runs.clear();
+    }
+
+
+    private File createRunFile() throws IOException {
+        return File.createTempFile(prefix, ".run", directory);
+    }
+
+
+    private static void deleteRun(File run) {
+        if (!run.delete()) {
+            run.deleteOnExit();
+        }
+    }
+
+
+    /**
+     * Writes a run: the number of elements followed by the elements.
+     */
+    private class RunWriter implements AutoCloseable {
+
+        private final File file;
+
+        private final DataOutputStream out;
+
+        private long count;
+
+
+        private RunWriter(File file) throws IOException {
+            this.file = file;
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+            this.count = 0;
+            // placeholder for the number of elements
+            out.writeLong(0);
+        }
+
+
+        private void write(T element) throws IOException {
+            format.write(out, element);
+            count++;
+        }
+
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.writeLong(count);
+            }
+        }
+    }
+
+
+    /**
+     * Reads the elements of a run one after the other
+     */
+    private class RunReader implements AutoCloseable {
+
+        private final DataInputStream in;
+
+        private long remaining;
+
+        private T element;
+
+
+        private RunReader(File file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            this.remaining = in.readLong();
+        }
+
+
+        /**
+         * Reads the next element of the run
+         *
+         * @return false, if the run is exhausted
+         * @throws IOException
+         */
+        private boolean advance() throws IOException {
+            if (remaining == 0) {
+                element = null;
+                return false;
+            }
+            remaining--;
+            element = format.read(in);
+            return true;
+        }
+
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Merges the sorted runs, equal elements of several runs are combined, if
+     * a combiner is given.
+     */
+    final class MergingIterator implements Iterator<T>, AutoCloseable {
+
+        private final PriorityQueue<RunReader> queue;
+
+        private final List<RunReader> readers;
+
+        private T next;
+
+
+        private MergingIterator(List<File> runFiles) throws IOException {
+            this.queue = new PriorityQueue<>(Math.max(1, runFiles.size()),
+                    (r1, r2) -> order.compare(r1.element, r2.element));
+            this.readers = new ArrayList<>(runFiles.size());
+
+            try {
+                for (File run : runFiles) {
+                    RunReader reader = new RunReader(run);
+                    readers.add(reader);
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    }
+                }
+                this.next = mergeNext();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+
+        /**
+         * Merges the next element of all runs
+         *
+         * @return the merged element or null, if all runs are exhausted
+         * @throws IOException
+         */
+        private T mergeNext() throws IOException {
+            if (queue.isEmpty()) {
+                close();
+                return null;
+            }
+
+            RunReader reader = queue.poll();
+            T element = reader.element;
+            if (reader.advance()) {
+                queue.add(reader);
+            }
+
+            while ((combiner != null) && !queue.isEmpty() && (order.compare(queue.peek().element, element) == 0)) {
+                RunReader equalReader = queue.poll();
+                element = combiner.apply(element, equalReader.element);
+                if (equalReader.advance()) {
+                    queue.add(equalReader);
+                }
+            }
+            return element;
+        }
+
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+
+        @Override
+        public T next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+
+            T element = next;
+            try {
+                next = mergeNext();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read the sorted runs", e);
+            }
+            return element;
+        }
+
+
+        @Override
+        public void close() {
+            for (RunReader reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // nothing to do, the run is only read
+                }
+            }
+            readers.clear();
+        }
+    }
+}
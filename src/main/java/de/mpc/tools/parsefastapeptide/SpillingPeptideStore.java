@@ -0,0 +1,267 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Aggregates the peptides of a digestion within a fixed memory budget. The
+ * peptides are aggregated in memory, until the estimated size exceeds the
+ * budget. Then they are written sorted into a run file on disk and the
+ * aggregation starts anew. The runs are merged (k-way) into one aggregated
+ * and sorted run, when all peptides were added.
+ * <p>
+ * The peptides can only be read sequentially, sorted by their sequence, as
+ * lookups would need random access into the runs. All modifying methods are
+ * synchronized on the store.
+ *
+ * @author julian
+ *
+ */
+public class SpillingPeptideStore implements PeptideStore {
+
+    /** estimated bytes of one aggregated peptide in memory, without its packed residues */
+    private static final int ENTRY_OVERHEAD = 112;
+
+    /** the dictionary of the accession IDs */
+    private final AccessionDictionary accessions;
+
+    /** the memory budget of the in-memory aggregation in bytes */
+    private final long memoryBudget;
+
+    /** the peptides aggregated in memory */
+    private final PeptideTable buffer;
+
+    /** estimated size of the buffer in bytes */
+    private long bufferBytes;
+
+    /** the sorted runs on disk, equal peptides are aggregated by the merge */
+    private final SortedRuns<Map.Entry<PackedPeptide, PeptideRecord>> runs;
+
+    /** the number of peptides, if all peptides are merged into one run, -1 otherwise */
+    private int mergedSize;
+
+
+    /**
+     * Creates a store, which writes its runs into the given directory, if the
+     * peptides exceed the memory budget.
+     *
+     * @param accessions the dictionary of the accession IDs
+     * @param directory the directory for the run files
+     * @param memoryBudget the memory budget of the in-memory aggregation in bytes
+     */
+    public SpillingPeptideStore(AccessionDictionary accessions, File directory, long memoryBudget) {
+        this.accessions = accessions;
+        this.memoryBudget = memoryBudget;
+        this.buffer = new PeptideTable(16);
+        this.bufferBytes = 0;
+        this.runs = new SortedRuns<>("peptides", directory, Map.Entry.comparingByKey(),
+                SpillingPeptideStore::aggregate, new PeptideRunFormat());
+        this.mergedSize = -1;
+    }
+
+
+    @Override
+    public AccessionDictionary getAccessionDictionary() {
+        return accessions;
+    }
+
+
+    /**
+     * Returns the record of the peptide in the buffer, it is created if the
+     * peptide is not yet buffered
+     *
+     * @param peptide
+     * @return
+     */
+    private PeptideRecord getBufferedRecord(PeptideSpan peptide) {
+        int nrBuffered = buffer.size();
+        PeptideRecord record = buffer.getOrCreate(peptide);
+        if (buffer.size() > nrBuffered) {
+            bufferBytes += ENTRY_OVERHEAD + peptide.length();
+            mergedSize = -1;
+        }
+        return record;
+    }
+
+
+    @Override
+    public synchronized void addPeptide(PeptideSpan peptide, int accessionId) {
+        if (getBufferedRecord(peptide).addOccurrence(accessionId)) {
+            bufferBytes += 4;
+        }
+        spillIfFull();
+    }
+
+
+    /**
+     * Writes the buffer into a new run, if its estimated size exceeds the
+     * memory budget
+     */
+    private void spillIfFull() {
+        if (bufferBytes > memoryBudget) {
+            try {
+                writeBufferRun();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write peptide run", e);
+            }
+        }
+    }
+
+
+    /**
+     * Writes the sorted buffer into a new run and clears it
+     *
+     * @throws IOException
+     */
+    private void writeBufferRun() throws IOException {
+        List<Map.Entry<PackedPeptide, PeptideRecord>> entries = new ArrayList<>(buffer.size());
+        buffer.iterator().forEachRemaining(entries::add);
+        entries.sort(Map.Entry.comparingByKey());
+
+        runs.addRun(entries);
+
+        buffer.clear();
+        bufferBytes = 0;
+    }
+
+
+    /**
+     * Aggregates the record of an equal peptide of another run into the first
+     * entry
+     *
+     * @param entry
+     * @param equalEntry
+     * @return the first entry
+     */
+    private static Map.Entry<PackedPeptide, PeptideRecord> aggregate(Map.Entry<PackedPeptide, PeptideRecord> entry,
+            Map.Entry<PackedPeptide, PeptideRecord> equalEntry) {
+        PeptideRecord equalRecord = equalEntry.getValue();
+        entry.getValue().addOccurrences(equalRecord, equalRecord.getOccurrences());
+        return entry;
+    }
+
+
+    /**
+     * Merges the buffer and all runs into one run
+     *
+     * @throws IOException
+     */
+    private void mergeRuns() throws IOException {
+        if (mergedSize >= 0) {
+            return;
+        }
+
+        if ((buffer.size() > 0) || (runs.getNumberOfRuns() == 0)) {
+            writeBufferRun();
+        }
+        runs.reduceRuns(1);
+        mergedSize = (int) runs.countElements();
+    }
+
+
+    /**
+     * Returns the number of peptides. This merges all runs.
+     */
+    @Override
+    public synchronized int size() {
+        try {
+            mergeRuns();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not merge the peptide runs", e);
+        }
+        return mergedSize;
+    }
+
+
+    /**
+     * Returns the number of run files on disk
+     *
+     * @return
+     */
+    public synchronized int getNumberOfRuns() {
+        return runs.getNumberOfRuns();
+    }
+
+
+    /**
+     * Returns an iterator over the peptides sorted by their sequence. This
+     * merges all runs, the store must not be modified during the iteration.
+     */
+    @Override
+    public synchronized Iterator<Map.Entry<PackedPeptide, PeptideRecord>> iterator() {
+        try {
+            mergeRuns();
+            return runs.merge();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not merge the peptide runs", e);
+        }
+    }
+
+
+    /**
+     * The peptides are already sorted, so this is the same as
+     * {@link #iterator()}.
+     */
+    @Override
+    public Iterator<Map.Entry<PackedPeptide, PeptideRecord>> sortedIterator() {
+        return iterator();
+    }
+
+
+    @Override
+    public synchronized void close() {
+        runs.close();
+        buffer.clear();
+        mergedSize = -1;
+    }
+
+
+    /**
+     * Writes and reads each peptide's sequence, occurrences and accession IDs
+     * in the runs
+     */
+    private static class PeptideRunFormat implements SortedRuns.RunFormat<Map.Entry<PackedPeptide, PeptideRecord>> {
+
+        @Override
+        public void write(DataOutputStream out, Map.Entry<PackedPeptide, PeptideRecord> entry) throws IOException {
+            PackedPeptide peptide = entry.getKey();
+            PeptideRecord record = entry.getValue();
+
+            int length = peptide.length();
+            out.writeInt(length);
+            for (int i = 0; i < length; i++) {
+                out.write(peptide.charAt(i));
+            }
+            out.writeInt(record.getOccurrences());
+            out.writeInt(record.getNrAccessions());
+            for (int i = 0; i < record.getNrAccessions(); i++) {
+                out.writeInt(record.getAccessionId(i));
+            }
+        }
+
+
+        @Override
+        public Map.Entry<PackedPeptide, PeptideRecord> read(DataInputStream in) throws IOException {
+            byte[] sequence = new byte[in.readInt()];
+            in.readFully(sequence);
+            PackedPeptide peptide = PackedPeptide.pack(new String(sequence, StandardCharsets.ISO_8859_1));
+
+            int occurrences = in.readInt();
+            int[] ids = new int[in.readInt()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = in.readInt();
+            }
+            return new AbstractMap.SimpleImmutableEntry<>(peptide, PeptideRecord.ofSorted(ids, ids.length, occurrences));
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Generates synthetic proteomes as FASTA files for load and scale tests. The
+ * entries have UniProt-style headers, the residues are drawn with the
+ * amino acid frequencies of UniProtKB/Swiss-Prot and the protein lengths
+ * follow a log-normal distribution. A part of the entries are identical
+ * sequences of other organisms (duplicates) or isoforms, which differ from
+ * their canonical protein by a replaced segment.
+ * <p>
+ * The same seed and settings always generate the same proteome, independent of
+ * the machine. The entries are generated while they are written, so the size
+ * of a proteome is only limited by the disk.
+ *
+ * @author julian
+ *
+ */
+public class SyntheticProteomeGenerator {
+
+    /** the amino acids with their frequencies in percent (UniProtKB/Swiss-Prot) */
+    private static final String AMINO_ACIDS = "ARNDCQEGHILKMFPSTWYV";
+    private static final double[] AMINO_ACID_FREQUENCIES = {
+            8.25, 5.53, 4.06, 5.45, 1.37, 3.93, 6.75, 7.07, 2.27, 5.96,
+            9.66, 5.84, 2.42, 3.86, 4.70, 6.56, 5.34, 1.08, 2.92, 6.87};
+
+    /** number of bits of the residue lookup table */
+    private static final int RESIDUE_TABLE_BITS = 12;
+
+    /** the residues, each with a number of entries according to its frequency */
+    private static final byte[] RESIDUE_TABLE = createResidueTable();
+
+    /** the organisms of the entries: mnemonic, scientific name and taxonomy ID */
+    private static final String[][] ORGANISMS = {
+            {"HUMAN", "Homo sapiens", "9606"},
+            {"MOUSE", "Mus musculus", "10090"},
+            {"YEAST", "Saccharomyces cerevisiae (strain ATCC 204508 / S288c)", "559292"},
+            {"ECOLI", "Escherichia coli (strain K12)", "83333"},
+            {"ARATH", "Arabidopsis thaliana", "3702"}};
+
+    /** the characters of the alphanumeric accession positions */
+    private static final String ALPHANUMERIC = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    /** number of Swiss-Prot-style accessions ([OPQ][0-9][A-Z0-9]{3}[0-9]), before TrEMBL-style accessions are used */
+    private static final long NR_SWISSPROT_ACCESSIONS = 3L * 10 * 36 * 36 * 36 * 10;
+
+    /** number of recent canonical proteins, from which duplicates and isoforms are created */
+    private static final int POOL_SIZE = 1024;
+
+    /** the seed of the random numbers */
+    private final long seed;
+
+    /** median of the protein lengths */
+    private int medianLength;
+
+    /** standard deviation of the logarithm of the protein lengths */
+    private double lengthSigma;
+
+    /** the minimal protein length */
+    private int minLength;
+
+    /** the maximal protein length */
+    private int maxLength;
+
+    /** ratio of the entries, which duplicate the sequence of another entry */
+    private double duplicateRatio;
+
+    /** ratio of the entries, which are isoforms of another entry */
+    private double isoformRatio;
+
+    /** the number of residues per line */
+    private int lineLength;
+
+
+    /**
+     * Creates a generator with UniProt-like defaults: a median protein length
+     * of 350, 5% duplicates and 10% isoforms.
+     *
+     * @param seed
+     */
+    public SyntheticProteomeGenerator(long seed) {
+        this.seed = seed;
+        this.medianLength = 350;
+        this.lengthSigma = 0.7;
+        this.minLength = 30;
+        this.maxLength = 35000;
+        this.duplicateRatio = 0.05;
+        this.isoformRatio = 0.1;
+        this.lineLength = 60;
+    }
+
+
+    /**
+     * Creates the lookup table of the residues from the frequencies
+     *
+     * @return
+     */
+    private static byte[] createResidueTable() {
+        byte[] table = new byte[1 << RESIDUE_TABLE_BITS];
+        double sum = Arrays.stream(AMINO_ACID_FREQUENCIES).sum();
+
+        double cumulated = 0;
+        int start = 0;
+        for (int i = 0; i < AMINO_ACID_FREQUENCIES.length; i++) {
+            cumulated += AMINO_ACID_FREQUENCIES[i];
+            int end = (i + 1 < AMINO_ACID_FREQUENCIES.length) ? (int) Math.round(cumulated / sum * table.length) : table.length;
+            Arrays.fill(table, start, end, (byte) AMINO_ACIDS.charAt(i));
+            start = end;
+        }
+        return table;
+    }
+
+
+    /**
+     * Sets the log-normal distribution of the protein lengths
+     *
+     * @param medianLength the median of the lengths
+     * @param sigma the standard deviation of the logarithm of the lengths, 0
+     * for a constant length
+     */
+    public void setLengthDistribution(int medianLength, double sigma) {
+        if ((medianLength < 1) || (sigma < 0)) {
+            throw new IllegalArgumentException("Invalid length distribution, median " + medianLength + ", sigma " + sigma);
+        }
+        this.medianLength = medianLength;
+        this.lengthSigma = sigma;
+    }
+
+
+    /**
+     * Sets the limits of the protein lengths, to which the drawn lengths are
+     * cut.
+     *
+     * @param minLength
+     * @param maxLength
+     */
+    public void setLengthLimits(int minLength, int maxLength) {
+        if ((minLength < 1) || (maxLength < minLength)) {
+            throw new IllegalArgumentException("Invalid length limits " + minLength + " - " + maxLength);
+        }
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+    }
+
+
+    /**
+     * Sets the ratios of the duplicated sequences and of the isoforms in all
+     * entries.
+     *
+     * @param duplicateRatio
+     * @param isoformRatio
+     */
+    public void setRedundancy(double duplicateRatio, double isoformRatio) {
+        if ((duplicateRatio < 0) || (isoformRatio < 0) || (duplicateRatio + isoformRatio > 1)) {
+            throw new IllegalArgumentException("Invalid ratios of duplicates " + duplicateRatio
+                    + " and isoforms " + isoformRatio);
+        }
+        this.duplicateRatio = duplicateRatio;
+        this.isoformRatio = isoformRatio;
+    }
+
+
+    /**
+     * Setter for the number of residues per line in the FASTA file
+     *
+     * @param lineLength
+     */
+    public void setLineLength(int lineLength) {
+        this.lineLength = Math.max(1, lineLength);
+    }
+
+
+    /**
+     * Generates entries until the FASTA file of the entries would have (at
+     * least) the given size in bytes, the handler is called for each entry.
+     *
+     * @param targetSize the size of the uncompressed FASTA file
+     * @param handler
+     * @return the number of generated entries
+     * @throws E
+     */
+    public <E extends Exception> long generate(long targetSize, FastaEntryHandler<E> handler) throws E {
+        SplittableRandom random = new SplittableRandom(seed);
+        Protein[] pool = new Protein[POOL_SIZE];
+        int poolSize = 0;
+
+        long nrEntries = 0;
+        long nrCanonical = 0;
+        long nrAccessions = 0;
+        long size = 0;
+        while (size < targetSize) {
+            double type = random.nextDouble();
+            Protein parent = (poolSize > 0) ? pool[random.nextInt(poolSize)] : null;
+
+            String header;
+            String sequence;
+            if ((parent != null) && (type < duplicateRatio)) {
+                int organism = (parent.organism + 1 + random.nextInt(ORGANISMS.length - 1)) % ORGANISMS.length;
+                header = createHeader(createAccession(nrAccessions++), parent.gene, parent.number, organism, null);
+                sequence = parent.sequence;
+            } else if ((parent != null) && (type < duplicateRatio + isoformRatio)) {
+                parent.nrIsoforms++;
+                header = createHeader(parent.accession + "-" + parent.nrIsoforms, parent.gene, parent.number,
+                        parent.organism, "Isoform " + parent.nrIsoforms + " of ");
+                sequence = createIsoform(random, parent.sequence);
+            } else {
+                Protein protein = new Protein();
+                protein.accession = createAccession(nrAccessions++);
+                protein.number = ++nrCanonical;
+                protein.gene = "G" + Long.toString(protein.number, 36).toUpperCase();
+                protein.organism = random.nextInt(ORGANISMS.length);
+                protein.sequence = createSequence(random, nextLength(random));
+                protein.nrIsoforms = 1;
+
+                header = createHeader(protein.accession, protein.gene, protein.number, protein.organism, null);
+                sequence = protein.sequence;
+
+                if (poolSize < POOL_SIZE) {
+                    pool[poolSize++] = protein;
+                } else {
+                    pool[random.nextInt(POOL_SIZE)] = protein;
+                }
+            }
+
+            handler.processEntry(header, sequence);
+            nrEntries++;
+            // '>', header, line breaks and the sequence
+            size += header.length() + 2 + sequence.length() + (sequence.length() + lineLength - 1) / lineLength;
+        }
+
+        return nrEntries;
+    }
+
+
+    /**
+     * Writes a FASTA file of (at least) the given size. If the file name ends
+     * with ".gz", the file is gzip compressed, the size still refers to the
+     * uncompressed FASTA.
+     *
+     * @param fileName
+     * @param targetSize
+     * @return the number of written entries
+     * @throws IOException
+     */
+    public long writeFasta(String fileName, long targetSize) throws IOException {
+        OutputStream fileOut = Files.newOutputStream(Paths.get(fileName));
+        if (fileName.endsWith(".gz")) {
+            fileOut = new GZIPOutputStream(fileOut, 1 << 16);
+        }
+
+        try (OutputStream out = new BufferedOutputStream(fileOut, 1 << 20)) {
+            return generate(targetSize, (header, sequence) -> {
+                out.write('>');
+                out.write(header.getBytes(StandardCharsets.US_ASCII));
+                out.write('\n');
+
+                byte[] residues = sequence.toString().getBytes(StandardCharsets.US_ASCII);
+                for (int pos = 0; pos < residues.length; pos += lineLength) {
+                    out.write(residues, pos, Math.min(lineLength, residues.length - pos));
+                    out.write('\n');
+                }
+            });
+        }
+    }
+
+
+    /**
+     * Draws the next protein length
+     *
+     * @param random
+     * @return
+     */
+    private int nextLength(SplittableRandom random) {
+        // Box-Muller, SplittableRandom has no Gaussian numbers in Java 8
+        double gaussian = Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+        long length = Math.round(medianLength * Math.exp(lengthSigma * gaussian));
+        return (int) Math.max(minLength, Math.min(maxLength, length));
+    }
+
+
+    /**
+     * Creates a random protein sequence, starting with methionine
+     *
+     * @param random
+     * @param length
+     * @return
+     */
+    private static String createSequence(SplittableRandom random, int length) {
+        byte[] sequence = new byte[length];
+        sequence[0] = 'M';
+        for (int i = 1; i < length; i++) {
+            sequence[i] = RESIDUE_TABLE[random.nextInt(RESIDUE_TABLE.length)];
+        }
+        return new String(sequence, StandardCharsets.US_ASCII);
+    }
+
+
+    /**
+     * Creates an isoform of the given sequence, in which a segment (like an
+     * alternative exon) is replaced by a new segment of another length
+     *
+     * @param random
+     * @param sequence
+     * @return
+     */
+    private static String createIsoform(SplittableRandom random, String sequence) {
+        int maxSegment = Math.max(1, Math.min(60, sequence.length() / 4));
+        int start = 1 + random.nextInt(Math.max(1, sequence.length() - maxSegment));
+        int end = Math.min(sequence.length(), start + 1 + random.nextInt(maxSegment));
+        String segment = createSequence(random, 1 + random.nextInt(maxSegment));
+
+        // the new segment must not start with the methionine of a protein start
+        return sequence.substring(0, start) + segment.substring(1) + sequence.substring(end);
+    }
+
+
+    /**
+     * Creates the accession with the given number. The first accessions are
+     * Swiss-Prot-style, then TrEMBL-style accessions are used.
+     *
+     * @param number
+     * @return
+     */
+    private static String createAccession(long number) {
+        char[] accession;
+        long rest;
+        if (number < NR_SWISSPROT_ACCESSIONS) {
+            accession = new char[6];
+            rest = number;
+            accession[5] = ALPHANUMERIC.charAt((int) (rest % 10));
+            rest /= 10;
+            for (int i = 4; i > 1; i--) {
+                accession[i] = ALPHANUMERIC.charAt((int) (rest % 36));
+                rest /= 36;
+            }
+            accession[1] = ALPHANUMERIC.charAt((int) (rest % 10));
+            accession[0] = "OPQ".charAt((int) (rest / 10));
+        } else {
+            accession = new char[10];
+            accession[0] = 'A';
+            accession[1] = '0';
+            accession[2] = 'A';
+            rest = number - NR_SWISSPROT_ACCESSIONS;
+            for (int i = 9; i > 2; i--) {
+                accession[i] = ALPHANUMERIC.charAt((int) (rest % 36));
+                rest /= 36;
+            }
+        }
+        return new String(accession);
+    }
+
+
+    /**
+     * Creates a UniProt-style header (without the leading '&gt;')
+     *
+     * @param accession
+     * @param gene
+     * @param number the number of the canonical protein
+     * @param organism
+     * @param namePrefix prefix of the protein name or null
+     * @return
+     */
+    private static String createHeader(String accession, String gene, long number, int organism, String namePrefix) {
+        int isoformStart = accession.indexOf('-');
+        String database = (((isoformStart < 0) ? accession.length() : isoformStart) > 6) ? "tr" : "sp";
+        StringBuilder header = new StringBuilder(128);
+        header.append(database).append('|').append(accession).append('|')
+                .append(gene).append('_').append(ORGANISMS[organism][0]).append(' ');
+        if (namePrefix != null) {
+            header.append(namePrefix);
+        }
+        header.append("Synthetic protein ").append(number)
+                .append(" OS=").append(ORGANISMS[organism][1])
+                .append(" OX=").append(ORGANISMS[organism][2])
+                .append(" GN=").append(gene)
+                .append(" PE=").append("sp".equals(database) ? 1 : 4)
+                .append(" SV=1");
+        return header.toString();
+    }
+
+
+    /**
+     * Parses a size like "500MB" or "2G" into bytes
+     *
+     * @param size
+     * @return
+     */
+    static long parseSize(String size) {
+        String value = size.trim().toUpperCase();
+        if (value.endsWith("B")) {
+            value = value.substring(0, value.length() - 1);
+        }
+
+        int shift = 0;
+        if (!value.isEmpty()) {
+            int unit = "KMGT".indexOf(value.charAt(value.length() - 1));
+            if (unit >= 0) {
+                shift = 10 * (unit + 1);
+                value = value.substring(0, value.length() - 1);
+            }
+        }
+        return (long) (Double.parseDouble(value) * (1L << shift));
+    }
+
+
+    /**
+     * A canonical protein, from which duplicates and isoforms are created
+     */
+    private static class Protein {
+        private String accession;
+        private String gene;
+        private long number;
+        private int organism;
+        private String sequence;
+        private int nrIsoforms;
+    }
+
+
+    public static void main(String[] argv) throws IOException {
+        if (argv.length < 2) {
+            System.out.println("usage: SyntheticProteomeGenerator <fastaFile[.gz]> <size, e.g. 500MB or 100GB> [seed]");
+            return;
+        }
+
+        long size = parseSize(argv[1]);
+        long seed = (argv.length > 2) ? Long.parseLong(argv[2]) : 42;
+
+        System.out.println("generating " + size + " bytes with seed " + seed + " into " + argv[0]);
+        long nrEntries = new SyntheticProteomeGenerator(seed).writeFasta(argv[0], size);
+        System.out.println("generated " + nrEntries + " entries");
+    }
+}
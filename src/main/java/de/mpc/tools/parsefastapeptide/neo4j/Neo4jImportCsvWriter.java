@@ -0,0 +1,365 @@
+package de.mpc.tools.parsefastapeptide.neo4j;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.mpc.tools.parsefastapeptide.IonIndexWriter;
+import de.mpc.tools.parsefastapeptide.PackedPeptide;
+import de.mpc.tools.parsefastapeptide.PeptideMassCalculator;
+
+
+/**
+ * Writes the accessions, peptides and ions in the CSV layout of
+ * <code>neo4j-admin import</code>, so the graph can be built offline instead
+ * of inserting it with a {@link org.neo4j.unsafe.batchinsert.BatchInserter}.
+ * <p>
+ * The entries are written concurrently by the digestion threads, each thread
+ * writes its own part files. The node IDs of the peptides and ions are
+ * strings derived from the content (the peptide sequence and the sequence with
+ * charge and modification ID of the ions), so they are stable between exports.
+ * Each peptide with its ions is written once by the thread, which claims it
+ * first in a shared {@link PeptideNodeIndex}. Like the batch inserter, each
+ * FASTA entry gets its own accession node, also if the accession occurs in
+ * several entries, so the accession nodes are identified by the number of the
+ * entry.
+ * <p>
+ * On closing, the header files, an <code>import.sh</code> calling
+ * <code>neo4j-admin import</code> with all parts and an
+ * <code>indexes.cypher</code> creating the indizes are written.
+ *
+ * @author julian
+ *
+ */
+class Neo4jImportCsvWriter implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger("Neo4jImportCsvWriter");
+
+    private static final String ACCESSIONS = "accessions";
+    private static final String PEPTIDES = "peptides";
+    private static final String IONS = "ions";
+    private static final String ACCESSION_PEPTIDES = "accession_peptide";
+    private static final String PEPTIDE_IONS = "peptide_ion";
+
+    /** size of the buffers of the part files */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** the directory of the CSV files */
+    private final File directory;
+
+    /** considered fixed modifications */
+    private final Map<Character, Double> fixedModifications;
+
+    /** considered variable modifications */
+    private final Map<Character, Double> variableModifications;
+
+    /** charges for the ions */
+    private final Integer[] charges;
+
+    /** the maximal number of variable modifications per ion */
+    private final int maxVariableModifications;
+
+    /** whether the unmodified ion should be written as well, if fixed modifications are given */
+    private final boolean encodeUnmodified;
+
+    /** the peptides claimed by any thread, the node IDs are not used */
+    private final PeptideNodeIndex writtenPeptides;
+
+    /** the number of written entries, the next entry's accession node ID */
+    private final AtomicLong nrEntries;
+
+    /** the part writers of all threads */
+    private final List<PartWriter> partWriters;
+
+    /** the part writer of the current thread */
+    private final ThreadLocal<PartWriter> threadPartWriter;
+
+
+    /**
+     * Creates a writer into the given directory, which is created if needed
+     *
+     * @param directory
+     * @param fixedModifications
+     * @param variableModifications
+     * @param charges
+     * @param maxVariableModifications
+     * @param encodeUnmodified
+     * @throws IOException
+     */
+    public Neo4jImportCsvWriter(File directory, Map<Character, Double> fixedModifications,
+            Map<Character, Double> variableModifications, Integer[] charges, int maxVariableModifications,
+            boolean encodeUnmodified) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+
+        this.directory = directory;
+        this.fixedModifications = fixedModifications;
+        this.variableModifications = variableModifications;
+        this.charges = charges;
+        this.maxVariableModifications = maxVariableModifications;
+        this.encodeUnmodified = encodeUnmodified;
+
+        this.writtenPeptides = new PeptideNodeIndex();
+        this.nrEntries = new AtomicLong();
+        this.partWriters = new ArrayList<>();
+        this.threadPartWriter = new ThreadLocal<>();
+    }
+
+
+    /**
+     * Writes the accession and its peptides, the peptides not written before
+     * are written with their ions. Called concurrently by the digestion
+     * threads.
+     *
+     * @param header the FASTA header
+     * @param peptides the unique peptides of the accession
+     * @throws IOException
+     */
+    public void writeEntry(String header, Collection<PackedPeptide> peptides) throws IOException {
+        PartWriter part = getPartWriter();
+
+        String accessionNodeId = Long.toString(nrEntries.getAndIncrement());
+        String[] splitHeader = header.split("\\s", 2);
+        String accession = splitHeader[0];
+        part.accessions.append(accessionNodeId).append(',').append(quote(accession)).append(',')
+                .append(quote((splitHeader.length > 1) ? splitHeader[1] : accession)).append('\n');
+
+        List<PackedPeptide> newPeptides = new ArrayList<>();
+        synchronized (writtenPeptides) {
+            for (PackedPeptide peptide : peptides) {
+                if (writtenPeptides.get(peptide) < 0) {
+                    writtenPeptides.put(peptide, 0);
+                    newPeptides.add(peptide);
+                }
+            }
+        }
+
+        for (PackedPeptide peptide : peptides) {
+            part.accessionPeptides.append(accessionNodeId).append(',').append(peptide).append('\n');
+        }
+
+        for (PackedPeptide peptide : newPeptides) {
+            part.writePeptide(peptide.toString());
+        }
+    }
+
+
+    /**
+     * Returns the part writer of the current thread, it is created on the
+     * first call
+     *
+     * @return
+     * @throws IOException
+     */
+    private PartWriter getPartWriter() throws IOException {
+        PartWriter part = threadPartWriter.get();
+        if (part == null) {
+            synchronized (partWriters) {
+                part = new PartWriter(partWriters.size());
+                partWriters.add(part);
+            }
+            threadPartWriter.set(part);
+        }
+        return part;
+    }
+
+
+    /**
+     * Quotes the value for the CSV files, quotes in the value are doubled
+     *
+     * @param value
+     * @return
+     */
+    private static String quote(String value) {
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+
+    private File getPartFile(String name, int part) {
+        return new File(directory, name + "-part" + part + ".csv");
+    }
+
+
+    private static Writer openWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8),
+                BUFFER_SIZE);
+    }
+
+
+    private void writeFile(String fileName, String content) throws IOException {
+        try (Writer writer = openWriter(new File(directory, fileName))) {
+            writer.write(content);
+        }
+    }
+
+
+    /**
+     * Returns the header file followed by all part files of the given name,
+     * separated by commas
+     *
+     * @param name
+     * @return
+     */
+    private String getFileList(String name) {
+        StringBuilder files = new StringBuilder(name).append("_header.csv");
+        for (int part = 0; part < partWriters.size(); part++) {
+            files.append(',').append(getPartFile(name, part).getName());
+        }
+        return files.toString();
+    }
+
+
+    /**
+     * Closes the part files and writes the header files, the import script and
+     * the index creation
+     */
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (PartWriter part : partWriters) {
+            try {
+                part.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+
+        writeFile(ACCESSIONS + "_header.csv", ":ID(accession),accession,description\n");
+        writeFile(PEPTIDES + "_header.csv", "sequence:ID(peptide),length:int\n");
+        writeFile(IONS + "_header.csv", ":ID(ion),mass_to_charge:double\n");
+        writeFile(ACCESSION_PEPTIDES + "_header.csv", ":START_ID(accession),:END_ID(peptide)\n");
+        writeFile(PEPTIDE_IONS + "_header.csv",
+                ":START_ID(peptide),:END_ID(ion),charge:int,modification_fixed,modification_variable\n");
+
+        writeFile("import.sh", "#!/bin/sh\n"
+                + "# Builds the graph from the CSV files, the database must not exist yet.\n"
+                + "# Afterwards create the indizes with: cypher-shell < indexes.cypher\n"
+                + "cd \"$(dirname \"$0\")\" || exit 1\n"
+                + "neo4j-admin import --mode=csv --database=\"${1:-graph.db}\" --id-type=STRING \\\n"
+                + "    --nodes:accession=\"" + getFileList(ACCESSIONS) + "\" \\\n"
+                + "    --nodes:peptide=\"" + getFileList(PEPTIDES) + "\" \\\n"
+                + "    --nodes:ion=\"" + getFileList(IONS) + "\" \\\n"
+                + "    --relationships:BELONGS_TO=\"" + getFileList(ACCESSION_PEPTIDES) + "\" \\\n"
+                + "    --relationships:BELONGS_TO=\"" + getFileList(PEPTIDE_IONS) + "\"\n");
+        new File(directory, "import.sh").setExecutable(true);
+
+        writeFile("indexes.cypher", "CREATE INDEX ON :peptide(sequence);\n"
+                + "CREATE INDEX ON :accession(accession);\n"
+                + "CREATE INDEX ON :ion(mass_to_charge);\n");
+    }
+
+
+    /**
+     * The part files of one thread
+     */
+    private class PartWriter implements Closeable {
+
+        private final Writer accessions;
+
+        private final Writer peptides;
+
+        private final Writer ions;
+
+        private final Writer accessionPeptides;
+
+        private final Writer peptideIons;
+
+        /** calculates the masses of the peptides of this thread */
+        private final PeptideMassCalculator massCalculator;
+
+
+        private PartWriter(int part) throws IOException {
+            this.accessions = openWriter(getPartFile(ACCESSIONS, part));
+            this.peptides = openWriter(getPartFile(PEPTIDES, part));
+            this.ions = openWriter(getPartFile(IONS, part));
+            this.accessionPeptides = openWriter(getPartFile(ACCESSION_PEPTIDES, part));
+            this.peptideIons = openWriter(getPartFile(PEPTIDE_IONS, part));
+            this.massCalculator = new PeptideMassCalculator(fixedModifications, variableModifications);
+        }
+
+
+        /**
+         * Writes the peptide node and its ions with all charges and
+         * modifications
+         *
+         * @param sequence
+         * @throws IOException
+         */
+        private void writePeptide(String sequence) throws IOException {
+            peptides.append(sequence).append(',').append(Integer.toString(sequence.length())).append('\n');
+
+            try {
+                massCalculator.forEachModifiedForm(sequence, maxVariableModifications, encodeUnmodified,
+                        (theoreticalMass, withFixed, variableMask) ->
+                                writeIons(sequence, theoreticalMass, withFixed, variableMask));
+            } catch (IllegalArgumentException e) {
+                // the peptide has unknown residues or too many modification sites
+                LOGGER.warn("Skipping the ions of peptide {}: {}", sequence, e.getMessage());
+            }
+        }
+
+
+        /**
+         * Writes the ions of all charges for the given modified form of the
+         * current peptide. The ion IDs consist of the sequence, the charge and
+         * the modification ID like in the {@link IonIndexWriter}.
+         *
+         * @param sequence
+         * @param theoreticalMass
+         * @param withFixed
+         * @param variableMask
+         * @throws IOException
+         */
+        private void writeIons(String sequence, double theoreticalMass, boolean withFixed, long variableMask)
+                throws IOException {
+            // quoted, so the empty modifications are imported as empty Strings
+            String fixed = withFixed ? massCalculator.getFixedModificationsString() : "";
+            String variable = massCalculator.getVariableModificationsString(variableMask);
+            String modificationId = Long.toHexString(
+                    withFixed ? (variableMask | IonIndexWriter.FIXED_MODIFICATIONS_FLAG) : variableMask);
+
+            for (Integer charge : charges) {
+                String ionId = sequence + '_' + charge + '_' + modificationId;
+                ions.append(ionId).append(',')
+                        .append(Double.toString(PeptideMassCalculator.calculateMassToCharge(theoreticalMass, charge)))
+                        .append('\n');
+                peptideIons.append(sequence).append(',').append(ionId).append(',')
+                        .append(charge.toString()).append(',')
+                        .append(quote(fixed)).append(',').append(quote(variable)).append('\n');
+            }
+        }
+
+
+        @Override
+        public void close() throws IOException {
+            IOException error = null;
+            for (Writer writer : new Writer[]{accessions, peptides, ions, accessionPeptides, peptideIons}) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+}
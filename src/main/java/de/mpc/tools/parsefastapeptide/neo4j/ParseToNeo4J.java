@@ -2,25 +2,26 @@ package de.mpc.tools.parsefastapeptide.neo4j;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableSet;
-import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 import org.neo4j.graphdb.schema.Schema;
@@ -30,10 +31,9 @@ import org.neo4j.unsafe.batchinsert.BatchInserters;
 import de.mpc.tools.parsefastapeptide.AbstractFastaParser;
 import de.mpc.tools.parsefastapeptide.DigestException;
 import de.mpc.tools.parsefastapeptide.Enzyme;
+import de.mpc.tools.parsefastapeptide.PackedPeptide;
+import de.mpc.tools.parsefastapeptide.PeptideMassCalculator;
 import de.mpc.tools.parsefastapeptide.ProteinDigester;
-import uk.ac.ebi.pride.utilities.mol.MoleculeUtilities;
-import uk.ac.ebi.pride.utilities.mol.NeutralLoss;
-import uk.ac.ebi.pride.utilities.mol.NuclearParticle;
 
 
 public class ParseToNeo4J extends AbstractFastaParser {
@@ -66,19 +66,61 @@ public class ParseToNeo4J extends AbstractFastaParser {
     private Map<Character, Double> variableModifications;
 
 
+    /** the maximal number of variable modifications per ion */
+    private int maxVariableModifications;
+
     /** whether the unmodified ion should be stored as well, if fixed modifications are given */
     private boolean encodeUnmodified = true;
 
+    /** calculates the masses of the peptides and their modifications, used by the inserter thread */
+    private PeptideMassCalculator massCalculator;
+
+    /** reused properties of the ion nodes */
+    private final Map<String, Object> ionProperties = new HashMap<>(1);
+
+    /** reused properties of the relationships from the peptides to the ions */
+    private final Map<String, Object> ionisationProperties = new HashMap<>(3);
+
+    /** whether the ions are stored as array properties of the peptides instead of ion nodes */
+    private boolean compactIons;
+
+    /** the dictionary of the compact schema, mapping the encoded modifications to their indices */
+    private final Map<String, Integer> modificationIndices = new HashMap<>();
+
+    /** the m/z values of the compact ions of the current peptide */
+    private double[] compactMassToCharges = new double[64];
+
+    /** the charges of the compact ions of the current peptide */
+    private int[] compactCharges = new int[64];
+
+    /** the modification indices of the compact ions of the current peptide */
+    private int[] compactModifications = new int[64];
+
+    /** number of compact ions of the current peptide */
+    private int nrCompactIons;
+
     /** counter for the processed accessions */
     private long processedAccessions;
 
 
 
-    /** mapping from peptide sequences to the position of the accessions in this batch-round only */
-    private TreeMap<String, Set<Integer>> peptidesInBatch;
+    /** the batch, which is currently filled by the parsing threads */
+    private PeptideBatch currentBatch;
+
+    /** the lock for filling the current batch */
+    private final Object batchLock = new Object();
+
+    /** the full batches, waiting for the insertion into the DB */
+    private BlockingQueue<PeptideBatch> batchQueue;
 
-    /** the accessions in this batch */
-    private List<String> accessionsInBatch;
+    /** the maximal number of full batches waiting for the insertion */
+    private int maxQueuedBatches;
+
+    /** the batch queued after the last batch, which ends the insertion */
+    private static final PeptideBatch END_OF_BATCHES = new PeptideBatch();
+
+    /** the first error while inserting the batches, any exception ends the insertion */
+    private volatile Throwable insertionError;
 
     /** counter for added peptides*/
     private long addedPeptides;
@@ -88,11 +130,27 @@ public class ParseToNeo4J extends AbstractFastaParser {
 
     private boolean pepSequenceIndexCreated;
 
+    /** whether one batch inserter is used for the whole import, instead of one per batch */
+    private boolean singleInserterSession;
+
+    /** the batch inserter of the whole import, when using a single session */
+    private BatchInserter sessionInserter;
+
+    /** the node IDs of the peptides inserted in the single session */
+    private PeptideNodeIndex peptideNodeIds;
+
+    /** the directory for the export as neo4j-admin import CSV files, null to insert into the DB */
+    private String csvExportPath;
+
+    /** writes the CSV files while exporting */
+    private Neo4jImportCsvWriter csvWriter;
+
 
     // constants
     private static final Label LABEL_ACCESSION = Label.label("accession");
     private static final Label LABEL_PEPTIDE = Label.label("peptide");
     private static final Label LABEL_ION = Label.label("ion");
+    private static final Label LABEL_MODIFICATION = Label.label("modification");
 
     private static final String PROPERTY_SEQUENCE = "sequence";
     private static final String PROPERTY_ACCESSION = "accession";
@@ -102,8 +160,10 @@ public class ParseToNeo4J extends AbstractFastaParser {
     private static final String PROPERTY_MODIFICATION_FIXED = "modification_fixed";
     private static final String PROPERTY_MODIFICATION_VARIABLE = "modification_variable";
     private static final String PROPERTY_MASS_TO_CHARGE = "mass_to_charge";
-
-    private static final CharSequence FIXED_MODIFICATION_SPLITTER = "---";
+    private static final String PROPERTY_MODIFICATION_INDEX = "modification_index";
+    private static final String PROPERTY_ION_MASS_TO_CHARGE = "ion_mass_to_charge";
+    private static final String PROPERTY_ION_CHARGE = "ion_charge";
+    private static final String PROPERTY_ION_MODIFICATION = "ion_modification";
 
 
     // user: neo4j
@@ -131,16 +191,26 @@ public class ParseToNeo4J extends AbstractFastaParser {
         variableModifications = new HashMap<>();
         variableModifications.put('M', 15.994915);
 
+        maxVariableModifications = PeptideMassCalculator.MAX_VARIABLE_SITES;
+
+        massCalculator = new PeptideMassCalculator(fixedModifications, variableModifications);
+
         maxPeptidesBeforeInsert = 5000000;
+        maxQueuedBatches = 1;
         // <<<<<<< settings up to here
 
         processedAccessions = 0;
         addedPeptides = 0;
         pepSequenceIndexCreated = false;
+        singleInserterSession = false;
+        sessionInserter = null;
+        peptideNodeIds = null;
+        csvExportPath = null;
+        csvWriter = null;
+        compactIons = false;
 
         // caching of peptides for the insertion round
-        peptidesInBatch = new TreeMap<>();
-        accessionsInBatch = new ArrayList<>();
+        currentBatch = new PeptideBatch();
 
         initializeGraphDB();
     }
@@ -157,10 +227,88 @@ public class ParseToNeo4J extends AbstractFastaParser {
     }
 
 
+    /**
+     * Sets the maximal number of variable modifications per ion. The ions of
+     * a peptide grow exponentially with its modification sites, if this is
+     * not limited. By default, all combinations of the modification sites are
+     * added.
+     *
+     * @param maxVariableModifications
+     */
+    public void setMaxVariableModifications(int maxVariableModifications) {
+        this.maxVariableModifications = Math.max(0, maxVariableModifications);
+        LOGGER.info("set maximal number of variable modifications per ion to {}", this.maxVariableModifications);
+    }
+
+
+    /**
+     * Sets the maximal number of full batches, which wait for their insertion
+     * while the parsing continues. If the queue is full, the parsing threads
+     * wait for the inserter.
+     *
+     * @param maxQueuedBatches
+     */
+    public void setMaxQueuedBatches(int maxQueuedBatches) {
+        this.maxQueuedBatches = Math.max(1, maxQueuedBatches);
+    }
+
+
+    /**
+     * Sets whether one {@link BatchInserter} is kept open for the whole
+     * import. The peptides already in the graph are then resolved by an index
+     * in memory instead of opening the database for each batch, so this should
+     * only be used for a new database.
+     *
+     * @param singleInserterSession
+     */
+    public void setSingleInserterSession(boolean singleInserterSession) {
+        this.singleInserterSession = singleInserterSession;
+        LOGGER.info("using a single batch inserter session: {}", singleInserterSession);
+    }
+
+
+    /**
+     * Sets the directory, into which the graph is exported as CSV files for
+     * <code>neo4j-admin import</code> instead of inserting it into the DB. The
+     * digestion threads write the files in parallel, the generated
+     * <code>import.sh</code> builds the graph offline.
+     *
+     * @param csvExportPath the directory or null to insert into the DB
+     */
+    public void setCsvExportPath(String csvExportPath) {
+        this.csvExportPath = csvExportPath;
+        LOGGER.info("exporting CSV files for neo4j-admin import to {}", csvExportPath);
+    }
+
+
+    /**
+     * Sets whether the ions are stored in the compact schema: instead of one
+     * ion node and relationship per charge and modified form, each peptide
+     * node gets the parallel array properties
+     * <code>ion_mass_to_charge</code>, <code>ion_charge</code> and
+     * <code>ion_modification</code>. The latter are the indices of the
+     * <code>modification</code> nodes, which hold the encoded fixed and
+     * variable modifications once for all peptides.
+     * <p>
+     * The modification nodes of an existing database are loaded before the
+     * import, so further imports extend its dictionary. The m/z lookup is
+     * best served by an {@link de.mpc.tools.parsefastapeptide.IonIndex}.
+     * The CSV export always uses ion nodes.
+     *
+     * @param compactIons
+     */
+    public void setCompactIons(boolean compactIons) {
+        this.compactIons = compactIons;
+        LOGGER.info("storing the ions as arrays of the peptides: {}", compactIons);
+    }
+
+
     /**
      * Shuts down the database connection
      */
     public void shutdown() {
+        closeSessionInserter();
+
         LOGGER.info("Cleaning up temp files.");
 
         // nothing on file level to do anymore
@@ -201,102 +349,299 @@ public class ParseToNeo4J extends AbstractFastaParser {
     }
 
 
+    /**
+     * Parses the FASTA file and inserts the peptides into the DB. The parsing
+     * and digestion (by the parsing threads) and the insertion of the full
+     * batches (by a separate inserter thread) run concurrently.
+     */
     @Override
     public int parseFastaFile() throws IOException {
-        int parsedEntries = super.parseFastaFile();
+        if (csvExportPath != null) {
+            return exportFastaFile();
+        }
 
-        // insert the last peptides
-        insertPeptidesOfBatchIntoDB();
-        LOGGER.info("Added {} peptides to the DB.", addedPeptides);
+        if (compactIons) {
+            loadModificationIndices();
+        }
 
-        // add the indizes
-        createIndizes();
+        batchQueue = new ArrayBlockingQueue<>(maxQueuedBatches);
+        insertionError = null;
+
+        Thread inserterThread = new Thread(this::insertQueuedBatches, "neo4j-inserter");
+        inserterThread.start();
+
+        int parsedEntries;
+        try {
+            try {
+                parsedEntries = super.parseFastaFile();
+
+                // insert the last peptides
+                enqueueBatch(currentBatch);
+                currentBatch = new PeptideBatch();
+            } finally {
+                enqueueBatch(END_OF_BATCHES);
+                try {
+                    inserterThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while inserting the peptides");
+                }
+            }
+
+            if (insertionError instanceof IOException) {
+                throw (IOException) insertionError;
+            } else if (insertionError instanceof RuntimeException) {
+                throw (RuntimeException) insertionError;
+            } else if (insertionError instanceof Error) {
+                throw (Error) insertionError;
+            }
+            LOGGER.info("Added {} peptides to the DB.", addedPeptides);
+
+            // add the indizes
+            if (sessionInserter != null) {
+                createDeferredIndizes(sessionInserter);
+            } else {
+                createIndizes();
+            }
+        } finally {
+            // the batch inserter locks the DB, so it is closed after errors as well
+            closeSessionInserter();
+        }
 
         return parsedEntries;
     }
 
 
-    @Override
-    public void processEntry(String header, StringBuilder proteinSequence) {
-        Integer accessionID = accessionsInBatch.size();
-        accessionsInBatch.add(header);
+    /**
+     * Parses the FASTA file and writes the graph as CSV files, the digestion
+     * threads write the entries directly.
+     *
+     * @return
+     * @throws IOException
+     */
+    private int exportFastaFile() throws IOException {
+        int parsedEntries;
+        try (Neo4jImportCsvWriter writer = new Neo4jImportCsvWriter(new File(csvExportPath), fixedModifications,
+                variableModifications, charges, maxVariableModifications, encodeUnmodified)) {
+            csvWriter = writer;
+            parsedEntries = super.parseFastaFile();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            csvWriter = null;
+        }
+
+        LOGGER.info("Exported {} entries to {}, import them with import.sh", parsedEntries, csvExportPath);
+        return parsedEntries;
+    }
+
 
+    /**
+     * Digests the entry and caches its peptides for the next batch insertion.
+     * The digestion runs concurrently in the parsing threads, only adding the
+     * peptides to the shared batch is synchronized. If the batch is full, it
+     * is queued for the inserter thread. When exporting CSV files, the entry is
+     * written directly by the parsing thread.
+     */
+    @Override
+    public void processEntry(String header, CharSequence proteinSequence) {
+        List<PackedPeptide> peptides = new ArrayList<>();
         try {
-            // digest the sequence and cache the peptides
-            enzyme.digest(proteinSequence.toString())
-                    .forEach(peptide -> {
-                        if (MoleculeUtilities.isAminoAcidSequence(peptide)) {
-                            // save accession Id for the peptide
-                            peptidesInBatch.computeIfAbsent(peptide, pep -> new HashSet<Integer>()).add(accessionID);
-                        } else {
-                            LOGGER.error("Could not add peptide for '{}', this is considered to be no peptide sequence: '{}'", header, peptide);
-                        }
-                    });
+            // only the peptides of invalid proteins must be checked
+            boolean validProtein = PeptideMassCalculator.isAminoAcidSequence(proteinSequence);
+
+            enzyme.digest(proteinSequence, peptide -> {
+                if (!validProtein && !PeptideMassCalculator.isAminoAcidSequence(peptide)) {
+                    LOGGER.error("Could not add peptide for '{}', this is considered to be no peptide sequence: '{}'", header, peptide);
+                    return;
+                }
+                peptides.add(PackedPeptide.pack(peptide));
+            });
         } catch (DigestException e) {
             LOGGER.error("error digesting sequence: {}", proteinSequence, e);
         }
 
-        processedAccessions++;
-        if (processedAccessions % 10000 == 0) {
-            LOGGER.info("processed {} entries ({} peptides in batch)...", processedAccessions, peptidesInBatch.size());
+        if (csvWriter != null) {
+            try {
+                csvWriter.writeEntry(header, new LinkedHashSet<>(peptides));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+
+        PeptideBatch fullBatch = null;
+        synchronized (batchLock) {
+            int accessionID = currentBatch.addAccession(header);
+            for (PackedPeptide peptide : peptides) {
+                currentBatch.addPeptide(peptide, accessionID);
+            }
+
+            processedAccessions++;
+            if (processedAccessions % 10000 == 0) {
+                LOGGER.info("processed {} entries ({} peptides in batch)...", processedAccessions, currentBatch.size());
+            }
+
+            if (currentBatch.size() >= maxPeptidesBeforeInsert) {
+                fullBatch = currentBatch;
+                currentBatch = new PeptideBatch();
+            }
         }
 
-        if (peptidesInBatch.size() >= maxPeptidesBeforeInsert) {
-            insertPeptidesOfBatchIntoDB();
+        if (fullBatch != null) {
+            // blocks, while the queue is full
+            enqueueBatch(fullBatch);
         }
     }
 
 
     /**
-     * Processes the peptides of the batch into the graphDB
+     * Puts the batch into the queue of the inserter thread, waits while the
+     * queue is full.
+     *
+     * @param batch
      */
-    private void insertPeptidesOfBatchIntoDB() {
-        LOGGER.info("insert batch called with {} accessions and {} peptides", processedAccessions, peptidesInBatch.size());
-
-        List<Long> batchPeptidesIDs = getPeptideIDsInGraph(peptidesInBatch.navigableKeySet());
-
+    private void enqueueBatch(PeptideBatch batch) {
         try {
-            BatchInserter batchInserter = BatchInserters.inserter( new File(dbPath) );
+            batchQueue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while queueing a batch"));
+        }
+    }
 
-            // add accessions to graph and map to the accession IDs in the graph
-            List<Long> accessionIds = accessionsInBatch.stream()
-                    .map(header -> addAccessionToGraph(header, batchInserter))
-                    .collect(Collectors.toList());
-
-            int count = 0;
-            int peptidesInBatchSize = peptidesInBatch.size();
-            Iterator<Map.Entry<String, Set<Integer>>> pepsInBatchIter = peptidesInBatch.entrySet().iterator();
-            while (pepsInBatchIter.hasNext()) {
-                Map.Entry<String, Set<Integer>> pepInBatch = pepsInBatchIter.next();
-
-                // get peptide's ID or create it
-                Long pepNodeId = batchPeptidesIDs.get(count);
-                if (pepNodeId == null) {
-                    pepNodeId = insertPeptideInDB(pepInBatch.getKey(), batchInserter);
-                }
 
-                // connect to accessions
-                for (Integer acc : pepInBatch.getValue()) {
-                    Long accNodeId = accessionIds.get(acc);
-                    batchInserter.createRelationship(accNodeId, pepNodeId, DigestedRelTypes.BELONGS_TO, null);
+    /**
+     * Inserts the queued batches until the end of the parsing. After any error
+     * (not only an IOException), the remaining batches are only taken from the
+     * queue, so the parsing threads do not wait forever.
+     */
+    private void insertQueuedBatches() {
+        try {
+            while (true) {
+                PeptideBatch batch = batchQueue.take();
+                if (batch == END_OF_BATCHES) {
+                    break;
                 }
 
-                pepsInBatchIter.remove();
-                if (++count % (peptidesInBatchSize / 10) == 0) {
-                    LOGGER.info("added {} of {} peptides", count, peptidesInBatchSize);
+                if (insertionError == null) {
+                    try {
+                        insertPeptidesOfBatchIntoDB(batch);
+                    } catch (Throwable e) {
+                        LOGGER.error("error while inserting batch of peptides", e);
+                        insertionError = e;
+                    }
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            insertionError = new InterruptedIOException("Interrupted while inserting the peptides");
+        }
+    }
+
+
+    /**
+     * Processes the peptides of the batch into the graphDB. Called by the
+     * inserter thread, package-private for testing the error handling.
+     *
+     * @param batch
+     * @throws IOException
+     */
+    void insertPeptidesOfBatchIntoDB(PeptideBatch batch) throws IOException {
+        LOGGER.info("insert batch called with {} accessions and {} peptides", batch.getAccessions().size(), batch.size());
+
+        if (singleInserterSession) {
+            insertBatch(batch, batch.getSortedPeptides(), getSessionInserter(), null);
+        } else {
+            PackedPeptide[] peptides = batch.getSortedPeptides();
+            List<Long> batchPeptidesIDs = getPeptideIDsInGraph(peptides);
+
+            BatchInserter batchInserter = BatchInserters.inserter( new File(dbPath) );
+            insertBatch(batch, peptides, batchInserter, batchPeptidesIDs);
 
             LOGGER.info("Closing batch inserter.");
             batchInserter.shutdown();
             LOGGER.info("Batch inserter closed.");
-        } catch (IOException e) {
-            LOGGER.error("error while inserting batch of peptides", e);
         }
+    }
 
-        // clearing the batch entries
-        peptidesInBatch.clear();
-        accessionsInBatch.clear();
+
+    /**
+     * Inserts the accessions and peptides of the batch with the given
+     * inserter.
+     *
+     * @param batch
+     * @param peptides the sorted peptides of the batch
+     * @param batchInserter
+     * @param batchPeptidesIDs the IDs of the peptides already in the graph, in
+     * the order of the peptides, or null to use the index of the single session
+     */
+    private void insertBatch(PeptideBatch batch, PackedPeptide[] peptides, BatchInserter batchInserter,
+            List<Long> batchPeptidesIDs) {
+        // add accessions to graph and map to the accession IDs in the graph
+        long[] accessionIds = batch.getAccessions().stream()
+                .mapToLong(header -> addAccessionToGraph(header, batchInserter))
+                .toArray();
+
+        for (int count = 0; count < peptides.length; count++) {
+            PackedPeptide peptide = peptides[count];
+
+            // get peptide's ID or create it
+            Long pepNodeId;
+            if (batchPeptidesIDs != null) {
+                pepNodeId = batchPeptidesIDs.get(count);
+            } else {
+                long indexedId = peptideNodeIds.get(peptide);
+                pepNodeId = (indexedId >= 0) ? indexedId : null;
+            }
+
+            if (pepNodeId == null) {
+                pepNodeId = insertPeptideInDB(peptide.toString(), batchInserter);
+                if (batchPeptidesIDs == null) {
+                    peptideNodeIds.put(peptide, pepNodeId);
+                }
+            }
+
+            // connect to accessions
+            for (int acc : batch.getAccessionPositions(peptide)) {
+                batchInserter.createRelationship(accessionIds[acc], pepNodeId, DigestedRelTypes.BELONGS_TO, null);
+            }
+
+            if ((count + 1) % Math.max(1, peptides.length / 10) == 0) {
+                LOGGER.info("added {} of {} peptides", count + 1, peptides.length);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the batch inserter of the single session, it is opened on the
+     * first call.
+     *
+     * @return
+     * @throws IOException
+     */
+    private BatchInserter getSessionInserter() throws IOException {
+        if (sessionInserter == null) {
+            LOGGER.info("Opening batch inserter for the whole import.");
+            sessionInserter = BatchInserters.inserter( new File(dbPath) );
+            peptideNodeIds = new PeptideNodeIndex();
+        }
+        return sessionInserter;
+    }
+
+
+    /**
+     * Closes the batch inserter of the single session, if it is open
+     */
+    private void closeSessionInserter() {
+        if (sessionInserter != null) {
+            LOGGER.info("Closing batch inserter, {} peptides in the index.", peptideNodeIds.size());
+            sessionInserter.shutdown();
+            sessionInserter = null;
+            peptideNodeIds = null;
+            LOGGER.info("Batch inserter closed.");
+        }
     }
 
 
@@ -305,7 +650,7 @@ public class ParseToNeo4J extends AbstractFastaParser {
      * @param peptides
      * @return IDs of the peptides, in the same order as the given peptides
      */
-    private List<Long> getPeptideIDsInGraph(NavigableSet<String> peptides) {
+    private List<Long> getPeptideIDsInGraph(PackedPeptide[] peptides) {
         LOGGER.info("Getting IDs of batch's peptides, that are already in the DB");
 
         GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase( new File(dbPath) );
@@ -316,12 +661,12 @@ public class ParseToNeo4J extends AbstractFastaParser {
             createPeptideSequenceIndex(graphDb);
         }
 
-        List<Long> pepIdList = new ArrayList<>(peptides.size());
+        List<Long> pepIdList = new ArrayList<>(peptides.length);
         int countIdList = 0;
 
         try (Transaction tx = graphDb.beginTx()) {
-            for (String peptide : peptides) {
-                Node pepNode = graphDb.findNode(LABEL_PEPTIDE, PROPERTY_SEQUENCE, peptide);
+            for (PackedPeptide peptide : peptides) {
+                Node pepNode = graphDb.findNode(LABEL_PEPTIDE, PROPERTY_SEQUENCE, peptide.toString());
                 if (pepNode != null) {
                     pepIdList.add(pepNode.getId());
                     countIdList++;
@@ -372,9 +717,20 @@ public class ParseToNeo4J extends AbstractFastaParser {
         Map<String, Object> pepProperties = new HashMap<>(2);
         pepProperties.put(PROPERTY_SEQUENCE, peptide);
         pepProperties.put(PROPERTY_LENGTH, peptide.length());
-        long pepID = batchInserter.createNode(pepProperties, LABEL_PEPTIDE);
 
-        addIonsForPeptide(pepID, peptide, batchInserter);
+        long pepID;
+        if (compactIons) {
+            // the ions are only collected and stored with the peptide node
+            nrCompactIons = 0;
+            addIonsForPeptide(-1, peptide, batchInserter);
+            pepProperties.put(PROPERTY_ION_MASS_TO_CHARGE, Arrays.copyOf(compactMassToCharges, nrCompactIons));
+            pepProperties.put(PROPERTY_ION_CHARGE, Arrays.copyOf(compactCharges, nrCompactIons));
+            pepProperties.put(PROPERTY_ION_MODIFICATION, Arrays.copyOf(compactModifications, nrCompactIons));
+            pepID = batchInserter.createNode(pepProperties, LABEL_PEPTIDE);
+        } else {
+            pepID = batchInserter.createNode(pepProperties, LABEL_PEPTIDE);
+            addIonsForPeptide(pepID, peptide, batchInserter);
+        }
 
         addedPeptides++;
         return pepID;
@@ -382,153 +738,140 @@ public class ParseToNeo4J extends AbstractFastaParser {
 
 
     /**
-     * Adds the ions created by the given peptide to the database. All possible charges and modifications are iterated.
+     * Adds the ions created by the given peptide to the database. All possible
+     * charges and modifications (up to the maximal number of variable
+     * modifications) are iterated. Peptides with more than
+     * {@link PeptideMassCalculator#MAX_VARIABLE_SITES} modification sites get
+     * no ions.
      *
-     * @param pepNodeId
+     * @param pepNodeId the peptide node, not used for compact ions
      * @param sequence
      */
     private void addIonsForPeptide(long pepNodeId, String sequence, BatchInserter batchInserter) {
-        Map<String, Double> modificationMasses = getPossibleModificationMasses(sequence);
-
-        Double enzymeAddedMass = NeutralLoss.WATER_LOSS.getMonoMass();
-        Double unmodifiedMass = MoleculeUtilities.calculateTheoreticalMass(sequence, enzymeAddedMass);
-
-        Map<String, Object> ionProperties = new HashMap<>(1);
-        Map<String, Object> ionisationProperties = new HashMap<>(3);
-
-        modificationMasses.forEach((encMods, massShift) ->  {
-            double theoreticalMass = unmodifiedMass + massShift;
-
-            for (Integer charge : charges) {
-                double theoreticalMz = (theoreticalMass + charge * NuclearParticle.PROTON.getMonoMass()) / charge;
-
-                ionProperties.clear();
-                ionProperties.put(PROPERTY_MASS_TO_CHARGE, theoreticalMz);
-                long ionID = batchInserter.createNode(ionProperties, LABEL_ION);
-
-                ionisationProperties.clear();
-                ionisationProperties.put(PROPERTY_CHARGE, charge);
-                String[] splittedModifications = splitEncodedModifications(encMods, massShift);
-                ionisationProperties.put(PROPERTY_MODIFICATION_FIXED, splittedModifications[0]);
-                ionisationProperties.put(PROPERTY_MODIFICATION_VARIABLE, splittedModifications[1]);
-
-                batchInserter.createRelationship(pepNodeId, ionID, DigestedRelTypes.BELONGS_TO, ionisationProperties);
-            }
-        });
+        try {
+            massCalculator.forEachModifiedForm(sequence, maxVariableModifications, encodeUnmodified,
+                    (theoreticalMass, withFixed, variableMask) ->
+                            addIons(pepNodeId, theoreticalMass, withFixed, variableMask, batchInserter));
+        } catch (IllegalArgumentException e) {
+            // the peptide has unknown residues or too many modification sites
+            LOGGER.warn("Skipping the ions of peptide {}: {}", sequence, e.getMessage());
+        }
     }
 
 
     /**
-     * Split the encoded modifications into the fixed and variable part.
+     * Adds the ions of all charges for the given modified form of the current
+     * peptide of the mass calculator. Compact ions are only collected for the
+     * peptide node.
      *
-     * @param encodedModifications
-     * @param totalMassShift
-     * @return
+     * @param pepNodeId
+     * @param theoreticalMass the mass of the modified peptide
+     * @param withFixed whether the fixed modifications are applied
+     * @param variableMask the applied variable modifications
+     * @param batchInserter
      */
-    private String[] splitEncodedModifications(String encodedModifications, double totalMassShift) {
-        String fixedModifcations = "";
-        String variableModifcations = "";
-
-        if ((totalMassShift > 0) || (totalMassShift < 0)) {
-            if (encodedModifications.contains(FIXED_MODIFICATION_SPLITTER)) {
-                String[] splittedModifcations = encodedModifications.split(FIXED_MODIFICATION_SPLITTER.toString());
-                fixedModifcations = splittedModifcations[0];
-                if (splittedModifcations.length > 1) {
-                    variableModifcations = splittedModifcations[1];
-                }
-            } else  {
-                fixedModifcations = "";
-                variableModifcations = encodedModifications;
+    private void addIons(long pepNodeId, double theoreticalMass, boolean withFixed, long variableMask,
+            BatchInserter batchInserter) {
+        String fixedModifications = withFixed ? massCalculator.getFixedModificationsString() : "";
+        String variableModifications = massCalculator.getVariableModificationsString(variableMask);
+
+        if (compactIons) {
+            int modificationIndex = getModificationIndex(fixedModifications, variableModifications, batchInserter);
+            for (Integer charge : charges) {
+                addCompactIon(PeptideMassCalculator.calculateMassToCharge(theoreticalMass, charge), charge,
+                        modificationIndex);
             }
+            return;
         }
 
-        return new String[]{fixedModifcations, variableModifcations};
+        for (Integer charge : charges) {
+            ionProperties.clear();
+            ionProperties.put(PROPERTY_MASS_TO_CHARGE, PeptideMassCalculator.calculateMassToCharge(theoreticalMass, charge));
+            long ionID = batchInserter.createNode(ionProperties, LABEL_ION);
+
+            ionisationProperties.clear();
+            ionisationProperties.put(PROPERTY_CHARGE, charge);
+            ionisationProperties.put(PROPERTY_MODIFICATION_FIXED, fixedModifications);
+            ionisationProperties.put(PROPERTY_MODIFICATION_VARIABLE, variableModifications);
+
+            batchInserter.createRelationship(pepNodeId, ionID, DigestedRelTypes.BELONGS_TO, ionisationProperties);
+        }
     }
 
 
     /**
-     * Creates a mapping for all possible modifications of the given sequence.
-     *
-     * @param sequence
-     * @return mapping from encoded modifications to the mass shift
+     * Loads the dictionary of the compact schema from the modification nodes,
+     * which are already in the DB, so their indices are not assigned again
      */
-    private Map<String, Double> getPossibleModificationMasses(String sequence) {
-        Map<String, Double> modificationMasses = new HashMap<>();
-        modificationMasses.put("", 0.0);
-
-        double fixedMass = 0;
-        Set<Character> foundFixed = new HashSet<>(fixedModifications.size());
-        if (!fixedModifications.isEmpty() || !variableModifications.isEmpty()) {
-            char[] seqChar = sequence.toCharArray();
-            for (int idx=0; idx < seqChar.length; idx++) {
-                if (fixedModifications.keySet().contains(seqChar[idx])) {
-                    fixedMass += fixedModifications.get(seqChar[idx]);
-                    foundFixed.add(seqChar[idx]);
-                }
+    private void loadModificationIndices() {
+        modificationIndices.clear();
 
-                if (variableModifications.keySet().contains(seqChar[idx])) {
-                    double mass = variableModifications.get(seqChar[idx]);
-
-                    StringBuilder variableString = new StringBuilder();
-                    variableString.append(seqChar[idx]);
-                    variableString.append(idx+1);
-                    variableString.append('[');
-                    variableString.append(mass);
-                    variableString.append(']');
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase( new File(dbPath) );
+        registerShutdownHook(graphDb);
 
-                    modificationMasses = addVariableModificationToMap(mass,
-                            variableString.toString(), modificationMasses);
-                }
+        try (Transaction tx = graphDb.beginTx();
+                ResourceIterator<Node> modificationNodes = graphDb.findNodes(LABEL_MODIFICATION)) {
+            while (modificationNodes.hasNext()) {
+                Node modificationNode = modificationNodes.next();
+                String key = modificationNode.getProperty(PROPERTY_MODIFICATION_FIXED).toString() + '|'
+                        + modificationNode.getProperty(PROPERTY_MODIFICATION_VARIABLE);
+                modificationIndices.put(key,
+                        ((Number) modificationNode.getProperty(PROPERTY_MODIFICATION_INDEX)).intValue());
             }
+            tx.success();
         }
 
-        // now add the fixed modifications
-        if (!foundFixed.isEmpty()) {
-            StringBuilder fixedSb = new StringBuilder();
-            for (Character fixed : foundFixed) {
-                fixedSb.append(fixed);
-                fixedSb.append('[');
-                fixedSb.append(fixedModifications.get(fixed));
-                fixedSb.append(']');
-            }
-            String fixedString = fixedSb.toString();
-
-            Map<String, Double> iterMasses = modificationMasses;
-            modificationMasses = new HashMap<>(iterMasses.size());
-            for (Map.Entry<String, Double> modIt : iterMasses.entrySet()) {
-                modificationMasses.put(fixedString + FIXED_MODIFICATION_SPLITTER + modIt.getKey(),
-                        fixedMass + modIt.getValue());
+        LOGGER.info("found {} modifications already in the DB", modificationIndices.size());
 
-                if (encodeUnmodified) {
-                    modificationMasses.put(modIt.getKey(), modIt.getValue());
-                }
-            }
-        }
-
-        return modificationMasses;
+        graphDb.shutdown();
     }
 
 
     /**
-     * Adds to the given map of encoded modifications a new variable
-     * modification with the given mass and encoding. Effectively, the map size
-     * will be doubled by this.
+     * Returns the index of the encoded modifications in the dictionary of the
+     * compact schema. New modifications are added to the dictionary and
+     * inserted as modification node.
      *
-     * @param mass
-     * @param modEncode
-     * @param modificationMasses
+     * @param fixedModifications
+     * @param variableModifications
+     * @param batchInserter
      * @return
      */
-    private Map<String, Double> addVariableModificationToMap(double mass, String modEncode,
-            Map<String, Double> modificationMasses) {
-        Map<String, Double> varModMasses = new HashMap<>(modificationMasses.size()*2);
-
-        for (Map.Entry<String, Double> modIt : modificationMasses.entrySet()) {
-            varModMasses.put(modIt.getKey() + modEncode, modIt.getValue() + mass);
+    private int getModificationIndex(String fixedModifications, String variableModifications,
+            BatchInserter batchInserter) {
+        String key = fixedModifications + '|' + variableModifications;
+        Integer index = modificationIndices.get(key);
+        if (index == null) {
+            index = modificationIndices.size();
+            modificationIndices.put(key, index);
+
+            Map<String, Object> modificationProperties = new HashMap<>(4);
+            modificationProperties.put(PROPERTY_MODIFICATION_INDEX, index);
+            modificationProperties.put(PROPERTY_MODIFICATION_FIXED, fixedModifications);
+            modificationProperties.put(PROPERTY_MODIFICATION_VARIABLE, variableModifications);
+            batchInserter.createNode(modificationProperties, LABEL_MODIFICATION);
         }
+        return index;
+    }
+
 
-        varModMasses.putAll(modificationMasses);
-        return varModMasses;
+    /**
+     * Adds an ion to the compact ions of the current peptide
+     *
+     * @param massToCharge
+     * @param charge
+     * @param modificationIndex
+     */
+    private void addCompactIon(double massToCharge, int charge, int modificationIndex) {
+        if (nrCompactIons == compactMassToCharges.length) {
+            compactMassToCharges = Arrays.copyOf(compactMassToCharges, nrCompactIons * 2);
+            compactCharges = Arrays.copyOf(compactCharges, nrCompactIons * 2);
+            compactModifications = Arrays.copyOf(compactModifications, nrCompactIons * 2);
+        }
+        compactMassToCharges[nrCompactIons] = massToCharge;
+        compactCharges[nrCompactIons] = charge;
+        compactModifications[nrCompactIons] = modificationIndex;
+        nrCompactIons++;
     }
 
 
@@ -560,6 +903,35 @@ public class ParseToNeo4J extends AbstractFastaParser {
     }
 
 
+    /**
+     * Creates the indizes with the batch inserter, they are populated when the
+     * inserter is shut down
+     *
+     * @param batchInserter
+     */
+    private void createDeferredIndizes(BatchInserter batchInserter) {
+        LOGGER.info("Creating deferred indizes.");
+
+        batchInserter.createDeferredSchemaIndex(LABEL_PEPTIDE)
+                .on(PROPERTY_SEQUENCE)
+                .create();
+
+        batchInserter.createDeferredSchemaIndex(LABEL_ACCESSION)
+                .on(PROPERTY_ACCESSION)
+                .create();
+
+        if (compactIons) {
+            batchInserter.createDeferredSchemaIndex(LABEL_MODIFICATION)
+                    .on(PROPERTY_MODIFICATION_INDEX)
+                    .create();
+        } else {
+            batchInserter.createDeferredSchemaIndex(LABEL_ION)
+                    .on(PROPERTY_MASS_TO_CHARGE)
+                    .create();
+        }
+    }
+
+
     /**
      * Creates the indizes for the graphDB
      */
@@ -582,9 +954,15 @@ public class ParseToNeo4J extends AbstractFastaParser {
                     .on(PROPERTY_ACCESSION)
                     .create();
 
-            schema.indexFor(LABEL_ION)
-                    .on(PROPERTY_MASS_TO_CHARGE)
-                    .create();
+            if (compactIons) {
+                schema.indexFor(LABEL_MODIFICATION)
+                        .on(PROPERTY_MODIFICATION_INDEX)
+                        .create();
+            } else {
+                schema.indexFor(LABEL_ION)
+                        .on(PROPERTY_MASS_TO_CHARGE)
+                        .create();
+            }
 
             tx.success();
         }
@@ -640,15 +1018,37 @@ public class ParseToNeo4J extends AbstractFastaParser {
             parser.setMaxPeptidesBeforeInsert(maxPeps);
         }
 
+        if (argv.length > 3) {
+            parser.setSingleInserterSession(Boolean.parseBoolean(argv[3]));
+        }
+
+        if (argv.length > 4) {
+            parser.setCsvExportPath(argv[4]);
+        }
+
+        if (argv.length > 5) {
+            parser.setCompactIons(Boolean.parseBoolean(argv[5]));
+        }
+
+        if (argv.length > 6) {
+            try {
+                parser.setMaxVariableModifications(Integer.parseInt(argv[6]));
+            } catch (NumberFormatException e) {
+                LOGGER.error("Invalid maximal number of variable modifications '{}', keeping the default", argv[6]);
+            }
+        }
+
+        parser.setNumberOfThreads(Runtime.getRuntime().availableProcessors());
+
         LOGGER.info("start parsing");
         try {
             parser.parseFastaFile();
             LOGGER.info("parsing done");
         } catch (IOException e) {
             LOGGER.error(e);
+        } finally {
+            parser.shutdown();
         }
-
-        parser.shutdown();
     }
 
     /*
@@ -670,6 +1070,15 @@ WHERE
         and r.charge = 3
 RETURN count(p)
 
+
+the same with the compact ions
+MATCH (p:peptide)
+WHERE any(i IN range(0, size(p.ion_mass_to_charge) - 1)
+        WHERE p.ion_mass_to_charge[i] >= 299.7
+        and p.ion_mass_to_charge[i] <= 300.3
+        and p.ion_charge[i] = 3)
+RETURN count(p)
+
      */
 
 }
@@ -0,0 +1,217 @@
+package de.mpc.tools.parsefastapeptide.neo4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.mpc.tools.parsefastapeptide.PackedPeptide;
+
+
+/**
+ * The accessions and peptides, which are inserted together into the graph. The
+ * peptides are mapped to the positions of their accessions in this batch.
+ * <p>
+ * While the batch is filled, the peptides are only deduplicated by an open
+ * addressing hash table and the positions of their accessions are kept in
+ * linked lists of primitive ints. The unique peptides are sorted once, when
+ * the batch is inserted. Not thread-safe.
+ *
+ * @author julian
+ *
+ */
+class PeptideBatch {
+
+    /** the maximal load factor of the table */
+    private static final double MAX_LOAD = 0.7;
+
+    /** the accessions (i.e. FASTA headers) in this batch */
+    private final List<String> accessions;
+
+    /** the unique peptides in the order of their addition */
+    private PackedPeptide[] peptides;
+
+    /** the index of the last accession node for each peptide, -1 for none */
+    private int[] lastNodes;
+
+    /** number of unique peptides */
+    private int size;
+
+    /** the hash table, the index of the peptide plus one or 0 for empty slots */
+    private int[] table;
+
+    /** the accession positions of the nodes */
+    private int[] nodeAccessions;
+
+    /** the index of the previous node of the same peptide, -1 for the first node */
+    private int[] nodePrevious;
+
+    /** number of used nodes */
+    private int nrNodes;
+
+
+    public PeptideBatch() {
+        this.accessions = new ArrayList<>();
+        this.peptides = new PackedPeptide[1024];
+        this.lastNodes = new int[peptides.length];
+        this.size = 0;
+        this.table = new int[2048];
+        this.nodeAccessions = new int[1024];
+        this.nodePrevious = new int[nodeAccessions.length];
+        this.nrNodes = 0;
+    }
+
+
+    /**
+     * Adds the accession to the batch
+     *
+     * @param header
+     * @return the position of the accession in the batch
+     */
+    public int addAccession(String header) {
+        accessions.add(header);
+        return accessions.size() - 1;
+    }
+
+
+    /**
+     * Adds the peptide for the accession at the given position. The peptides of
+     * an accession must be added together, before the next accession is added.
+     *
+     * @param peptide
+     * @param accessionPosition
+     */
+    public void addPeptide(PackedPeptide peptide, int accessionPosition) {
+        int slot = findSlot(peptide);
+        int index = table[slot] - 1;
+        if (index < 0) {
+            if (size + 1 > table.length * MAX_LOAD) {
+                resizeTable();
+                slot = findSlot(peptide);
+            }
+            if (size == peptides.length) {
+                peptides = Arrays.copyOf(peptides, size * 2);
+                lastNodes = Arrays.copyOf(lastNodes, size * 2);
+            }
+
+            index = size++;
+            peptides[index] = peptide;
+            lastNodes[index] = -1;
+            table[slot] = index + 1;
+        } else if ((lastNodes[index] >= 0) && (nodeAccessions[lastNodes[index]] == accessionPosition)) {
+            // the peptide occurs more than once in the accession
+            return;
+        }
+
+        if (nrNodes == nodeAccessions.length) {
+            nodeAccessions = Arrays.copyOf(nodeAccessions, nrNodes * 2);
+            nodePrevious = Arrays.copyOf(nodePrevious, nrNodes * 2);
+        }
+        nodeAccessions[nrNodes] = accessionPosition;
+        nodePrevious[nrNodes] = lastNodes[index];
+        lastNodes[index] = nrNodes++;
+    }
+
+
+    /**
+     * Returns the first probed slot of the peptide, using the upper bits of
+     * the spread hash
+     *
+     * @param peptide
+     * @return
+     */
+    private int firstSlot(PackedPeptide peptide) {
+        return (peptide.hashCode() * 0x9E3779B9) >>> (Integer.numberOfLeadingZeros(table.length) + 1);
+    }
+
+
+    /**
+     * Returns the slot of the given peptide or the empty slot, at which it
+     * should be inserted
+     *
+     * @param peptide
+     * @return
+     */
+    private int findSlot(PackedPeptide peptide) {
+        int mask = table.length - 1;
+        int slot = firstSlot(peptide);
+        while ((table[slot] != 0) && !peptides[table[slot] - 1].equals(peptide)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+
+    /**
+     * Doubles the size of the hash table
+     */
+    private void resizeTable() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int index = 0; index < size; index++) {
+            int slot = firstSlot(peptides[index]);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index + 1;
+        }
+    }
+
+
+    /**
+     * Returns the accessions in the order of their positions
+     *
+     * @return
+     */
+    public List<String> getAccessions() {
+        return accessions;
+    }
+
+
+    /**
+     * Returns the unique peptides of the batch, sorted in parallel
+     *
+     * @return
+     */
+    public PackedPeptide[] getSortedPeptides() {
+        PackedPeptide[] sorted = Arrays.copyOf(peptides, size);
+        Arrays.parallelSort(sorted);
+        return sorted;
+    }
+
+
+    /**
+     * Returns the ascending positions of the accessions containing the
+     * peptide
+     *
+     * @param peptide
+     * @return the positions or an empty array, if the peptide is not in the batch
+     */
+    public int[] getAccessionPositions(PackedPeptide peptide) {
+        int index = table[findSlot(peptide)] - 1;
+        if (index < 0) {
+            return new int[0];
+        }
+
+        int nrPositions = 0;
+        for (int node = lastNodes[index]; node >= 0; node = nodePrevious[node]) {
+            nrPositions++;
+        }
+
+        // the lists run from the last added accession backwards
+        int[] positions = new int[nrPositions];
+        for (int node = lastNodes[index]; node >= 0; node = nodePrevious[node]) {
+            positions[--nrPositions] = nodeAccessions[node];
+        }
+        return positions;
+    }
+
+
+    /**
+     * Returns the number of unique peptides in the batch
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+}
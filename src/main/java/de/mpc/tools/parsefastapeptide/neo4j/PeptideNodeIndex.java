@@ -0,0 +1,249 @@
+package de.mpc.tools.parsefastapeptide.neo4j;
+
+import java.util.Arrays;
+
+
+/**
+ * A compact mapping from peptide sequences to the IDs of their nodes in the
+ * graph, which replaces the lookups in the database while one
+ * {@link org.neo4j.unsafe.batchinsert.BatchInserter} is used for the whole
+ * import.
+ * <p>
+ * The sequences are stored as bytes in large pages, the table is an open
+ * addressing hash table (with linear probing) in primitive arrays, so there
+ * are no objects per peptide. Not thread-safe.
+ *
+ * @author julian
+ *
+ */
+class PeptideNodeIndex {
+
+    /** the maximal load factor of the table */
+    private static final double MAX_LOAD = 0.7;
+
+    /** number of bits of the size of a sequence page */
+    private static final int PAGE_BITS = 24;
+
+    /** the maximal length of a stored sequence */
+    private static final int MAX_SEQUENCE_LENGTH = 0xffff;
+
+    /** the pages of the sequences, each sequence is stored as two bytes of length followed by its bytes */
+    private byte[][] pages;
+
+    /** number of used pages */
+    private int nrPages;
+
+    /** the position in the last page */
+    private int pagePosition;
+
+    /** the addresses of the sequences (page and position) plus one, 0 for empty slots */
+    private long[] addresses;
+
+    /** the hash codes of the sequences */
+    private int[] hashes;
+
+    /** the node IDs */
+    private long[] nodeIds;
+
+    /** number of stored peptides */
+    private int size;
+
+
+    public PeptideNodeIndex() {
+        this(1 << 16);
+    }
+
+
+    /**
+     * Creates an index for the given number of peptides, it grows if needed
+     *
+     * @param initialCapacity
+     */
+    public PeptideNodeIndex(int initialCapacity) {
+        int capacity = 16;
+        while (capacity * MAX_LOAD < initialCapacity) {
+            capacity <<= 1;
+        }
+        this.addresses = new long[capacity];
+        this.hashes = new int[capacity];
+        this.nodeIds = new long[capacity];
+        this.pages = new byte[4][];
+        this.nrPages = 0;
+        this.pagePosition = 1 << PAGE_BITS;
+        this.size = 0;
+    }
+
+
+    /**
+     * Returns the node ID of the given peptide
+     *
+     * @param peptide
+     * @return the node ID or -1, if the peptide is not in the index
+     */
+    public long get(CharSequence peptide) {
+        int slot = findSlot(peptide, hash(peptide));
+        return (addresses[slot] != 0) ? nodeIds[slot] : -1;
+    }
+
+
+    /**
+     * Sets the node ID of the given peptide
+     *
+     * @param peptide
+     * @param nodeId
+     */
+    public void put(CharSequence peptide, long nodeId) {
+        int hash = hash(peptide);
+        int slot = findSlot(peptide, hash);
+        if (addresses[slot] == 0) {
+            if (size + 1 > addresses.length * MAX_LOAD) {
+                resize();
+                slot = findSlot(peptide, hash);
+            }
+            addresses[slot] = storeSequence(peptide) + 1;
+            hashes[slot] = hash;
+            size++;
+        }
+        nodeIds[slot] = nodeId;
+    }
+
+
+    /**
+     * Returns the number of stored peptides
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Calculates the hash code of the sequence
+     *
+     * @param peptide
+     * @return
+     */
+    private static int hash(CharSequence peptide) {
+        int hash = 0;
+        for (int i = 0; i < peptide.length(); i++) {
+            hash = 31 * hash + peptide.charAt(i);
+        }
+        return hash;
+    }
+
+
+    /**
+     * Returns the first probed slot for the hash code, using the upper bits of
+     * the spread hash
+     *
+     * @param hash
+     * @param capacity a power of two
+     * @return
+     */
+    private static int firstSlot(int hash, int capacity) {
+        return (hash * 0x9E3779B9) >>> (Integer.numberOfLeadingZeros(capacity) + 1);
+    }
+
+
+    /**
+     * Returns the slot of the given peptide or the empty slot, at which it
+     * should be inserted
+     *
+     * @param peptide
+     * @param hash
+     * @return
+     */
+    private int findSlot(CharSequence peptide, int hash) {
+        int mask = addresses.length - 1;
+        int slot = firstSlot(hash, addresses.length);
+        while ((addresses[slot] != 0)
+                && ((hashes[slot] != hash) || !matches(addresses[slot] - 1, peptide))) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+
+    /**
+     * Checks whether the sequence at the given address equals the peptide
+     *
+     * @param address
+     * @param peptide
+     * @return
+     */
+    private boolean matches(long address, CharSequence peptide) {
+        byte[] page = pages[(int) (address >>> PAGE_BITS)];
+        int pos = (int) (address & ((1 << PAGE_BITS) - 1));
+        int length = ((page[pos] & 0xff) << 8) | (page[pos + 1] & 0xff);
+        if (length != peptide.length()) {
+            return false;
+        }
+
+        pos += 2;
+        for (int i = 0; i < length; i++) {
+            if (page[pos + i] != (byte) peptide.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Stores the sequence in the pages, a sequence never crosses pages
+     *
+     * @param peptide
+     * @return the address of the stored sequence
+     */
+    private long storeSequence(CharSequence peptide) {
+        int length = peptide.length();
+        if (length > MAX_SEQUENCE_LENGTH) {
+            throw new IllegalArgumentException("Peptide of length " + length + " is too long for the index");
+        }
+
+        if (pagePosition + 2 + length > (1 << PAGE_BITS)) {
+            if (nrPages == pages.length) {
+                pages = Arrays.copyOf(pages, pages.length * 2);
+            }
+            pages[nrPages++] = new byte[1 << PAGE_BITS];
+            pagePosition = 0;
+        }
+
+        byte[] page = pages[nrPages - 1];
+        long address = ((long) (nrPages - 1) << PAGE_BITS) | pagePosition;
+        page[pagePosition++] = (byte) (length >>> 8);
+        page[pagePosition++] = (byte) length;
+        for (int i = 0; i < length; i++) {
+            page[pagePosition++] = (byte) peptide.charAt(i);
+        }
+        return address;
+    }
+
+
+    /**
+     * Doubles the capacity of the table
+     */
+    private void resize() {
+        long[] oldAddresses = addresses;
+        int[] oldHashes = hashes;
+        long[] oldNodeIds = nodeIds;
+
+        addresses = new long[oldAddresses.length * 2];
+        hashes = new int[addresses.length];
+        nodeIds = new long[addresses.length];
+
+        int mask = addresses.length - 1;
+        for (int i = 0; i < oldAddresses.length; i++) {
+            if (oldAddresses[i] != 0) {
+                int slot = firstSlot(oldHashes[i], addresses.length);
+                while (addresses[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                addresses[slot] = oldAddresses[i];
+                hashes[slot] = oldHashes[i];
+                nodeIds[slot] = oldNodeIds[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package de.mpc.tools.parsefastapeptide;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AbstractFastaParserTest {
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testFormerProcessEntry() throws IOException {
+		File fastaFile = File.createTempFile("parser-test", ".fasta");
+		fastaFile.deleteOnExit();
+		Files.write(fastaFile.toPath(), ">P1\nMTEYK\nLVVV\n>P2\nGAAGVGK\n".getBytes(StandardCharsets.UTF_8));
+
+		List<String> entries = new ArrayList<>();
+		AbstractFastaParser formerParser = new AbstractFastaParser(fastaFile.getAbsolutePath()) {
+			@Override
+			public void processEntry(String header, StringBuilder proteinSequence) {
+				entries.add(header + "=" + proteinSequence);
+			}
+		};
+		assertEquals(2, formerParser.parseFastaFile());
+		assertEquals("P1=MTEYKLVVV", entries.get(0));
+		assertEquals("P2=GAAGVGK", entries.get(1));
+
+		entries.clear();
+		AbstractFastaParser parser = new AbstractFastaParser(fastaFile.getAbsolutePath()) {
+			@Override
+			public void processEntry(String header, CharSequence proteinSequence) {
+				entries.add(header + "=" + proteinSequence);
+			}
+		};
+		parser.processEntry("P3", new StringBuilder("SALTIQLIQ"));
+		assertEquals("P3=SALTIQLIQ", entries.get(0));
+	}
+
+
+	@Test(expected = IllegalStateException.class)
+	public void testMissingProcessEntry() {
+		new AbstractFastaParser("none.fasta") {
+		};
+	}
+}
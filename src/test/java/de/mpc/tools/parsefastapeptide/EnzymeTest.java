@@ -2,6 +2,12 @@ package de.mpc.tools.parsefastapeptide;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
 import org.junit.Test;
 
 public class EnzymeTest {
@@ -59,4 +65,74 @@ public class EnzymeTest {
 		CIIM									, , K, SALTIQLIQNHFVDEYDPTIEDSYRK, QVVIDGETCLLDILDTAGR, KQVVIDGETCLLDILDTAGR, EEYSAMR, QVVIDGETCLLDILDTAGREEYSAMR, DQYMR, EEYSAMRDQYMR, TGEGFLCVFAINNTK, DQYMRTGEGFLCVFAINNTK, SFEDIHHYR, TGEGFLCVFAINNTKSFEDIHHYR, EQIK, SFEDIHHYREQIK, R, EQIKR, VK, RVK, DSEDVPMVLVGNNCDLPSR, VKDSEDVPMVLVGNNCDLPSR, TVDTK, DSEDVPMVLVGNNCDLPSRTVDTK, QAQDLAR, TVDTKQAQDLAR, SYGIPFIETSTK, QAQDLARSYGIPFIETSTK, TR, SYGIPFIETSTKTR, QR, TRQR, VEDAFYTLVR, QRVEDAFYTLVR, EIR, VEDAFYTLVREIR, QYR, EIRQYR, LK, QYRLK, K, LKK, ISK, KISK, EEK, ISKEEK, TPGCVK, EEKTPGCVK, IK, TPGCVKIK, K, IKK, CIIM, KCIIM
 		*/
 	}
+	
+	
+	@Test
+	public void testCleavageRuleMatchesPattern() {
+		// including characters beyond ASCII, which are only cleaved by CUTALL
+		String residues = "ACDEFGHIKLMNPQRSTVWYXUBZO*\u00e9\u0085\u2028";
+		String codePoint = "\ud83d\ude00";
+		Random random = new Random(4711);
+		
+		String[] proteins = new String[200];
+		proteins[0] = "";
+		proteins[1] = "K";
+		proteins[2] = "KP";
+		proteins[3] = "PKKRPMKM";
+		for (int i = 4; i < proteins.length; i++) {
+			StringBuilder sb = new StringBuilder();
+			int length = 1 + random.nextInt(300);
+			for (int j = 0; j < length; j++) {
+				int residue = random.nextInt(residues.length() + 1);
+				if (residue < residues.length()) {
+					sb.append(residues.charAt(residue));
+				} else {
+					sb.append(codePoint);
+				}
+			}
+			proteins[i] = sb.toString();
+		}
+		
+		for (Enzyme enzyme : Enzyme.values()) {
+			for (String protein : proteins) {
+				for (int missedCleavages = 0; missedCleavages <= 3; missedCleavages++) {
+					assertEquals(enzyme + " on " + protein,
+							enzyme.digestProteinByPattern(protein, 0, 0, missedCleavages),
+							enzyme.digestProtein(protein, 0, 0, missedCleavages));
+					assertEquals(enzyme + " on " + protein,
+							enzyme.digestProteinByPattern(protein, 6, 30, missedCleavages),
+							enzyme.digestProtein(protein, 6, 30, missedCleavages));
+				}
+			}
+		}
+	}
+	
+	
+	@Test
+	public void testCombinedEnzymes() throws DigestException {
+		String residues = "ACDEFGHIKLMNPQRSTVWY";
+		Random random = new Random(42);
+		
+		for (int i = 0; i < 100; i++) {
+			StringBuilder sb = new StringBuilder();
+			int length = random.nextInt(200);
+			for (int j = 0; j < length; j++) {
+				sb.append(residues.charAt(random.nextInt(residues.length())));
+			}
+			String protein = sb.toString();
+			
+			TreeSet<Integer> union = new TreeSet<>();
+			for (Enzyme enzyme : new Enzyme[]{Enzyme.TRYPSIN, Enzyme.CNBR, Enzyme.CHYMOTRYPSIN}) {
+				for (int site : enzyme.getCleavageSites(protein)) {
+					union.add(site);
+				}
+			}
+			
+			int[] combined = Enzyme.getCombinedCleavageSites(protein, Enzyme.TRYPSIN, Enzyme.CNBR, Enzyme.CHYMOTRYPSIN);
+			assertEquals(new ArrayList<>(union), Arrays.stream(combined).boxed().collect(Collectors.toList()));
+		}
+		
+		ProteinDigester digester = new ProteinDigester(new Enzyme[]{Enzyme.TRYPSIN, Enzyme.CNBR}, 0, 0, 1);
+		assertEquals(Arrays.asList("AK", "BM", "AKBM", "CR", "BMCR", "D", "CRD"), digester.digest("AKBMCRD"));
+	}
 }
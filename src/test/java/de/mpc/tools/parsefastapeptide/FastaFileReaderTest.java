@@ -0,0 +1,182 @@
+package de.mpc.tools.parsefastapeptide;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class FastaFileReaderTest {
+	
+	@Test
+	public void testReadEntries() throws IOException {
+		String fasta = "ignored line before the first entry\n"
+				+ ">sp|P1|FIRST first protein \r\n"
+				+ "MTEYK LVVV\r\n"
+				+ "  GAAGVGK\t\r\n"
+				+ "\n"
+				+ ">sp|P2|EMPTY no sequence\n"
+				+ ">sp|P3|LAST last protein\n"
+				+ "SALTIQLIQ>NH\n"
+				+ "FV";
+		
+		File fastaFile = File.createTempFile("reader-test", ".fasta");
+		fastaFile.deleteOnExit();
+		Files.write(fastaFile.toPath(), fasta.getBytes(StandardCharsets.UTF_8));
+		
+		List<String> entries = new ArrayList<>();
+		int entryCount = new FastaFileReader(fastaFile.getAbsolutePath()).read(
+				(header, sequence) -> entries.add(header + "=" + sequence));
+		
+		assertEquals(3, entryCount);
+		assertEquals(2, entries.size());
+		assertEquals("sp|P1|FIRST first protein=MTEYKLVVVGAAGVGK", entries.get(0));
+		assertEquals("sp|P3|LAST last protein=SALTIQLIQ>NHFV", entries.get(1));
+	}
+	
+	
+	@Test
+	public void testParallelReadMatchesSequential() throws IOException {
+		byte[] fasta = createRandomFasta(2000);
+		
+		File fastaFile = File.createTempFile("reader-test", ".fasta");
+		fastaFile.deleteOnExit();
+		Files.write(fastaFile.toPath(), fasta);
+		
+		FastaFileReader reader = new FastaFileReader(fastaFile.getAbsolutePath());
+		reader.setMinRangeSize(1000);
+		
+		assertSameEntries(reader, 2000);
+	}
+	
+	
+	@Test
+	public void testReadCompressed() throws IOException {
+		byte[] fasta = createRandomFasta(2000);
+		
+		File gzipFile = File.createTempFile("reader-test", ".fasta.gz");
+		gzipFile.deleteOnExit();
+		try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzipFile.toPath()))) {
+			out.write(fasta);
+		}
+		assertSameEntries(new FastaFileReader(gzipFile.getAbsolutePath()), 2000);
+		
+		File bgzfFile = File.createTempFile("reader-test", ".fasta.gz");
+		bgzfFile.deleteOnExit();
+		Files.write(bgzfFile.toPath(), compressBgzf(fasta, 5000));
+		assertSameEntries(new FastaFileReader(bgzfFile.getAbsolutePath()), 2000);
+	}
+	
+	
+	@Test
+	public void testHandlerExceptionOfCompressedFile() throws IOException {
+		File bgzfFile = File.createTempFile("reader-test", ".fasta.gz");
+		bgzfFile.deleteOnExit();
+		Files.write(bgzfFile.toPath(), compressBgzf(createRandomFasta(2000), 5000));
+		
+		UncheckedIOException handlerException = new UncheckedIOException(new IOException("handler failed"));
+		for (int threads : new int[]{1, 4}) {
+			try {
+				new FastaFileReader(bgzfFile.getAbsolutePath()).read((header, sequence) -> {
+					throw handlerException;
+				}, threads);
+				fail("the exception of the handler was not thrown");
+			} catch (UncheckedIOException e) {
+				assertSame(handlerException, e);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Reads the file sequentially and with 4 threads and checks for the same
+	 * entries
+	 */
+	private static void assertSameEntries(FastaFileReader reader, int expectedCount) throws IOException {
+		List<String> sequentialEntries = new ArrayList<>();
+		int sequentialCount = reader.read((header, sequence) -> sequentialEntries.add(header + "=" + sequence));
+		
+		List<String> parallelEntries = Collections.synchronizedList(new ArrayList<>());
+		int parallelCount = reader.read((header, sequence) -> parallelEntries.add(header + "=" + sequence), 4);
+		
+		assertEquals(expectedCount, sequentialCount);
+		assertEquals(sequentialCount, parallelCount);
+		Collections.sort(sequentialEntries);
+		Collections.sort(parallelEntries);
+		assertEquals(sequentialEntries, parallelEntries);
+	}
+	
+	
+	private static byte[] createRandomFasta(int nrEntries) {
+		Random random = new Random(42);
+		StringBuilder fasta = new StringBuilder();
+		for (int i = 0; i < nrEntries; i++) {
+			fasta.append(">protein").append(i).append(" description\n");
+			int length = random.nextInt(200);
+			for (int j = 0; j < length; j++) {
+				fasta.append("ACDEFGHIKLMNPQRSTVWY".charAt(random.nextInt(20)));
+				if (j % 60 == 59) {
+					fasta.append('\n');
+				}
+			}
+			fasta.append('\n');
+		}
+		return fasta.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	
+	/**
+	 * Compresses the data into BGZF blocks of the given uncompressed size,
+	 * followed by the empty EOF block
+	 */
+	private static byte[] compressBgzf(byte[] data, int blockSize) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int start = 0; start <= data.length; start += blockSize) {
+			int length = Math.min(blockSize, data.length - start);
+			
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			deflater.setInput(data, start, length);
+			deflater.finish();
+			byte[] compressed = new byte[length + 1024];
+			int compressedLength = deflater.deflate(compressed);
+			deflater.end();
+			
+			CRC32 crc = new CRC32();
+			crc.update(data, start, length);
+			
+			int totalSize = 18 + compressedLength + 8;
+			out.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+					(byte) (totalSize - 1), (byte) ((totalSize - 1) >> 8)}, 0, 18);
+			out.write(compressed, 0, compressedLength);
+			writeIntLE(out, (int) crc.getValue());
+			writeIntLE(out, length);
+			
+			if (length == 0) {
+				break;
+			}
+		}
+		return out.toByteArray();
+	}
+	
+	
+	private static void writeIntLE(ByteArrayOutputStream out, int value) {
+		for (int i = 0; i < 4; i++) {
+			out.write(value >> (8 * i));
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package de.mpc.tools.parsefastapeptide;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IonIndexTest {
+
+	private static final Map<Character, Double> FIXED = new HashMap<>();
+
+	private static final Map<Character, Double> VARIABLE = new HashMap<>();
+
+	static {
+		FIXED.put('C', 57.021464);
+		VARIABLE.put('M', 15.994915);
+		VARIABLE.put('S', 79.966331);
+	}
+
+
+	private static List<String> createPeptides() {
+		Random random = new Random(7);
+		String residues = "ACDEFGHIKLMNPQRSTVWY";
+		List<String> peptides = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			StringBuilder peptide = new StringBuilder();
+			int length = 5 + random.nextInt(15);
+			for (int j = 0; j < length; j++) {
+				peptide.append(residues.charAt(random.nextInt(residues.length())));
+			}
+			peptides.add(peptide.toString());
+		}
+		return peptides;
+	}
+
+
+	private static File writeIndex(List<String> peptides, int recordsPerRun) throws IOException {
+		File indexFile = File.createTempFile("ions", ".ionidx");
+		indexFile.deleteOnExit();
+		try (IonIndexWriter writer = new IonIndexWriter(indexFile.getAbsolutePath(), FIXED, VARIABLE)) {
+			writer.setCharges(1, 2, 3);
+			writer.setMaxVariableModifications(2);
+			writer.setRecordsPerRun(recordsPerRun);
+			for (int i = 0; i < peptides.size(); i++) {
+				assertTrue(writer.add(i, peptides.get(i)));
+			}
+			assertFalse(writer.add(peptides.size(), "PEPXIDE"));
+		}
+		return indexFile;
+	}
+
+
+	@Test
+	public void testSortedIons() throws IOException {
+		List<String> peptides = createPeptides();
+		File inMemory = writeIndex(peptides, 1 << 20);
+		// small runs force several merge passes
+		File merged = writeIndex(peptides, 7);
+
+		try (IonIndex index = new IonIndex(inMemory.getAbsolutePath());
+				IonIndex mergedIndex = new IonIndex(merged.getAbsolutePath())) {
+			assertEquals(FIXED, index.getFixedModifications());
+			assertEquals(VARIABLE, index.getVariableModifications());
+			assertEquals(2, index.getMaxVariableModifications());
+			assertEquals(index.size(), mergedIndex.size());
+
+			PeptideMassCalculator calculator = index.createMassCalculator();
+			long expectedSize = 0;
+			for (String peptide : peptides) {
+				calculator.setPeptide(peptide);
+				long forms = ModificationCombinations.count(calculator.getNrVariableSites(), 2);
+				expectedSize += 3 * forms * (calculator.hasFixedModifications() ? 2 : 1);
+			}
+			assertEquals(expectedSize, index.size());
+
+			for (long i = 0; i < index.size(); i++) {
+				assertEquals(index.getMassToCharge(i), mergedIndex.getMassToCharge(i), 0.0);
+				assertEquals(index.getPeptideId(i), mergedIndex.getPeptideId(i));
+				assertEquals(index.getCharge(i), mergedIndex.getCharge(i));
+				assertEquals(index.getModificationId(i), mergedIndex.getModificationId(i));
+				if (i > 0) {
+					assertTrue(index.getMassToCharge(i - 1) <= index.getMassToCharge(i));
+				}
+
+				// the stored m/z matches the decoded modifications
+				long modificationId = index.getModificationId(i);
+				calculator.setPeptide(peptides.get(index.getPeptideId(i)));
+				double mass = calculator.getMass()
+						+ calculator.getVariableMassShift(IonIndex.getVariableModifications(modificationId))
+						+ (IonIndex.hasFixedModifications(modificationId) ? calculator.getFixedMassShift() : 0);
+				assertEquals(PeptideMassCalculator.calculateMassToCharge(mass, index.getCharge(i)),
+						index.getMassToCharge(i), 1e-9);
+			}
+		}
+	}
+
+
+	@Test
+	public void testRangeQuery() throws IOException {
+		File indexFile = writeIndex(createPeptides(), 100);
+
+		try (IonIndex index = new IonIndex(indexFile.getAbsolutePath())) {
+			Random random = new Random(3);
+			for (int query = 0; query < 200; query++) {
+				double massToCharge = 300 + random.nextDouble() * 1500;
+				int charge = random.nextInt(4);
+				boolean ppm = random.nextBoolean();
+				double tolerance = ppm ? 500 : 0.5;
+				double delta = ppm ? massToCharge * tolerance / 1e6 : tolerance;
+
+				List<Long> expected = new ArrayList<>();
+				for (long i = 0; i < index.size(); i++) {
+					double ionMassToCharge = index.getMassToCharge(i);
+					if ((ionMassToCharge >= massToCharge - delta) && (ionMassToCharge <= massToCharge + delta)
+							&& ((charge == 0) || (index.getCharge(i) == charge))) {
+						expected.add(i);
+					}
+				}
+
+				long[] found = index.find(massToCharge, tolerance,
+						ppm ? IonIndex.ToleranceUnit.PPM : IonIndex.ToleranceUnit.DA, charge);
+				long[] expectedArray = new long[expected.size()];
+				for (int i = 0; i < expectedArray.length; i++) {
+					expectedArray[i] = expected.get(i);
+				}
+				assertArrayEquals(expectedArray, found);
+			}
+
+			assertEquals(0, index.lowerBound(0));
+			assertEquals(index.size(), index.lowerBound(1e9));
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package de.mpc.tools.parsefastapeptide;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class ModificationCombinationsTest {
+	
+	@Test
+	public void testBoundedCombinations() {
+		for (int nrSites = 0; nrSites <= 12; nrSites++) {
+			for (int maxModifications = 0; maxModifications <= nrSites + 1; maxModifications++) {
+				Set<Long> combinations = new HashSet<>();
+				int lastBits = 0;
+				ModificationCombinations iterator = new ModificationCombinations(nrSites, maxModifications);
+				while (iterator.hasNext()) {
+					long combination = iterator.nextLong();
+					int bits = Long.bitCount(combination);
+					assertTrue(bits <= maxModifications);
+					assertTrue(bits >= lastBits);
+					assertEquals(0, combination >>> nrSites);
+					assertTrue(combinations.add(combination));
+					lastBits = bits;
+				}
+				
+				long expected = 0;
+				for (long mask = 0; mask < (1L << nrSites); mask++) {
+					if (Long.bitCount(mask) <= maxModifications) {
+						expected++;
+					}
+				}
+				assertEquals(expected, combinations.size());
+				assertEquals(expected, ModificationCombinations.count(nrSites, maxModifications));
+			}
+		}
+	}
+	
+	
+	@Test
+	public void testManySites() {
+		ModificationCombinations iterator = new ModificationCombinations(63, 2);
+		long count = 0;
+		while (iterator.hasNext()) {
+			assertTrue(Long.bitCount(iterator.nextLong()) <= 2);
+			count++;
+		}
+		assertEquals(1 + 63 + 63 * 62 / 2, count);
+		assertFalse(iterator.hasNext());
+		
+		// the binomials of 63 sites exceed a long before their division
+		assertEquals(1L << 62, ModificationCombinations.count(63, 31));
+		assertEquals(Long.MAX_VALUE, ModificationCombinations.count(63, 62));
+		assertEquals(Long.MAX_VALUE, ModificationCombinations.count(63, 63));
+	}
+}
@@ -0,0 +1,87 @@
+package de.mpc.tools.parsefastapeptide;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class OffHeapPeptideStoreTest {
+	
+	@Test
+	public void testDirectMemoryMatchesHeap() throws IOException {
+		assertSameAsHeap(null);
+	}
+	
+	
+	@Test
+	public void testMappedFileMatchesHeap() throws IOException {
+		assertSameAsHeap(new File(System.getProperty("java.io.tmpdir")));
+	}
+	
+	
+	@Test
+	public void testInterleavedAccessionsOfSharedPeptide() throws IOException {
+		AccessionDictionary accessions = new AccessionDictionary();
+		PeptideSpan shared = PeptideSpan.of("PEPTIDE");
+		
+		try (OffHeapPeptideStore distinct = new OffHeapPeptideStore(accessions, null, 16);
+				OffHeapPeptideStore interleaved = new OffHeapPeptideStore(accessions, null, 16)) {
+			for (int id = 9992; id >= 0; id -= 8) {
+				for (int i = 0; i < 8; i++) {
+					distinct.addPeptide(shared, id + i);
+				}
+				
+				// eight proteins of different threads add their occurrences alternately
+				for (int occurrence = 0; occurrence < 3; occurrence++) {
+					for (int i = 0; i < 8; i++) {
+						interleaved.addPeptide(shared, id + i);
+					}
+				}
+			}
+			
+			// the repeated occurrences are removed before the accessions grow
+			assertTrue(interleaved.getUsedBytes() <= 2 * distinct.getUsedBytes());
+			
+			PeptideRecord record = interleaved.get("PEPTIDE");
+			assertEquals(30000, record.getOccurrences());
+			assertEquals(10000, record.getNrAccessions());
+			for (int i = 0; i < 10000; i++) {
+				assertEquals(i, record.getAccessionId(i));
+			}
+		}
+	}
+	
+	
+	private static void assertSameAsHeap(File directory) throws IOException {
+		AccessionDictionary accessions = new AccessionDictionary();
+		PeptideAggregator heap = new PeptideAggregator(accessions);
+		
+		// small initial capacity, so the table is resized a few times
+		try (OffHeapPeptideStore offHeap = new OffHeapPeptideStore(accessions, directory, 16)) {
+			PeptideStoreFixture.addRandomPeptides(accessions, 20000, heap, offHeap);
+			
+			assertEquals(heap.size(), offHeap.size());
+			assertNull(offHeap.get("ACDEF"));
+			
+			int count = 0;
+			Iterator<Map.Entry<PackedPeptide, PeptideRecord>> it = offHeap.iterator();
+			while (it.hasNext()) {
+				Map.Entry<PackedPeptide, PeptideRecord> entry = it.next();
+				PeptideRecord expected = heap.get(entry.getKey());
+				
+				assertEquals(expected.getOccurrences(), entry.getValue().getOccurrences());
+				assertArrayEquals(expected.getAccessionIds(), entry.getValue().getAccessionIds());
+				count++;
+			}
+			assertEquals(heap.size(), count);
+			assertEquals(heap.getAccessionMapView(), offHeap.getAccessionMapView());
+		}
+	}
+}
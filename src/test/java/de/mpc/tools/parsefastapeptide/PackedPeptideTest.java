@@ -0,0 +1,56 @@
+package de.mpc.tools.parsefastapeptide;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PackedPeptideTest {
+	
+	@Test
+	public void testStringSemantics() {
+		String[] peptides = {"", "A", "AZ", "Z", "ABCDEFGHIJKL", "ABCDEFGHIJKLM", "ABCDEFGHIJKLA",
+				"ABCDEFGHIJKLMNOPQRSTUVWXYZ", "ABCDEFGHIJKLMNOPQRSTUVWXY", "PEPTIDE", "PEP*TIDE", "PEP-TIDE", "pep"};
+		
+		for (String pep1 : peptides) {
+			PackedPeptide packed = PackedPeptide.pack(pep1);
+			assertEquals(pep1, packed.toString());
+			assertEquals(pep1.length(), packed.length());
+			assertEquals(packed, PackedPeptide.pack(new PeptideSpan("X" + pep1 + "X", 1, pep1.length() + 1)));
+			assertEquals(packed.hashCode(), PackedPeptide.pack(new StringBuilder(pep1)).hashCode());
+			
+			for (String pep2 : peptides) {
+				assertEquals(pep1 + " <> " + pep2, Integer.signum(pep1.compareTo(pep2)),
+						Integer.signum(packed.compareTo(PackedPeptide.pack(pep2))));
+				assertEquals(pep1.equals(pep2), packed.equals(PackedPeptide.pack(pep2)));
+				assertEquals(pep1.equals(pep2), packed.contentEquals(new PeptideSpan("X" + pep2 + "X", 1, pep2.length() + 1)));
+			}
+		}
+	}
+	
+	
+	@Test
+	public void testRandomOrdering() {
+		Random random = new Random(42);
+		String residues = "ACDEFGHIKLMNPQRSTVWYX";
+		String[] peptides = new String[500];
+		for (int i = 0; i < peptides.length; i++) {
+			StringBuilder peptide = new StringBuilder();
+			int length = random.nextInt(40);
+			for (int j = 0; j < length; j++) {
+				peptide.append(residues.charAt(random.nextInt(4 + (j % 3) * 8)));
+			}
+			peptides[i] = peptide.toString();
+		}
+		
+		for (String pep1 : peptides) {
+			for (String pep2 : peptides) {
+				int cmp = PackedPeptide.pack(pep1).compareTo(PackedPeptide.pack(pep2));
+				assertEquals(Integer.signum(pep1.compareTo(pep2)), Integer.signum(cmp));
+				assertTrue((cmp == 0) == pep1.equals(pep2));
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package de.mpc.tools.parsefastapeptide;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PeptideIndexTest {
+	
+	@Test
+	public void testWriteAndLookup() throws IOException {
+		AccessionDictionary accessions = new AccessionDictionary();
+		PeptideAggregator peptides = new PeptideAggregator(accessions);
+		
+		Random random = new Random(42);
+		String residues = "ACDEFGHIKLMNPQRSTVWY";
+		for (int i = 0; i < 5000; i++) {
+			StringBuilder peptide = new StringBuilder();
+			int length = 1 + random.nextInt(20);
+			for (int j = 0; j < length; j++) {
+				peptide.append(residues.charAt(random.nextInt(length < 4 ? 3 : residues.length())));
+			}
+			// accession IDs with large gaps
+			int accessionId = accessions.getId("sp|P" + random.nextInt(500) + "|\u00e4");
+			peptides.addPeptide(PeptideSpan.of(peptide), accessionId);
+		}
+		
+		File indexFile = File.createTempFile("peptides", ".pepidx");
+		indexFile.deleteOnExit();
+		PeptideIndexWriter.write(peptides, indexFile.getAbsolutePath());
+		
+		try (PeptideIndex index = new PeptideIndex(indexFile.getAbsolutePath())) {
+			assertEquals(peptides.size(), index.size());
+			assertEquals(accessions.size(), index.getNrAccessions());
+			
+			List<String> sorted = new ArrayList<>();
+			peptides.forEach((peptide, record) -> sorted.add(peptide.toString()));
+			Collections.sort(sorted);
+			
+			for (int i = 0; i < sorted.size(); i++) {
+				String peptide = sorted.get(i);
+				assertEquals(peptide, index.getPeptide(i));
+				assertEquals(i, index.indexOf(peptide));
+				
+				PeptideRecord expected = peptides.get(peptide);
+				PeptideRecord record = index.get(peptide);
+				assertEquals(expected.getOccurrences(), record.getOccurrences());
+				assertArrayEquals(expected.getAccessionIds(), record.getAccessionIds());
+				assertEquals(accessions.getAccession(expected.getAccessionId(0)), index.getAccessions(peptide).get(0));
+			}
+			
+			for (String missing : new String[]{"", "XXX", "AAAAAAAAAAAAAAAAAAAAA", "MMMMMMMMMMMMM"}) {
+				assertNull(index.get(missing));
+				assertEquals(Collections.binarySearch(sorted, missing), index.indexOf(missing));
+			}
+		}
+	}
+}
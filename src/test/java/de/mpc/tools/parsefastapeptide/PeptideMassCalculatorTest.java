@@ -0,0 +1,67 @@
+package de.mpc.tools.parsefastapeptide;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import uk.ac.ebi.pride.utilities.mol.MoleculeUtilities;
+import uk.ac.ebi.pride.utilities.mol.NeutralLoss;
+
+public class PeptideMassCalculatorTest {
+	
+	@Test
+	public void testMassesAndModifications() {
+		Map<Character, Double> fixedModifications = new HashMap<>();
+		fixedModifications.put('C', 57.021464);
+		Map<Character, Double> variableModifications = new HashMap<>();
+		variableModifications.put('M', 15.994915);
+		variableModifications.put('S', 79.966331);
+		
+		PeptideMassCalculator calculator = new PeptideMassCalculator(fixedModifications, variableModifications);
+		
+		String peptide = "MPEPCSMK";
+		calculator.setPeptide(peptide);
+		assertEquals(MoleculeUtilities.calculateTheoreticalMass(peptide, NeutralLoss.WATER_LOSS.getMonoMass()),
+				calculator.getMass(), 1e-9);
+		
+		assertTrue(calculator.hasFixedModifications());
+		assertEquals(57.021464, calculator.getFixedMassShift(), 1e-9);
+		assertEquals("C[57.021464]", calculator.getFixedModificationsString());
+		
+		assertEquals(3, calculator.getNrVariableSites());
+		assertEquals(0, calculator.getVariableSitePosition(0));
+		assertEquals(5, calculator.getVariableSitePosition(1));
+		assertEquals(6, calculator.getVariableSitePosition(2));
+		
+		assertEquals(0.0, calculator.getVariableMassShift(0), 0.0);
+		assertEquals("", calculator.getVariableModificationsString(0));
+		assertEquals(15.994915 + 15.994915, calculator.getVariableMassShift(0b101), 1e-9);
+		assertEquals("M1[15.994915]M7[15.994915]", calculator.getVariableModificationsString(0b101));
+		assertEquals("S6[79.966331]", calculator.getVariableModificationsString(0b010));
+		
+		calculator.setPeptide("PEPTIDE");
+		assertFalse(calculator.hasFixedModifications());
+		assertEquals("", calculator.getFixedModificationsString());
+		assertEquals(0, calculator.getNrVariableSites());
+	}
+	
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownResidue() {
+		new PeptideMassCalculator(new HashMap<>(), new HashMap<>()).setPeptide("PEP1TIDE");
+	}
+	
+	
+	@Test
+	public void testIsAminoAcidSequence() {
+		for (String sequence : new String[] {"PEPTIDE", "PEP1TIDE", "PEPTIDE*", "BJOUXZ"}) {
+			assertEquals(sequence, MoleculeUtilities.isAminoAcidSequence(sequence),
+					PeptideMassCalculator.isAminoAcidSequence(new StringBuilder(sequence)));
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package de.mpc.tools.parsefastapeptide;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class PeptideRecordTest {
+
+	@Test
+	public void testUnorderedAccessions() {
+		Random random = new Random(42);
+		PeptideRecord record = new PeptideRecord();
+		TreeSet<Integer> expected = new TreeSet<>();
+
+		for (int i = 0; i < 100000; i++) {
+			int accessionId = random.nextInt(1000);
+			record.addOccurrence(accessionId);
+			expected.add(accessionId);
+
+			if (i % 10000 == 0) {
+				// reading in between sorts the IDs added so far
+				assertEquals(expected.size(), record.getNrAccessions());
+			}
+		}
+
+		assertEquals(100000, record.getOccurrences());
+		assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), record.getAccessionIds());
+		assertTrue(record.containsAccessionId(expected.first()));
+		assertFalse(record.containsAccessionId(1000));
+	}
+}
@@ -0,0 +1,44 @@
+package de.mpc.tools.parsefastapeptide;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PeptideSpanTest {
+	
+	@Test
+	public void testStringSemantics() {
+		String protein = "MTEYKLVVVGAAGVGKSALTIQLIQNHFVDEYDPTIEDSYRK";
+		PeptideSpan span = new PeptideSpan(protein, 5, 16);
+		
+		assertEquals("LVVVGAAGVGK", span.toString());
+		assertEquals("LVVVGAAGVGK".hashCode(), span.hashCode());
+		assertEquals(PeptideSpan.of("LVVVGAAGVGK"), span);
+		assertEquals(span, span.compact());
+		assertEquals(PeptideSpan.of(""), new PeptideSpan(protein, 3, 3));
+		assertEquals("VVGA", span.subSequence(2, 6).toString());
+		
+		String[] peptides = {"", "A", "AB", "B", "ABC", "AC", "K", "KR"};
+		for (String pep1 : peptides) {
+			for (String pep2 : peptides) {
+				assertEquals(Integer.signum(pep1.compareTo(pep2)),
+						Integer.signum(PeptideSpan.of(pep1).compareTo(new PeptideSpan("X" + pep2 + "X", 1, pep2.length() + 1))));
+			}
+		}
+	}
+	
+	
+	@Test
+	public void testMapLookup() {
+		Map<PeptideSpan, Integer> map = new HashMap<>();
+		map.put(PeptideSpan.of("SALTIQLIQNHFVDEYDPTIEDSYR"), 1);
+		
+		String protein = "LVVVGAAGVGKSALTIQLIQNHFVDEYDPTIEDSYRK";
+		assertEquals(Integer.valueOf(1), map.get(new PeptideSpan(protein, 11, 36)));
+		assertTrue(!map.containsKey(new PeptideSpan(protein, 11, 37)));
+	}
+}
@@ -0,0 +1,40 @@
+package de.mpc.tools.parsefastapeptide;
+
+import java.util.Random;
+
+/**
+ * Fills several peptide stores with identical random peptides, so the stores
+ * can be compared with each other.
+ */
+class PeptideStoreFixture {
+	
+	private PeptideStoreFixture() {
+	}
+	
+	
+	/**
+	 * Adds the same short random peptides of 50 accessions to all stores. The
+	 * peptides have 1 to 4 residues and are cut out of a longer sequence.
+	 * 
+	 * @param accessions
+	 * @param nrPeptides
+	 * @param stores
+	 */
+	static void addRandomPeptides(AccessionDictionary accessions, int nrPeptides, PeptideStore... stores) {
+		Random random = new Random(42);
+		String residues = "ACDEFGHIKLMNPQRSTVWY";
+		for (int i = 0; i < nrPeptides; i++) {
+			StringBuilder peptide = new StringBuilder();
+			int length = 1 + random.nextInt(4);
+			for (int j = 0; j < length; j++) {
+				peptide.append(residues.charAt(random.nextInt(residues.length())));
+			}
+			int accessionId = accessions.getId("P" + random.nextInt(50));
+			
+			PeptideSpan span = new PeptideSpan("X" + peptide + "X", 1, length + 1);
+			for (PeptideStore store : stores) {
+				store.addPeptide(span, accessionId);
+			}
+		}
+	}
+}
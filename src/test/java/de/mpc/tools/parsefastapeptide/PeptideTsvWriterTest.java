@@ -0,0 +1,130 @@
+package de.mpc.tools.parsefastapeptide;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class PeptideTsvWriterTest {
+	
+	@Test
+	public void testWriteSortedCompressedSplit() throws IOException {
+		PeptideStore peptides = createPeptides(50000);
+		
+		File file = File.createTempFile("peptides", ".tsv");
+		file.deleteOnExit();
+		
+		PeptideTsvWriter writer = new PeptideTsvWriter();
+		writer.setNumberOfThreads(4);
+		writer.setSorted(true);
+		writer.setGzip(true);
+		writer.setSplitLength(20000);
+		assertEquals(peptides.size(), writer.write(peptides, file.getAbsolutePath()));
+		
+		List<String> rows = new ArrayList<>();
+		for (int split = 1; split <= 3; split++) {
+			File splitFile = new File(file.getAbsolutePath() + ".split" + split + ".gz");
+			splitFile.deleteOnExit();
+			List<String> splitRows = readRows(new GZIPInputStream(new FileInputStream(splitFile)));
+			assertEquals((split < 3) ? 20000 : peptides.size() - 40000, splitRows.size());
+			rows.addAll(splitRows);
+		}
+		assertTrue(!new File(file.getAbsolutePath() + ".split4.gz").exists());
+		
+		List<String> expected = expectedRows(peptides);
+		Collections.sort(expected);
+		assertEquals(expected, rows);
+	}
+	
+	
+	@Test
+	public void testWritePlain() throws IOException {
+		PeptideStore peptides = createPeptides(1000);
+		
+		File file = File.createTempFile("peptides", ".tsv");
+		file.deleteOnExit();
+		new PeptideTsvWriter().write(peptides, file.getAbsolutePath());
+		
+		List<String> rows = readRows(new FileInputStream(file));
+		List<String> expected = expectedRows(peptides);
+		Collections.sort(rows);
+		Collections.sort(expected);
+		assertEquals(expected, rows);
+	}
+
+
+	@Test
+	public void testWritePlainWithGzSuffix() throws IOException {
+		PeptideStore peptides = createPeptides(100);
+
+		File file = File.createTempFile("peptides", ".tsv.gz");
+		file.deleteOnExit();
+		File stripped = new File(file.getAbsolutePath().substring(0, file.getAbsolutePath().length() - 3));
+		new PeptideTsvWriter().write(peptides, file.getAbsolutePath());
+
+		assertTrue(!stripped.exists());
+		assertEquals(peptides.size(), readRows(new FileInputStream(file)).size());
+	}
+
+
+	private static PeptideStore createPeptides(int nrAdded) {
+		AccessionDictionary accessions = new AccessionDictionary();
+		PeptideAggregator peptides = new PeptideAggregator(accessions);
+		
+		Random random = new Random(42);
+		String residues = "ACDEFGHIKLMNPQRSTVWY";
+		for (int i = 0; i < nrAdded; i++) {
+			StringBuilder peptide = new StringBuilder();
+			int length = 3 + random.nextInt(10);
+			for (int j = 0; j < length; j++) {
+				peptide.append(residues.charAt(random.nextInt(residues.length())));
+			}
+			peptides.addPeptide(PeptideSpan.of(peptide), accessions.getId("P" + random.nextInt(1000)));
+		}
+		return peptides;
+	}
+	
+	
+	private static List<String> expectedRows(PeptideStore peptides) {
+		List<String> rows = new ArrayList<>();
+		peptides.forEach((peptide, record) -> {
+			StringBuilder row = new StringBuilder();
+			row.append(peptide).append('\t').append(peptide.length()).append('\t')
+					.append(record.getNrAccessions()).append('\t').append(record.getOccurrences()).append('\t');
+			for (int i = 0; i < record.getNrAccessions(); i++) {
+				row.append((i > 0) ? "," : "").append(peptides.getAccessionDictionary().getAccession(record.getAccessionId(i)));
+			}
+			rows.add(row.toString());
+		});
+		return rows;
+	}
+	
+	
+	/**
+	 * Reads the rows of the file and checks the header
+	 */
+	private static List<String> readRows(InputStream in) throws IOException {
+		List<String> rows = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			assertEquals(PeptideTsvWriter.HEADER, reader.readLine());
+			String line;
+			while ((line = reader.readLine()) != null) {
+				rows.add(line);
+			}
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,46 @@
+package de.mpc.tools.parsefastapeptide;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SpillingPeptideStoreTest {
+	
+	@Test
+	public void testMergedRunsMatchHeap() throws IOException {
+		AccessionDictionary accessions = new AccessionDictionary();
+		PeptideAggregator heap = new PeptideAggregator(accessions);
+		
+		// a tiny budget, so there are more runs than can be merged at once
+		try (SpillingPeptideStore spilling = new SpillingPeptideStore(accessions,
+				new File(System.getProperty("java.io.tmpdir")), 2000)) {
+			PeptideStoreFixture.addRandomPeptides(accessions, 10000, heap, spilling);
+			assertTrue(spilling.getNumberOfRuns() > 64);
+			
+			assertEquals(heap.size(), spilling.size());
+			assertEquals(1, spilling.getNumberOfRuns());
+			
+			int count = 0;
+			PackedPeptide last = null;
+			Iterator<Map.Entry<PackedPeptide, PeptideRecord>> it = spilling.iterator();
+			while (it.hasNext()) {
+				Map.Entry<PackedPeptide, PeptideRecord> entry = it.next();
+				PeptideRecord expected = heap.get(entry.getKey());
+				
+				assertEquals(expected.getOccurrences(), entry.getValue().getOccurrences());
+				assertArrayEquals(expected.getAccessionIds(), entry.getValue().getAccessionIds());
+				assertTrue((last == null) || (last.compareTo(entry.getKey()) < 0));
+				last = entry.getKey();
+				count++;
+			}
+			assertEquals(heap.size(), count);
+		}
+	}
+}
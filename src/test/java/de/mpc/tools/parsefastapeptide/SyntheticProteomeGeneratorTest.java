@@ -0,0 +1,54 @@
+package de.mpc.tools.parsefastapeptide;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class SyntheticProteomeGeneratorTest {
+	
+	@Test
+	public void testDeterministicFasta() throws IOException {
+		File first = File.createTempFile("proteome", ".fasta");
+		first.deleteOnExit();
+		File second = File.createTempFile("proteome", ".fasta");
+		second.deleteOnExit();
+		
+		long nrEntries = new SyntheticProteomeGenerator(7).writeFasta(first.getAbsolutePath(), 1 << 20);
+		assertEquals(nrEntries, new SyntheticProteomeGenerator(7).writeFasta(second.getAbsolutePath(), 1 << 20));
+		assertArrayEquals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath()));
+		assertTrue(first.length() >= (1 << 20));
+		assertTrue(first.length() < (1 << 20) + 100000);
+		
+		List<String> headers = new ArrayList<>();
+		Set<String> sequences = new HashSet<>();
+		int read = new FastaFileReader(first.getAbsolutePath()).read((header, proteinSequence) -> {
+			headers.add(header);
+			sequences.add(proteinSequence.toString());
+		});
+		assertEquals(nrEntries, read);
+		
+		long isoforms = headers.stream().filter(header -> header.matches("sp\\|[OPQ]\\d[A-Z0-9]{3}\\d-\\d+\\|.*")).count();
+		assertTrue(headers.stream().allMatch(header -> header.matches("(sp|tr)\\|[A-Z0-9-]+\\|G[0-9A-Z]+_[A-Z]+ .* OS=.* OX=\\d+ GN=G[0-9A-Z]+ PE=\\d SV=1")));
+		assertEquals(0.1, (double) isoforms / nrEntries, 0.03);
+		assertEquals(0.05, 1.0 - (double) sequences.size() / nrEntries, 0.03);
+	}
+	
+	
+	@Test
+	public void testParseSize() {
+		assertEquals(500L << 20, SyntheticProteomeGenerator.parseSize("500MB"));
+		assertEquals(2L << 30, SyntheticProteomeGenerator.parseSize("2g"));
+		assertEquals(1536, SyntheticProteomeGenerator.parseSize("1.5K"));
+		assertEquals(1000, SyntheticProteomeGenerator.parseSize("1000"));
+	}
+}
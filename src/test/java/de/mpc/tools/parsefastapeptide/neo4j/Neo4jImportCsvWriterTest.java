@@ -0,0 +1,161 @@
+package de.mpc.tools.parsefastapeptide.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.mpc.tools.parsefastapeptide.PackedPeptide;
+
+public class Neo4jImportCsvWriterTest {
+
+	private static List<String> readParts(File directory, String name) throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (File file : directory.listFiles()) {
+			if (file.getName().startsWith(name + "-part")) {
+				lines.addAll(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+			}
+		}
+		return lines;
+	}
+
+
+	@Test
+	public void testParallelExport() throws Exception {
+		File directory = Files.createTempDirectory("csvexport").toFile();
+
+		Map<Character, Double> fixed = new HashMap<>();
+		fixed.put('C', 57.021464);
+		Map<Character, Double> variable = new HashMap<>();
+		variable.put('M', 15.994915);
+
+		Set<String> allPeptides = new HashSet<>();
+		int[] nrRelations = {0};
+
+		try (Neo4jImportCsvWriter writer = new Neo4jImportCsvWriter(directory, fixed, variable,
+				new Integer[]{2, 3}, 3, true)) {
+			List<Thread> threads = new ArrayList<>();
+			for (int t = 0; t < 3; t++) {
+				int threadNr = t;
+				Random random = new Random(t);
+				List<String> headers = new ArrayList<>();
+				List<Set<PackedPeptide>> entries = new ArrayList<>();
+				for (int entry = 0; entry < 200; entry++) {
+					Set<PackedPeptide> peptides = new LinkedHashSet<>();
+					for (int i = 0; i < 10; i++) {
+						// a small alphabet, so the threads share many peptides
+						StringBuilder peptide = new StringBuilder("ACM");
+						for (int j = 0; j < 3; j++) {
+							peptide.append("GKR".charAt(random.nextInt(3)));
+						}
+						peptides.add(PackedPeptide.pack(peptide));
+						allPeptides.add(peptide.toString());
+					}
+					headers.add("sp|P" + threadNr + "_" + entry + "|X_HUMAN Protein \"" + entry + "\", fragment");
+					entries.add(peptides);
+					nrRelations[0] += peptides.size();
+				}
+
+				threads.add(new Thread(() -> {
+					try {
+						for (int entry = 0; entry < headers.size(); entry++) {
+							writer.writeEntry(headers.get(entry), entries.get(entry));
+						}
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}));
+			}
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		}
+
+		List<String> accessions = readParts(directory, "accessions");
+		assertEquals(600, accessions.size());
+		assertTrue(accessions.stream()
+				.anyMatch(line -> line.endsWith(",\"sp|P1_7|X_HUMAN\",\"Protein \"\"7\"\", fragment\"")));
+
+		// each peptide is written once, by any thread
+		List<String> peptides = readParts(directory, "peptides");
+		assertEquals(allPeptides.size(), peptides.size());
+		for (String line : peptides) {
+			String[] fields = line.split(",");
+			assertTrue(allPeptides.contains(fields[0]));
+			assertEquals(Integer.toString(fields[0].length()), fields[1]);
+		}
+
+		assertEquals(nrRelations[0], readParts(directory, "accession_peptide").size());
+
+		// one M site: two variable forms, each with and without the fixed modification, in two charges
+		List<String> ions = readParts(directory, "ions");
+		assertEquals(allPeptides.size() * 8, ions.size());
+		assertEquals(ions.size(), new HashSet<>(ions).size());
+
+		List<String> peptideIons = readParts(directory, "peptide_ion");
+		assertEquals(ions.size(), peptideIons.size());
+		assertTrue(peptideIons.contains("ACMGKR,ACMGKR_3_8000000000000001,3,\"C[57.021464]\",\"M3[15.994915]\""));
+		assertTrue(peptideIons.contains("ACMGKR,ACMGKR_2_0,2,\"\",\"\""));
+
+		String importScript = new String(Files.readAllBytes(new File(directory, "import.sh").toPath()),
+				StandardCharsets.UTF_8);
+		for (File file : directory.listFiles()) {
+			if (file.getName().endsWith(".csv")) {
+				assertTrue(file.getName(), importScript.contains(file.getName()));
+			}
+		}
+		assertTrue(new File(directory, "indexes.cypher").exists());
+
+		deleteDirectory(directory);
+	}
+
+
+	@Test
+	public void testRepeatedAccession() throws Exception {
+		File directory = Files.createTempDirectory("csvexport").toFile();
+
+		try (Neo4jImportCsvWriter writer = new Neo4jImportCsvWriter(directory, new HashMap<>(), new HashMap<>(),
+				new Integer[]{2}, 0, false)) {
+			writer.writeEntry("P12345 first entry", Collections.singleton(PackedPeptide.pack("PEPTIDEK")));
+			writer.writeEntry("P12345 second entry", Collections.singleton(PackedPeptide.pack("PEPTIDER")));
+		}
+
+		// like the batch inserter, each entry is an own node
+		List<String> accessions = readParts(directory, "accessions");
+		assertEquals(Arrays.asList("0,\"P12345\",\"first entry\"", "1,\"P12345\",\"second entry\""), accessions);
+		assertEquals(Arrays.asList("0,PEPTIDEK", "1,PEPTIDER"), readParts(directory, "accession_peptide"));
+
+		String importScript = new String(Files.readAllBytes(new File(directory, "import.sh").toPath()),
+				StandardCharsets.UTF_8);
+		assertFalse(importScript.contains("--ignore-duplicate-nodes"));
+
+		deleteDirectory(directory);
+	}
+
+
+	private static void deleteDirectory(File directory) {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+}
@@ -0,0 +1,52 @@
+package de.mpc.tools.parsefastapeptide.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ParseToNeo4JTest {
+
+	@Test(timeout = 30000)
+	public void testRuntimeExceptionWhileInserting() throws IOException {
+		File fasta = File.createTempFile("insert", ".fasta");
+		fasta.deleteOnExit();
+		StringBuilder entries = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			entries.append(">sp|P").append(i).append("|TEST_HUMAN Test protein\n")
+					.append("MKWVTFISLLFLFSSAYSRGVFRRDAHKSEVAHRFKDLGEENFK\n");
+		}
+		Files.write(fasta.toPath(), entries.toString().getBytes(StandardCharsets.UTF_8));
+		File dbPath = Files.createTempDirectory("graph").toFile();
+
+		RuntimeException failure = new IllegalStateException("insertion failed");
+		AtomicInteger insertedBatches = new AtomicInteger();
+		ParseToNeo4J parser = new ParseToNeo4J(fasta.getAbsolutePath(), dbPath.getAbsolutePath()) {
+			@Override
+			void insertPeptidesOfBatchIntoDB(PeptideBatch batch) {
+				insertedBatches.incrementAndGet();
+				throw failure;
+			}
+		};
+		// far more batches than fit into the queue, so the parsing blocks if the inserter thread dies
+		parser.setMaxPeptidesBeforeInsert(1);
+		parser.setNumberOfThreads(4);
+
+		try {
+			parser.parseFastaFile();
+			fail("the insertion error was not thrown");
+		} catch (IllegalStateException e) {
+			assertSame(failure, e);
+		}
+		assertEquals(1, insertedBatches.get());
+
+		dbPath.delete();
+	}
+}
@@ -0,0 +1,53 @@
+package de.mpc.tools.parsefastapeptide.neo4j;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import de.mpc.tools.parsefastapeptide.PackedPeptide;
+
+public class PeptideBatchTest {
+	
+	@Test
+	public void testSortedPeptidesWithAccessions() {
+		PeptideBatch batch = new PeptideBatch();
+		TreeMap<PackedPeptide, Set<Integer>> expected = new TreeMap<>();
+		
+		Random random = new Random(42);
+		String residues = "ACDEFGHIKLMNPQRSTVWY";
+		for (int accession = 0; accession < 2000; accession++) {
+			assertEquals(accession, batch.addAccession("acc" + accession));
+			for (int i = 0; i < 20; i++) {
+				StringBuilder peptide = new StringBuilder();
+				int length = 1 + random.nextInt(8);
+				for (int j = 0; j < length; j++) {
+					peptide.append(residues.charAt(random.nextInt(length < 4 ? 3 : residues.length())));
+				}
+				PackedPeptide key = PackedPeptide.pack(peptide);
+				batch.addPeptide(key, accession);
+				expected.computeIfAbsent(key, k -> new TreeSet<>()).add(accession);
+			}
+		}
+		
+		assertEquals(expected.size(), batch.size());
+		assertEquals(2000, batch.getAccessions().size());
+		assertArrayEquals(expected.keySet().toArray(), batch.getSortedPeptides());
+		
+		for (Map.Entry<PackedPeptide, Set<Integer>> entry : expected.entrySet()) {
+			List<Integer> positions = new ArrayList<>();
+			for (int position : batch.getAccessionPositions(entry.getKey())) {
+				positions.add(position);
+			}
+			assertEquals(new ArrayList<>(entry.getValue()), positions);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package de.mpc.tools.parsefastapeptide.neo4j;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.mpc.tools.parsefastapeptide.PackedPeptide;
+
+public class PeptideNodeIndexTest {
+	
+	@Test
+	public void testPutAndGet() {
+		PeptideNodeIndex index = new PeptideNodeIndex(16);
+		Map<String, Long> expected = new HashMap<>();
+		
+		Random random = new Random(42);
+		String residues = "ACDEFGHIKLMNPQRSTVWY";
+		for (long nodeId = 0; nodeId < 100000; nodeId++) {
+			StringBuilder peptide = new StringBuilder();
+			int length = 1 + random.nextInt(30);
+			for (int j = 0; j < length; j++) {
+				peptide.append(residues.charAt(random.nextInt(length < 4 ? 3 : residues.length())));
+			}
+			index.put(peptide, nodeId);
+			expected.put(peptide.toString(), nodeId);
+		}
+		
+		assertEquals(expected.size(), index.size());
+		for (Map.Entry<String, Long> entry : expected.entrySet()) {
+			assertEquals(entry.getValue().longValue(), index.get(entry.getKey()));
+			assertEquals(entry.getValue().longValue(), index.get(PackedPeptide.pack(entry.getKey())));
+		}
+		
+		assertEquals(-1, index.get("XXXXX"));
+		assertEquals(-1, index.get(""));
+	}
+}